@@ -0,0 +1,334 @@
+package nlp.assignments;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import nlp.classify.BatchPredictions;
+import nlp.classify.LabeledInstance;
+import nlp.classify.ProbabilisticClassifier;
+import nlp.classify.ProbabilisticClassifierFactory;
+import nlp.math.SloppyMath;
+import nlp.util.Counter;
+import nlp.util.FastCounter;
+import nlp.util.Indexer;
+import nlp.util.LongCounter;
+
+/**
+ * A generative classifier over strings: each label has a character n-gram
+ * language model, and an input is given the label maximizing P(label) *
+ * P(input | label), the product over its characters (and a stop symbol) of
+ * their probabilities given the preceding order - 1 characters.
+ * <p/>
+ * The language models are interpolated Witten-Bell: an n-gram's probability
+ * mixes its relative frequency after its context with the probability one
+ * order down, giving the lower order more weight the more distinct
+ * characters have followed the context, down to a uniform distribution over
+ * the characters seen in training (plus one for unseen ones). Inputs are
+ * padded at the start so that every character has a full context.
+ * <p/>
+ * The n-grams are packed into longs, 16 bits per character, so the order is
+ * at most MAX_ORDER, and counted in LongCounters. Training is a single pass
+ * over the data, split between threads which each count their share into
+ * their own tables; the tables are then summed.
+ */
+public class CharNGramClassifier<L> implements
+		ProbabilisticClassifier<String, L> {
+
+	public static final int MAX_ORDER = 4;
+
+	static final char START = '\u0002';
+	static final char STOP = '\u0003';
+
+	public static class Factory<L> implements
+			ProbabilisticClassifierFactory<String, L> {
+
+		int order;
+		int numThreads = Runtime.getRuntime().availableProcessors();
+
+		public void setNumThreads(int numThreads) {
+			this.numThreads = numThreads;
+		}
+
+		public CharNGramClassifier<L> trainClassifier(
+				final List<LabeledInstance<String, L>> trainingData) {
+			final Indexer<L> labelIndexer = new Indexer<L>();
+			for (LabeledInstance<String, L> datum : trainingData) {
+				labelIndexer.add(datum.getLabel());
+			}
+			final int numLabels = labelIndexer.size();
+
+			// count each slice of the data into its own tables
+			int numSlices = Math.max(1, Math.min(numThreads, trainingData
+					.size()));
+			int sliceSize = (trainingData.size() + numSlices - 1) / numSlices;
+			List<Callable<LongCounter[]>> slices = new ArrayList<Callable<LongCounter[]>>();
+			for (int begin = 0; begin < trainingData.size(); begin += sliceSize) {
+				final List<LabeledInstance<String, L>> slice = trainingData
+						.subList(begin, Math.min(trainingData.size(), begin
+								+ sliceSize));
+				slices.add(new Callable<LongCounter[]>() {
+					public LongCounter[] call() {
+						LongCounter[] ngrams = new LongCounter[numLabels];
+						for (int j = 0; j < numLabels; j++) {
+							ngrams[j] = new LongCounter();
+						}
+						for (LabeledInstance<String, L> datum : slice) {
+							countNGrams(datum.getInput(), order, ngrams[labelIndexer
+									.indexOf(datum.getLabel())]);
+						}
+						return ngrams;
+					}
+				});
+			}
+			LongCounter[] ngrams = null;
+			for (LongCounter[] sliceNGrams : runInParallel(slices)) {
+				if (ngrams == null) {
+					ngrams = sliceNGrams;
+					continue;
+				}
+				for (int j = 0; j < numLabels; j++) {
+					ngrams[j].incrementAll(sliceNGrams[j]);
+				}
+			}
+			if (ngrams == null)
+				throw new IllegalArgumentException(
+						"CharNGramClassifier: no training data");
+
+			double[] labelCounts = new double[numLabels];
+			for (LabeledInstance<String, L> datum : trainingData) {
+				labelCounts[labelIndexer.indexOf(datum.getLabel())] += 1.0;
+			}
+			return new CharNGramClassifier<L>(labelIndexer, labelCounts,
+					ngrams, order);
+		}
+
+		private <T> List<T> runInParallel(List<Callable<T>> tasks) {
+			List<T> results = new ArrayList<T>();
+			if (numThreads <= 1 || tasks.size() < 2) {
+				for (Callable<T> task : tasks) {
+					try {
+						results.add(task.call());
+					} catch (Exception e) {
+						throw new RuntimeException(e);
+					}
+				}
+				return results;
+			}
+			ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+			try {
+				for (Future<T> future : executor.invokeAll(tasks)) {
+					results.add(future.get());
+				}
+			} catch (InterruptedException e) {
+				throw new RuntimeException(e);
+			} catch (ExecutionException e) {
+				throw new RuntimeException(e.getCause());
+			} finally {
+				executor.shutdown();
+			}
+			return results;
+		}
+
+		public Factory(int order) {
+			if (order < 1 || order > MAX_ORDER)
+				throw new IllegalArgumentException(
+						"CharNGramClassifier: order must be between 1 and "
+								+ MAX_ORDER);
+			this.order = order;
+		}
+	}
+
+	/**
+	 * A character as a 16-bit code, never zero so that the n-grams of
+	 * different orders pack to different keys, and never 0xFFFF so that no
+	 * key is -1.
+	 */
+	private static long code(char c) {
+		return Math.min(c, (char) 0xFFFD) + 1;
+	}
+
+	/**
+	 * The mask keeping the last k characters of a packed n-gram.
+	 */
+	private static long mask(int k) {
+		return (k == MAX_ORDER ? -1L : (1L << (16 * k)) - 1);
+	}
+
+	/**
+	 * The packed context before the first character: order - 1 START
+	 * symbols.
+	 */
+	private static long startKey(int order) {
+		long key = 0L;
+		for (int k = 1; k < order; k++) {
+			key = (key << 16) | code(START);
+		}
+		return key;
+	}
+
+	/**
+	 * Counts the n-grams of every order up to order ending at each character
+	 * of the padded input. An n-gram is packed oldest character first, so
+	 * its context is key >>> 16 and its lower order n-grams are its low
+	 * bits.
+	 */
+	static void countNGrams(String input, int order, LongCounter ngrams) {
+		long key = startKey(order);
+		long orderMask = mask(order);
+		for (int i = 0; i <= input.length(); i++) {
+			char c = (i < input.length() ? input.charAt(i) : STOP);
+			key = ((key << 16) | code(c)) & orderMask;
+			for (int k = 1; k <= order; k++) {
+				ngrams.incrementCount(key & mask(k), 1.0);
+			}
+		}
+	}
+
+	private Indexer<L> labelIndexer;
+	private double[] logPriors;
+	private LongCounter[] ngrams;
+	// for each label, the total count and the number of distinct
+	// characters following each context
+	private LongCounter[] contextCounts;
+	private LongCounter[] contextTypes;
+	private double uniformProbability;
+	private int order;
+
+	/**
+	 * log P(label) + log P(input | label).
+	 */
+	private double logJointProbability(String input, int labelIndex) {
+		LongCounter ngrams = this.ngrams[labelIndex];
+		LongCounter contextCounts = this.contextCounts[labelIndex];
+		LongCounter contextTypes = this.contextTypes[labelIndex];
+		double logProbability = logPriors[labelIndex];
+		long key = startKey(order);
+		long orderMask = mask(order);
+		for (int i = 0; i <= input.length(); i++) {
+			char c = (i < input.length() ? input.charAt(i) : STOP);
+			key = ((key << 16) | code(c)) & orderMask;
+			double probability = uniformProbability;
+			for (int k = 1; k <= order; k++) {
+				long ngram = key & mask(k);
+				long context = ngram >>> 16;
+				double contextCount = contextCounts.getCount(context);
+				if (contextCount == 0.0)
+					// no longer context was seen either
+					break;
+				double types = contextTypes.getCount(context);
+				probability = (ngrams.getCount(ngram) + types * probability)
+						/ (contextCount + types);
+			}
+			logProbability += Math.log(probability);
+		}
+		return logProbability;
+	}
+
+	/**
+	 * Writes the log joint probability of each label, by label index, into
+	 * scores.
+	 */
+	private void score(String input, double[] scores, int offset) {
+		for (int j = 0; j < labelIndexer.size(); j++) {
+			scores[offset + j] = logJointProbability(input, j);
+		}
+	}
+
+	public Counter<L> getProbabilities(String input) {
+		int numLabels = labelIndexer.size();
+		double[] scores = new double[numLabels];
+		score(input, scores, 0);
+		double logNormalizer = SloppyMath.logSumExp(scores, 0, numLabels);
+		Counter<L> probabilities = new FastCounter<L>(numLabels);
+		for (int j = 0; j < numLabels; j++) {
+			probabilities.setCount(labelIndexer.get(j), Math.exp(scores[j]
+					- logNormalizer));
+		}
+		return probabilities;
+	}
+
+	public L getLabel(String input) {
+		int best = 0;
+		double bestScore = Double.NEGATIVE_INFINITY;
+		for (int j = 0; j < labelIndexer.size(); j++) {
+			double score = logJointProbability(input, j);
+			if (score > bestScore) {
+				best = j;
+				bestScore = score;
+			}
+		}
+		return labelIndexer.get(best);
+	}
+
+	/**
+	 * Scores the instances in parallel, straight into the predictions.
+	 */
+	public void predictBatch(List<String> instances,
+			BatchPredictions<L> predictions) {
+		BatchPredictions.predictInParallel(instances, labelIndexer,
+				predictions, new BatchPredictions.InstanceScorer<String>() {
+					public void score(String instance, double[] probabilities,
+							int offset) {
+						int numLabels = labelIndexer.size();
+						CharNGramClassifier.this.score(instance, probabilities,
+								offset);
+						double logNormalizer = SloppyMath.logSumExp(
+								probabilities, offset, offset + numLabels);
+						for (int j = offset; j < offset + numLabels; j++) {
+							probabilities[j] = Math.exp(probabilities[j]
+									- logNormalizer);
+						}
+					}
+				});
+	}
+
+	/**
+	 * The number of distinct n-grams (of all orders) counted for each label.
+	 */
+	public int getNumNGrams() {
+		int n = 0;
+		for (LongCounter labelNGrams : ngrams) {
+			n += labelNGrams.size();
+		}
+		return n;
+	}
+
+	CharNGramClassifier(Indexer<L> labelIndexer, double[] labelCounts,
+			LongCounter[] ngrams, int order) {
+		this.labelIndexer = labelIndexer;
+		this.ngrams = ngrams;
+		this.order = order;
+		int numLabels = labelIndexer.size();
+		double totalCount = 0.0;
+		for (int j = 0; j < numLabels; j++) {
+			totalCount += labelCounts[j];
+		}
+		logPriors = new double[numLabels];
+		contextCounts = new LongCounter[numLabels];
+		contextTypes = new LongCounter[numLabels];
+		LongCounter characters = new LongCounter();
+		for (int j = 0; j < numLabels; j++) {
+			logPriors[j] = Math.log(labelCounts[j] / totalCount);
+			contextCounts[j] = new LongCounter();
+			contextTypes[j] = new LongCounter();
+			LongCounter labelNGrams = ngrams[j];
+			for (int slot = 0; slot < labelNGrams.capacity(); slot++) {
+				if (!labelNGrams.isOccupied(slot))
+					continue;
+				long ngram = labelNGrams.getKeyAt(slot);
+				long context = ngram >>> 16;
+				contextCounts[j].incrementCount(context, labelNGrams
+						.getCountAt(slot));
+				contextTypes[j].incrementCount(context, 1.0);
+				if (context == 0L)
+					characters.incrementCount(ngram, 1.0);
+			}
+		}
+		uniformProbability = 1.0 / (characters.size() + 1);
+	}
+}
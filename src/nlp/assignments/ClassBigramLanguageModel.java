@@ -0,0 +1,139 @@
+package nlp.assignments;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import nlp.langmodel.LanguageModel;
+import nlp.util.Indexer;
+
+/**
+ * Class-based bigram language model:
+ * prob(w|u) = prob(c(w)|c(u)) * prob(w|c(w))
+ * where the word classes come from an ExchangeWordClusterer. The class
+ * transition is interpolated with the class unigram distribution, so the
+ * model only needs numClasses^2 transition counts instead of a word bigram
+ * table.
+ */
+public class ClassBigramLanguageModel implements LanguageModel {
+
+	static final double		lambda	= 0.9;
+	static final String		START	= ExchangeWordClusterer.START;
+	static final String		STOP	= ExchangeWordClusterer.STOP;
+	static final String		UNKNOWN	= ExchangeWordClusterer.UNKNOWN;
+
+	int						numClasses;
+	Indexer<String>			wordIndexer;
+	int[]					wordClasses;
+	int[]					wordCounts;
+	int[]					classBigramCounts;
+	int[]					classLeftCounts;
+	int[]					classRightCounts;
+	double					totalCount;
+	int[][]					classMembers;
+
+	public ClassBigramLanguageModel(
+			Collection<List<String>> sentenceCollection, int numClasses,
+			int numIterations, int numThreads) {
+		final ExchangeWordClusterer clusterer = new ExchangeWordClusterer(
+				numClasses, numIterations, numThreads);
+		clusterer.cluster(sentenceCollection);
+		this.numClasses = clusterer.getNumClasses();
+		this.wordIndexer = clusterer.getWordIndexer();
+		this.wordClasses = clusterer.getWordClasses();
+		this.wordCounts = clusterer.getWordCounts();
+		this.classBigramCounts = clusterer.getClassBigramCounts();
+		this.classLeftCounts = clusterer.getClassLeftCounts();
+		this.classRightCounts = clusterer.getClassRightCounts();
+		for (int c = 0; c < this.numClasses; c++) {
+			totalCount += classRightCounts[c];
+		}
+		buildClassMembers();
+	}
+
+	private void buildClassMembers() {
+		final int[] sizes = new int[numClasses];
+		for (int w = 0; w < wordClasses.length; w++) {
+			sizes[wordClasses[w]]++;
+		}
+		classMembers = new int[numClasses][];
+		for (int c = 0; c < numClasses; c++) {
+			classMembers[c] = new int[sizes[c]];
+			sizes[c] = 0;
+		}
+		for (int w = 0; w < wordClasses.length; w++) {
+			final int c = wordClasses[w];
+			classMembers[c][sizes[c]++] = w;
+		}
+	}
+
+	private int getWordIndex(String word) {
+		final int index = wordIndexer.indexOf(word);
+		if (index < 0) {
+			return wordIndexer.indexOf(UNKNOWN);
+		}
+		return index;
+	}
+
+	double getClassTransitionProbability(int previousClass, int c) {
+		final double unigram = classRightCounts[c] / totalCount;
+		if (classLeftCounts[previousClass] == 0) {
+			return unigram;
+		}
+		final double bigram = classBigramCounts[previousClass * numClasses
+				+ c] / (double) classLeftCounts[previousClass];
+		return lambda * bigram + (1.0 - lambda) * unigram;
+	}
+
+	public double getBigramProbability(String previousWord, String word) {
+		final int previousClass = wordClasses[getWordIndex(previousWord)];
+		final int w = getWordIndex(word);
+		final int c = wordClasses[w];
+		return getClassTransitionProbability(previousClass, c)
+				* wordCounts[w] / classRightCounts[c];
+	}
+
+	@Override
+	public double getSentenceProbability(List<String> sentence) {
+		double probability = 1.0;
+		String previousWord = START;
+		for (int i = 0; i <= sentence.size(); i++) {
+			final String word = (i < sentence.size() ? sentence.get(i) : STOP);
+			probability *= getBigramProbability(previousWord, word);
+			previousWord = word;
+		}
+		return probability;
+	}
+
+	@Override
+	public List<String> generateSentence() {
+		final List<String> sentence = new ArrayList<String>();
+		String word = generateWord(START);
+		while (!word.equals(STOP)) {
+			sentence.add(word);
+			word = generateWord(word);
+		}
+		return sentence;
+	}
+
+	String generateWord(String previousWord) {
+		final int previousClass = wordClasses[getWordIndex(previousWord)];
+		double sample = Math.random();
+		int c = numClasses - 1;
+		for (int d = 0; d < numClasses; d++) {
+			sample -= getClassTransitionProbability(previousClass, d);
+			if (sample < 0) {
+				c = d;
+				break;
+			}
+		}
+		sample = Math.random() * classRightCounts[c];
+		for (final int w : classMembers[c]) {
+			sample -= wordCounts[w];
+			if (sample < 0) {
+				return wordIndexer.get(w);
+			}
+		}
+		return STOP;
+	}
+}
@@ -0,0 +1,361 @@
+package nlp.assignments;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import nlp.assignments.MaximumEntropyClassifier.Encoding;
+import nlp.assignments.MaximumEntropyClassifier.IndexLinearizer;
+import nlp.classify.BatchPredictions;
+import nlp.classify.FeatureExtractor;
+import nlp.classify.ProbabilisticClassifier;
+import nlp.math.SloppyMath;
+import nlp.util.Counter;
+
+/**
+ * A read-only MaxEnt model for deployment, built from a trained
+ * MaximumEntropyClassifier over String features and labels. Compared to the
+ * classifier it is written from:
+ * <ul>
+ * <li>features whose weights are all below a threshold in magnitude are
+ * pruned;</li>
+ * <li>weights are stored as floats;</li>
+ * <li>feature strings are not stored at all: a feature is found through a
+ * minimal perfect hash (hash-and-displace) on its 64 bit fingerprint, which
+ * maps the n kept features one-to-one onto rows 0 ... n - 1, and the stored
+ * fingerprint of the row tells whether the feature was kept.</li>
+ * </ul>
+ * The model is kept in a file whose sections are memory-mapped on load, so
+ * loading does no parsing and the weights live in the page cache rather than
+ * on the heap. Layout (big-endian): magic, version, numLabels, numFeatures,
+ * numBuckets; each label as a length and chars; the displacement of each
+ * bucket; the fingerprint of each row; the numLabels weights of each row.
+ */
+public class CompactMaxEntModel<I> implements
+		ProbabilisticClassifier<I, String> {
+	private static final int MAGIC = 0x4D45434D;
+	private static final int VERSION = 1;
+
+	List<String> labels;
+	int numFeatures;
+	IntBuffer displacements;
+	LongBuffer fingerprints;
+	FloatBuffer weights;
+	FeatureExtractor<I, String> featureExtractor;
+	ThreadLocal<double[]> scratch = new ThreadLocal<double[]>();
+
+	static long fingerprint(String feature) {
+		long h = 0xCBF29CE484222325L;
+		for (int i = 0; i < feature.length(); i++) {
+			h = (h ^ feature.charAt(i)) * 0x100000001B3L;
+		}
+		h ^= h >>> 33;
+		h *= 0xFF51AFD7ED558CCDL;
+		h ^= h >>> 33;
+		h *= 0xC4CEB9FE1A85EC53L;
+		return h ^ (h >>> 33);
+	}
+
+	private static int bucketOf(long fingerprint, int numBuckets) {
+		return (int) ((fingerprint >>> 1) % numBuckets);
+	}
+
+	private static int rowOf(long fingerprint, int displacement, int numRows) {
+		long h = (fingerprint ^ (displacement * 0x9E3779B97F4A7C15L))
+				* 0xBF58476D1CE4E5B9L;
+		h ^= h >>> 31;
+		return (int) ((h >>> 1) % numRows);
+	}
+
+	/**
+	 * The row of the feature, or -1 if it isn't in the model.
+	 */
+	int rowOf(String feature) {
+		if (numFeatures == 0)
+			return -1;
+		long fingerprint = fingerprint(feature);
+		int displacement = displacements.get(bucketOf(fingerprint,
+				displacements.capacity()));
+		if (displacement == 0)
+			return -1;
+		int row = rowOf(fingerprint, displacement, numFeatures);
+		return (fingerprints.get(row) == fingerprint ? row : -1);
+	}
+
+	/**
+	 * Writes the log probabilities of the labels into logProbabilities.
+	 */
+	private void computeLogProbabilities(I input, double[] logProbabilities) {
+		int numLabels = labels.size();
+		Arrays.fill(logProbabilities, 0, numLabels, 0.0);
+		Counter<String> features = featureExtractor.extractFeatures(input);
+		for (String feature : features.keySet()) {
+			int row = rowOf(feature);
+			if (row < 0)
+				continue;
+			double count = features.getCount(feature);
+			int block = row * numLabels;
+			for (int j = 0; j < numLabels; j++) {
+				logProbabilities[j] += weights.get(block + j) * count;
+			}
+		}
+		double logNormalizer = SloppyMath.logSumExp(logProbabilities, 0,
+				numLabels);
+		for (int j = 0; j < numLabels; j++) {
+			logProbabilities[j] -= logNormalizer;
+		}
+	}
+
+	private double[] getScratch() {
+		double[] logProbabilities = scratch.get();
+		if (logProbabilities == null) {
+			logProbabilities = new double[labels.size()];
+			scratch.set(logProbabilities);
+		}
+		return logProbabilities;
+	}
+
+	public Counter<String> getProbabilities(I input) {
+		double[] logProbabilities = getScratch();
+		computeLogProbabilities(input, logProbabilities);
+		Counter<String> probabilities = new Counter<String>();
+		for (int j = 0; j < labels.size(); j++) {
+			probabilities.setCount(labels.get(j), Math.exp(logProbabilities[j]));
+		}
+		return probabilities;
+	}
+
+	public String getLabel(I input) {
+		double[] logProbabilities = getScratch();
+		computeLogProbabilities(input, logProbabilities);
+		int best = 0;
+		for (int j = 1; j < labels.size(); j++) {
+			if (logProbabilities[j] > logProbabilities[best])
+				best = j;
+		}
+		return labels.get(best);
+	}
+
+	public void predictBatch(List<I> instances,
+			BatchPredictions<String> predictions) {
+		BatchPredictions.predictInParallel(instances, labels, predictions,
+				new BatchPredictions.InstanceScorer<I>() {
+					public void score(I instance, double[] probabilities,
+							int offset) {
+						double[] logProbabilities = getScratch();
+						computeLogProbabilities(instance, logProbabilities);
+						for (int j = 0; j < labels.size(); j++) {
+							probabilities[offset + j] = Math
+									.exp(logProbabilities[j]);
+						}
+					}
+				});
+	}
+
+	public List<String> getLabels() {
+		return labels;
+	}
+
+	/**
+	 * The number of (unpruned) features in the model.
+	 */
+	public int getNumFeatures() {
+		return numFeatures;
+	}
+
+	/**
+	 * Writes the classifier's model to the given file, leaving out features
+	 * whose weights for all labels are at most pruneThreshold in magnitude.
+	 * Returns the number of features kept.
+	 */
+	public static int write(
+			MaximumEntropyClassifier<?, String, String> classifier,
+			File file, double pruneThreshold) throws IOException {
+		Encoding<String, String> encoding = classifier.getEncoding();
+		if (encoding.isHashed())
+			throw new IllegalArgumentException(
+					"CompactMaxEntModel: hashed feature models are not supported");
+		IndexLinearizer indexLinearizer = classifier.getIndexLinearizer();
+		double[] classifierWeights = classifier.getWeights();
+		int numLabels = encoding.getNumLabels();
+
+		// prune, and fingerprint what's left
+		int[] kept = new int[encoding.getNumFeatures()];
+		long[] keptFingerprints = new long[encoding.getNumFeatures()];
+		int n = 0;
+		for (int f = 0; f < encoding.getNumFeatures(); f++) {
+			double maxWeight = 0.0;
+			for (int j = 0; j < numLabels; j++) {
+				maxWeight = Math.max(maxWeight, Math.abs(classifierWeights[indexLinearizer
+						.getLinearIndex(f, j)]));
+			}
+			if (maxWeight <= pruneThreshold)
+				continue;
+			kept[n] = f;
+			keptFingerprints[n] = fingerprint(encoding.getFeature(f));
+			n++;
+		}
+
+		int numBuckets = Math.max(1, n / 3);
+		int[] displacements = new int[numBuckets];
+		int[] rowToFeature = buildPerfectHash(keptFingerprints, n,
+				displacements);
+
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(file)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(numLabels);
+			out.writeInt(n);
+			out.writeInt(numBuckets);
+			for (int j = 0; j < numLabels; j++) {
+				String label = encoding.getLabel(j);
+				out.writeInt(label.length());
+				out.writeChars(label);
+			}
+			for (int b = 0; b < numBuckets; b++) {
+				out.writeInt(displacements[b]);
+			}
+			for (int row = 0; row < n; row++) {
+				out.writeLong(keptFingerprints[rowToFeature[row]]);
+			}
+			for (int row = 0; row < n; row++) {
+				int f = kept[rowToFeature[row]];
+				for (int j = 0; j < numLabels; j++) {
+					out.writeFloat((float) classifierWeights[indexLinearizer
+							.getLinearIndex(f, j)]);
+				}
+			}
+		} finally {
+			out.close();
+		}
+		return n;
+	}
+
+	/**
+	 * Hash-and-displace over n fingerprints and exactly n rows: buckets are
+	 * placed largest first, each with the first displacement which sends
+	 * all of its fingerprints to free rows. Fills in the displacement of each
+	 * bucket (0 for empty buckets) and returns, for each row, the position of
+	 * its fingerprint in the input.
+	 */
+	private static int[] buildPerfectHash(long[] fingerprints, int n,
+			int[] displacements) {
+		int numBuckets = displacements.length;
+		int[] bucketStarts = new int[numBuckets + 1];
+		for (int i = 0; i < n; i++) {
+			bucketStarts[bucketOf(fingerprints[i], numBuckets) + 1]++;
+		}
+		for (int b = 0; b < numBuckets; b++) {
+			bucketStarts[b + 1] += bucketStarts[b];
+		}
+		int[] members = new int[n];
+		int[] fill = Arrays.copyOf(bucketStarts, numBuckets);
+		for (int i = 0; i < n; i++) {
+			members[fill[bucketOf(fingerprints[i], numBuckets)]++] = i;
+		}
+		long[] order = new long[numBuckets];
+		for (int b = 0; b < numBuckets; b++) {
+			order[b] = ((long) (bucketStarts[b + 1] - bucketStarts[b]) << 32)
+					| b;
+		}
+		Arrays.sort(order);
+
+		int[] rowToFeature = new int[n];
+		Arrays.fill(rowToFeature, -1);
+		int[] trialRows = new int[0];
+		for (int k = numBuckets - 1; k >= 0; k--) {
+			int b = (int) order[k];
+			int begin = bucketStarts[b];
+			int size = bucketStarts[b + 1] - begin;
+			if (size == 0)
+				break;
+			if (trialRows.length < size)
+				trialRows = new int[size];
+			for (int d = 1;; d++) {
+				if (d == Integer.MAX_VALUE)
+					throw new IllegalStateException(
+							"CompactMaxEntModel: duplicate feature fingerprints");
+				boolean fits = true;
+				for (int j = 0; j < size && fits; j++) {
+					int row = rowOf(fingerprints[members[begin + j]], d, n);
+					if (rowToFeature[row] >= 0)
+						fits = false;
+					for (int j2 = 0; j2 < j && fits; j2++) {
+						if (trialRows[j2] == row)
+							fits = false;
+					}
+					trialRows[j] = row;
+				}
+				if (fits) {
+					displacements[b] = d;
+					for (int j = 0; j < size; j++) {
+						rowToFeature[trialRows[j]] = members[begin + j];
+					}
+					break;
+				}
+			}
+		}
+		return rowToFeature;
+	}
+
+	/**
+	 * Maps a model written by write(). The file stays mapped for as long as
+	 * the model is reachable.
+	 */
+	public static <I> CompactMaxEntModel<I> load(File file,
+			FeatureExtractor<I, String> featureExtractor) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		MappedByteBuffer buffer;
+		try {
+			buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0,
+					raf.length());
+		} finally {
+			// the mapping outlives the channel
+			raf.close();
+		}
+		if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION)
+			throw new IOException("CompactMaxEntModel: not a model file: "
+					+ file);
+		CompactMaxEntModel<I> model = new CompactMaxEntModel<I>();
+		int numLabels = buffer.getInt();
+		model.numFeatures = buffer.getInt();
+		int numBuckets = buffer.getInt();
+		model.labels = new ArrayList<String>();
+		for (int j = 0; j < numLabels; j++) {
+			char[] label = new char[buffer.getInt()];
+			for (int c = 0; c < label.length; c++) {
+				label[c] = buffer.getChar();
+			}
+			model.labels.add(new String(label));
+		}
+		model.displacements = buffer.slice().asIntBuffer();
+		model.displacements.limit(numBuckets);
+		buffer.position(buffer.position() + 4 * numBuckets);
+		model.fingerprints = buffer.slice().asLongBuffer();
+		model.fingerprints.limit(model.numFeatures);
+		buffer.position(buffer.position() + 8 * model.numFeatures);
+		model.weights = buffer.slice().asFloatBuffer();
+		model.weights.limit(model.numFeatures * numLabels);
+		model.displacements = model.displacements.slice();
+		model.fingerprints = model.fingerprints.slice();
+		model.weights = model.weights.slice();
+		model.featureExtractor = featureExtractor;
+		return model;
+	}
+
+	private CompactMaxEntModel() {
+	}
+}
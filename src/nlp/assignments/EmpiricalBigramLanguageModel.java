@@ -6,7 +6,9 @@ import java.util.List;
 
 import nlp.langmodel.LanguageModel;
 import nlp.util.Counter;
-import nlp.util.CounterMap;
+import nlp.util.FastCounter;
+import nlp.util.Indexer;
+import nlp.util.IntCounterMap;
 
 /**
  * Vanilla bi-gram language model.
@@ -18,8 +20,9 @@ class EmpiricalBigramLanguageModel implements LanguageModel {
 	static final String			STOP			= "</S>";
 	static final String			UNKNOWN			= "*UNKNOWN*";
 
-	CounterMap<String, String>	bigramCounter	= new CounterMap<String, String>();
-	Counter<String>				wordCounter		= new Counter<String>();
+	Indexer<String>				wordIndexer		= new Indexer<String>();
+	IntCounterMap				bigramCounter	= new IntCounterMap();
+	Counter<String>				wordCounter		= new FastCounter<String>();
 
 	public EmpiricalBigramLanguageModel(
 			Collection<List<String>> sentenceCollection) {
@@ -28,12 +31,14 @@ class EmpiricalBigramLanguageModel implements LanguageModel {
 					sentence);
 			stoppedSentence.add(0, START);
 			stoppedSentence.add(STOP);
-			String previousWord = stoppedSentence.get(0);
+			int previousWord = wordIndexer
+					.addAndGetIndex(stoppedSentence.get(0));
 			for (int i = 1; i < stoppedSentence.size(); i++) {
 				final String word = stoppedSentence.get(i);
+				final int wordIndex = wordIndexer.addAndGetIndex(word);
 				wordCounter.incrementCount(word, 1.0);
-				bigramCounter.incrementCount(previousWord, word, 1.0);
-				previousWord = word;
+				bigramCounter.incrementCount(previousWord, wordIndex, 1.0);
+				previousWord = wordIndex;
 			}
 		}
 		wordCounter.incrementCount(UNKNOWN, 1.0);
@@ -53,7 +58,8 @@ class EmpiricalBigramLanguageModel implements LanguageModel {
 	}
 
 	public double getBigramProbability(String previousWord, String word) {
-		final double bigramCount = bigramCounter.getCount(previousWord, word);
+		final double bigramCount = bigramCounter.getCount(
+				wordIndexer.indexOf(previousWord), wordIndexer.indexOf(word));
 		double unigramCount = wordCounter.getCount(word);
 		if (unigramCount == 0) {
 			System.out.println("UNKNOWN Word: " + word);
@@ -78,9 +84,7 @@ class EmpiricalBigramLanguageModel implements LanguageModel {
 	}
 
 	private void normalizeDistributions() {
-		for (final String previousWord : bigramCounter.keySet()) {
-			bigramCounter.getCounter(previousWord).normalize();
-		}
+		bigramCounter.conditionalNormalize();
 		wordCounter.normalize();
 	}
 
@@ -6,6 +6,7 @@ import java.util.List;
 
 import nlp.langmodel.LanguageModel;
 import nlp.util.Counter;
+import nlp.util.FastCounter;
 
 /**
  * Vanilla uni-gram language model.
@@ -15,7 +16,7 @@ class EmpiricalUnigramLanguageModel implements LanguageModel {
 	static final String	STOP		= "</S>";
 	static final String	UNKNOWN		= "*UNKNOWN*";
 
-	Counter<String>		wordCounter	= new Counter<String>();
+	Counter<String>		wordCounter	= new FastCounter<String>();
 
 	public EmpiricalUnigramLanguageModel(
 			Collection<List<String>> sentenceCollection) {
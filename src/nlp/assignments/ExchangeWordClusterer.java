@@ -0,0 +1,510 @@
+package nlp.assignments;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import nlp.util.Indexer;
+
+/**
+ * Hard word clustering with the exchange algorithm: every word is visited in
+ * turn, removed from its class, and put back into the class which maximizes
+ * the likelihood of the training data under a class bigram model. All counts
+ * live in primitive arrays -- word bigrams are stored in CSR form (one sorted
+ * successor and one sorted predecessor row per word), class bigrams in a
+ * dense numClasses x numClasses table.
+ * <p/>
+ * With numThreads > 1, the words are taken in batches of BATCH_SIZE. The
+ * workers split a batch between them and find each word's best class
+ * against the counts as they stand at the start of the batch, treating the
+ * word as removed from its class without touching the shared counts. The
+ * moves are then applied one word at a time, each only if it still beats
+ * staying put under the current counts, so every move improves the
+ * likelihood as in the sequential algorithm. A move can be missed when an
+ * earlier word of the batch changed the picture, but then the next
+ * iteration gets another chance; an iteration which moves nothing scored
+ * every word against up-to-date counts, so the result is still a local
+ * optimum.
+ */
+public class ExchangeWordClusterer {
+
+	static final String	START	= "<S>";
+	static final String	STOP	= "</S>";
+	static final String	UNKNOWN	= "*UNKNOWN*";
+
+	// words scored in parallel before their moves are applied
+	static final int	BATCH_SIZE	= 64;
+
+	int					numClasses;
+	int					maxIterations;
+	int					numThreads;
+
+	Indexer<String>		wordIndexer;
+	int[]				wordCounts;			// occurrences as a predicted word
+	int[]				leftCounts;			// occurrences as a history word
+	int[]				selfCounts;			// count of the bigram (w, w)
+	int[]				successorOffsets;
+	int[]				successorWords;
+	int[]				successorCounts;
+	int[]				predecessorOffsets;
+	int[]				predecessorWords;
+	int[]				predecessorCounts;
+
+	int[]				wordClasses;
+	int[]				classBigramCounts;	// [leftClass * numClasses + rightClass]
+	int[]				classLeftCounts;
+	int[]				classRightCounts;
+
+	// scratch space for the word currently being moved, and for each worker
+	NeighborClasses		neighbors;
+	NeighborClasses[]	workerNeighbors;
+
+	/**
+	 * Clusters the vocabulary of the given sentences (plus the sentence
+	 * boundary symbols and an UNKNOWN word) and leaves the resulting class
+	 * assignment and class counts available through the getters.
+	 */
+	public void cluster(Collection<List<String>> sentenceCollection) {
+		countBigrams(sentenceCollection);
+		initializeClasses();
+		ExecutorService executor = (numThreads > 1 ? Executors
+				.newFixedThreadPool(numThreads) : null);
+		try {
+			for (int iteration = 0; iteration < maxIterations; iteration++) {
+				int numMoves = 0;
+				if (executor == null) {
+					for (int word = 0; word < wordIndexer.size(); word++) {
+						if (moveWord(word, -1))
+							numMoves++;
+					}
+				} else {
+					numMoves = moveWordsInBatches(executor);
+				}
+				System.out
+						.printf("[ExchangeWordClusterer.cluster] Iteration %d moved %d words, objective %.4f\n",
+								iteration, numMoves, objective());
+				if (numMoves == 0)
+					break;
+			}
+		} finally {
+			if (executor != null)
+				executor.shutdown();
+		}
+	}
+
+	private void countBigrams(Collection<List<String>> sentenceCollection) {
+		wordIndexer = new Indexer<String>();
+		int startIndex = wordIndexer.addAndGetIndex(START);
+		int stopIndex = wordIndexer.addAndGetIndex(STOP);
+		wordIndexer.add(UNKNOWN);
+		long[] bigrams = new long[1024];
+		int numBigrams = 0;
+		for (List<String> sentence : sentenceCollection) {
+			int previousWord = startIndex;
+			for (int i = 0; i <= sentence.size(); i++) {
+				int word = (i < sentence.size() ? wordIndexer
+						.addAndGetIndex(sentence.get(i)) : stopIndex);
+				if (numBigrams == bigrams.length)
+					bigrams = Arrays.copyOf(bigrams, 2 * bigrams.length);
+				bigrams[numBigrams++] = ((long) previousWord << 32) | word;
+				previousWord = word;
+			}
+		}
+		int numWords = wordIndexer.size();
+		wordCounts = new int[numWords];
+		leftCounts = new int[numWords];
+		selfCounts = new int[numWords];
+		// the UNKNOWN word gets a single pseudo-count so it has mass
+		wordCounts[wordIndexer.indexOf(UNKNOWN)] = 1;
+
+		// sorting groups the bigram tokens by (left, right) word
+		Arrays.sort(bigrams, 0, numBigrams);
+		int numTypes = 0;
+		for (int i = 0; i < numBigrams; i++) {
+			if (i == 0 || bigrams[i] != bigrams[i - 1])
+				numTypes++;
+		}
+		int[] lefts = new int[numTypes];
+		int[] rights = new int[numTypes];
+		int[] counts = new int[numTypes];
+		int type = -1;
+		for (int i = 0; i < numBigrams; i++) {
+			if (i == 0 || bigrams[i] != bigrams[i - 1]) {
+				type++;
+				lefts[type] = (int) (bigrams[i] >>> 32);
+				rights[type] = (int) bigrams[i];
+			}
+			counts[type]++;
+		}
+
+		successorOffsets = new int[numWords + 1];
+		predecessorOffsets = new int[numWords + 1];
+		for (int t = 0; t < numTypes; t++) {
+			successorOffsets[lefts[t] + 1]++;
+			predecessorOffsets[rights[t] + 1]++;
+			leftCounts[lefts[t]] += counts[t];
+			wordCounts[rights[t]] += counts[t];
+			if (lefts[t] == rights[t])
+				selfCounts[lefts[t]] = counts[t];
+		}
+		for (int w = 0; w < numWords; w++) {
+			successorOffsets[w + 1] += successorOffsets[w];
+			predecessorOffsets[w + 1] += predecessorOffsets[w];
+		}
+		successorWords = new int[numTypes];
+		successorCounts = new int[numTypes];
+		predecessorWords = new int[numTypes];
+		predecessorCounts = new int[numTypes];
+		int[] successorFill = Arrays.copyOf(successorOffsets, numWords);
+		int[] predecessorFill = Arrays.copyOf(predecessorOffsets, numWords);
+		for (int t = 0; t < numTypes; t++) {
+			int s = successorFill[lefts[t]]++;
+			successorWords[s] = rights[t];
+			successorCounts[s] = counts[t];
+			int p = predecessorFill[rights[t]]++;
+			predecessorWords[p] = lefts[t];
+			predecessorCounts[p] = counts[t];
+		}
+	}
+
+	/**
+	 * Deals the words out to the classes in order of decreasing frequency, so
+	 * every class starts with some frequent words.
+	 */
+	private void initializeClasses() {
+		int numWords = wordIndexer.size();
+		if (numClasses > numWords)
+			numClasses = numWords;
+		Integer[] byFrequency = new Integer[numWords];
+		for (int w = 0; w < numWords; w++) {
+			byFrequency[w] = w;
+		}
+		Arrays.sort(byFrequency, new java.util.Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return (wordCounts[b] + leftCounts[b])
+						- (wordCounts[a] + leftCounts[a]);
+			}
+		});
+		wordClasses = new int[numWords];
+		for (int rank = 0; rank < numWords; rank++) {
+			wordClasses[byFrequency[rank]] = rank % numClasses;
+		}
+		classBigramCounts = new int[numClasses * numClasses];
+		classLeftCounts = new int[numClasses];
+		classRightCounts = new int[numClasses];
+		for (int w = 0; w < numWords; w++) {
+			int c = wordClasses[w];
+			classLeftCounts[c] += leftCounts[w];
+			classRightCounts[c] += wordCounts[w];
+			for (int s = successorOffsets[w]; s < successorOffsets[w + 1]; s++) {
+				classBigramCounts[c * numClasses
+						+ wordClasses[successorWords[s]]] += successorCounts[s];
+			}
+		}
+		neighbors = new NeighborClasses();
+		workerNeighbors = new NeighborClasses[Math.max(1, numThreads)];
+		for (int t = 0; t < workerNeighbors.length; t++) {
+			workerNeighbors[t] = new NeighborClasses();
+		}
+	}
+
+	/**
+	 * Moves the word to its best class, or only considers the given
+	 * candidate class if that is not -1, returning whether it changed class.
+	 */
+	private boolean moveWord(int word, int candidate) {
+		int oldClass = wordClasses[word];
+		neighbors.gather(word);
+		updateClassCounts(word, oldClass, -1);
+
+		int bestClass = oldClass;
+		double bestGain = neighbors.gain(oldClass);
+		if (candidate >= 0) {
+			if (neighbors.gain(candidate) > bestGain)
+				bestClass = candidate;
+		} else {
+			bestClass = neighbors.bestClass(bestClass, bestGain);
+		}
+
+		wordClasses[word] = bestClass;
+		updateClassCounts(word, bestClass, +1);
+		neighbors.clear();
+		return bestClass != oldClass;
+	}
+
+	/**
+	 * One pass of the exchange algorithm over all words, a batch at a time:
+	 * the workers propose a class for each word of the batch, then the
+	 * proposals are checked and applied in order. Returns the number of
+	 * words moved.
+	 */
+	private int moveWordsInBatches(ExecutorService executor) {
+		int numWords = wordIndexer.size();
+		int[] proposals = new int[BATCH_SIZE];
+		int numMoves = 0;
+		for (int begin = 0; begin < numWords; begin += BATCH_SIZE) {
+			int end = Math.min(numWords, begin + BATCH_SIZE);
+			List<Future<?>> futures = new ArrayList<Future<?>>();
+			int sliceSize = (end - begin + numThreads - 1) / numThreads;
+			for (int t = 0; t * sliceSize < end - begin; t++) {
+				futures.add(executor.submit(new Proposer(workerNeighbors[t],
+						proposals, begin, begin + t * sliceSize, Math.min(end,
+								begin + (t + 1) * sliceSize))));
+			}
+			for (Future<?> future : futures) {
+				getResult(future);
+			}
+			for (int word = begin; word < end; word++) {
+				int proposal = proposals[word - begin];
+				if (proposal == wordClasses[word])
+					continue;
+				// a proposal overtaken by earlier moves gets a full search
+				if (moveWord(word, proposal) || moveWord(word, -1))
+					numMoves++;
+			}
+		}
+		return numMoves;
+	}
+
+	private static void getResult(Future<?> future) {
+		try {
+			future.get();
+		} catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		}
+	}
+
+	/**
+	 * Finds the best class for a slice of the words of a batch, against
+	 * the counts at the start of the batch, which it only reads.
+	 */
+	class Proposer implements Runnable {
+		NeighborClasses neighbors;
+		int[] proposals;
+		int batchBegin;
+		int begin;
+		int end;
+
+		public void run() {
+			for (int word = begin; word < end; word++) {
+				int oldClass = wordClasses[word];
+				neighbors.gather(word);
+				neighbors.removedClass = oldClass;
+				proposals[word - batchBegin] = neighbors.bestClass(oldClass,
+						neighbors.gain(oldClass));
+				neighbors.clear();
+			}
+		}
+
+		Proposer(NeighborClasses neighbors, int[] proposals, int batchBegin,
+				int begin, int end) {
+			this.neighbors = neighbors;
+			this.proposals = proposals;
+			this.batchBegin = batchBegin;
+			this.begin = begin;
+			this.end = end;
+		}
+	}
+
+	/**
+	 * How often one word is followed / preceded by each class, not counting
+	 * its bigrams with itself, and the gains of moving it. Unless
+	 * removedClass is set, the word is taken to be out of the class counts
+	 * already; otherwise the gains subtract its counts from removedClass as
+	 * they read them, leaving the shared counts alone.
+	 */
+	class NeighborClasses {
+		int word;
+		int removedClass = -1;
+		int[] successorClassCounts = new int[numClasses];
+		int[] predecessorClassCounts = new int[numClasses];
+		int[] touchedClasses = new int[numClasses];
+		int numTouchedClasses;
+
+		void gather(int word) {
+			this.word = word;
+			numTouchedClasses = 0;
+			for (int s = successorOffsets[word]; s < successorOffsets[word + 1]; s++) {
+				if (successorWords[s] == word)
+					continue;
+				int c = wordClasses[successorWords[s]];
+				touch(c);
+				successorClassCounts[c] += successorCounts[s];
+			}
+			for (int p = predecessorOffsets[word]; p < predecessorOffsets[word + 1]; p++) {
+				if (predecessorWords[p] == word)
+					continue;
+				int c = wordClasses[predecessorWords[p]];
+				touch(c);
+				predecessorClassCounts[c] += predecessorCounts[p];
+			}
+		}
+
+		private void touch(int c) {
+			if (successorClassCounts[c] == 0 && predecessorClassCounts[c] == 0) {
+				touchedClasses[numTouchedClasses++] = c;
+			}
+		}
+
+		void clear() {
+			for (int i = 0; i < numTouchedClasses; i++) {
+				successorClassCounts[touchedClasses[i]] = 0;
+				predecessorClassCounts[touchedClasses[i]] = 0;
+			}
+			numTouchedClasses = 0;
+			removedClass = -1;
+		}
+
+		private int classBigramCount(int left, int right) {
+			int count = classBigramCounts[left * numClasses + right];
+			if (left == removedClass) {
+				if (right == removedClass)
+					count -= successorClassCounts[right]
+							+ predecessorClassCounts[left] + selfCounts[word];
+				else
+					count -= successorClassCounts[right];
+			} else if (right == removedClass)
+				count -= predecessorClassCounts[left];
+			return count;
+		}
+
+		private int classLeftCount(int c) {
+			return classLeftCounts[c]
+					- (c == removedClass ? leftCounts[word] : 0);
+		}
+
+		private int classRightCount(int c) {
+			return classRightCounts[c]
+					- (c == removedClass ? wordCounts[word] : 0);
+		}
+
+		/**
+		 * The change in log likelihood (up to terms which do not depend on
+		 * the class assignment) from adding the removed word to class c.
+		 */
+		double gain(int c) {
+			double gain = 0.0;
+			for (int i = 0; i < numTouchedClasses; i++) {
+				int d = touchedClasses[i];
+				if (d == c)
+					continue;
+				int out = classBigramCount(c, d);
+				int in = classBigramCount(d, c);
+				gain += xlogx(out + successorClassCounts[d]) - xlogx(out);
+				gain += xlogx(in + predecessorClassCounts[d]) - xlogx(in);
+			}
+			int self = classBigramCount(c, c);
+			gain += xlogx(self + successorClassCounts[c]
+					+ predecessorClassCounts[c] + selfCounts[word])
+					- xlogx(self);
+			int left = classLeftCount(c);
+			gain -= xlogx(left + leftCounts[word]) - xlogx(left);
+			int right = classRightCount(c);
+			gain -= xlogx(right + wordCounts[word]) - xlogx(right);
+			return gain;
+		}
+
+		/**
+		 * The class with the highest gain, or bestClass unless some class
+		 * beats bestGain.
+		 */
+		int bestClass(int bestClass, double bestGain) {
+			for (int c = 0; c < numClasses; c++) {
+				double gain = gain(c);
+				if (gain > bestGain) {
+					bestGain = gain;
+					bestClass = c;
+				}
+			}
+			return bestClass;
+		}
+	}
+
+	/**
+	 * Adds (sign = +1) or removes (sign = -1) the word's counts, as gathered
+	 * in neighbors, to the given class.
+	 */
+	private void updateClassCounts(int word, int c, int sign) {
+		int[] successorClassCounts = neighbors.successorClassCounts;
+		int[] predecessorClassCounts = neighbors.predecessorClassCounts;
+		int[] touchedClasses = neighbors.touchedClasses;
+		for (int i = 0; i < neighbors.numTouchedClasses; i++) {
+			int d = touchedClasses[i];
+			if (d == c)
+				continue;
+			classBigramCounts[c * numClasses + d] += sign
+					* successorClassCounts[d];
+			classBigramCounts[d * numClasses + c] += sign
+					* predecessorClassCounts[d];
+		}
+		classBigramCounts[c * numClasses + c] += sign
+				* (successorClassCounts[c] + predecessorClassCounts[c] + selfCounts[word]);
+		classLeftCounts[c] += sign * leftCounts[word];
+		classRightCounts[c] += sign * wordCounts[word];
+	}
+
+	/**
+	 * The class-dependent part of the training log likelihood.
+	 */
+	private double objective() {
+		double objective = 0.0;
+		for (int i = 0; i < classBigramCounts.length; i++) {
+			objective += xlogx(classBigramCounts[i]);
+		}
+		for (int c = 0; c < numClasses; c++) {
+			objective -= xlogx(classLeftCounts[c]) + xlogx(classRightCounts[c]);
+		}
+		return objective;
+	}
+
+	private static double xlogx(int x) {
+		if (x <= 0)
+			return 0.0;
+		return x * Math.log(x);
+	}
+
+	public int getNumClasses() {
+		return numClasses;
+	}
+
+	public Indexer<String> getWordIndexer() {
+		return wordIndexer;
+	}
+
+	public int[] getWordClasses() {
+		return wordClasses;
+	}
+
+	/**
+	 * How often each word was predicted (i.e. occurred after its history).
+	 */
+	public int[] getWordCounts() {
+		return wordCounts;
+	}
+
+	public int[] getClassBigramCounts() {
+		return classBigramCounts;
+	}
+
+	public int[] getClassLeftCounts() {
+		return classLeftCounts;
+	}
+
+	public int[] getClassRightCounts() {
+		return classRightCounts;
+	}
+
+	public ExchangeWordClusterer(int numClasses, int maxIterations,
+			int numThreads) {
+		this.numClasses = numClasses;
+		this.maxIterations = maxIterations;
+		this.numThreads = numThreads;
+	}
+}
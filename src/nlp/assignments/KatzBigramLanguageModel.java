@@ -6,7 +6,9 @@ import java.util.List;
 
 import nlp.langmodel.LanguageModel;
 import nlp.util.Counter;
+import nlp.util.CounterFactory.FastCounterFactory;
 import nlp.util.CounterMap;
+import nlp.util.FastCounter;
 
 /**
  * A vanilla Katz Bigram Language model
@@ -18,11 +20,12 @@ public class KatzBigramLanguageModel implements LanguageModel {
 	static final String			STOP					= "</S>";
 	static final String			UNKNOWN					= "*UNKNOWN*";
 
-	Counter<String>				alpha					= new Counter<String>();
-	CounterMap<String, String>	bigramCounter			= new CounterMap<String, String>();
-	Counter<String>				discountedWordCounter	= new Counter<String>();
-	Counter<String>				wordCounter				= new Counter<String>();
-	Counter<String>				z						= new Counter<String>();
+	Counter<String>				alpha					= new FastCounter<String>();
+	CounterMap<String, String>	bigramCounter			= new CounterMap<String, String>(
+			new FastCounterFactory<String>());
+	Counter<String>				discountedWordCounter	= new FastCounter<String>();
+	Counter<String>				wordCounter				= new FastCounter<String>();
+	Counter<String>				z						= new FastCounter<String>();
 
 	public KatzBigramLanguageModel(
 			Collection<List<String>> sentenceCollection) {
@@ -6,7 +6,9 @@ import java.util.List;
 
 import nlp.langmodel.LanguageModel;
 import nlp.util.Counter;
+import nlp.util.CounterFactory.FastCounterFactory;
 import nlp.util.CounterMap;
+import nlp.util.FastCounter;
 
 /**
  * Katz-backoff++ bigram language model. A Katz model with practical
@@ -20,12 +22,13 @@ class KatzPPBigramLanguageModel implements LanguageModel {
 	static final String			STOP					= "</S>";
 	static final String			UNKNOWN					= "*UNKNOWN*";
 
-	Counter<String>				backoffs				= new Counter<String>();
-	CounterMap<String, String>	bigramCounter			= new CounterMap<String, String>();
-	Counter<String>				discountedBigramCounter	= new Counter<String>();
-	Counter<String>				discountedWordCounter	= new Counter<String>();
-	Counter<String>				probabilities			= new Counter<String>();
-	Counter<String>				wordCounter				= new Counter<String>();
+	Counter<String>				backoffs				= new FastCounter<String>();
+	CounterMap<String, String>	bigramCounter			= new CounterMap<String, String>(
+			new FastCounterFactory<String>());
+	Counter<String>				discountedBigramCounter	= new FastCounter<String>();
+	Counter<String>				discountedWordCounter	= new FastCounter<String>();
+	Counter<String>				probabilities			= new FastCounter<String>();
+	Counter<String>				wordCounter				= new FastCounter<String>();
 
 	public KatzPPBigramLanguageModel(
 			Collection<List<String>> sentenceCollection) {
@@ -147,8 +150,8 @@ class KatzPPBigramLanguageModel implements LanguageModel {
 		probabilities.setCount(UNKNOWN, unigramBuckets[1] * normalizer);
 
 		A = (cutOff + 1) * bigramBuckets[cutOff + 1] / bigramBuckets[1];
-		final Counter<String> forwardProbability = new Counter<String>();
-		final Counter<String> backwardProbability = new Counter<String>();
+		final Counter<String> forwardProbability = new FastCounter<String>();
+		final Counter<String> backwardProbability = new FastCounter<String>();
 		for (final String previousWord : bigramCounter.keySet()) {
 			final Counter<String> currentCounter = bigramCounter
 					.getCounter(previousWord);
@@ -6,7 +6,9 @@ import java.util.List;
 
 import nlp.langmodel.LanguageModel;
 import nlp.util.Counter;
+import nlp.util.CounterFactory.FastCounterFactory;
 import nlp.util.CounterMap;
+import nlp.util.FastCounter;
 
 /**
  * Katz trigram language model -- DUMMY IMPLEMENTATION: uses vanilla trigram
@@ -20,9 +22,11 @@ class KatzTrigramLanguageModel implements LanguageModel {
 	static final String			STOP			= "</S>";
 	static final String			UNKNOWN			= "*UNKNOWN*";
 
-	CounterMap<String, String>	bigramCounter	= new CounterMap<String, String>();
-	CounterMap<String, String>	trigramCounter	= new CounterMap<String, String>();
-	Counter<String>				wordCounter		= new Counter<String>();
+	CounterMap<String, String>	bigramCounter	= new CounterMap<String, String>(
+			new FastCounterFactory<String>());
+	CounterMap<String, String>	trigramCounter	= new CounterMap<String, String>(
+			new FastCounterFactory<String>());
+	Counter<String>				wordCounter		= new FastCounter<String>();
 
 	public KatzTrigramLanguageModel(
 			Collection<List<String>> sentenceCollection) {
@@ -107,6 +107,17 @@ public class LanguageModelTester {
 		} else if (model.equalsIgnoreCase("katz-bigram-pp")) {
 			languageModel = new KatzPPBigramLanguageModel(
 					trainingSentenceCollection);
+		} else if (model.equalsIgnoreCase("class-bigram")) {
+			final int numClasses = Integer.parseInt(CommandLineUtils
+					.getValueOrUseDefault(argMap, "-classes", "100"));
+			final int numIterations = Integer.parseInt(CommandLineUtils
+					.getValueOrUseDefault(argMap, "-iterations", "20"));
+			final int numThreads = Integer.parseInt(CommandLineUtils
+					.getValueOrUseDefault(argMap, "-threads", ""
+							+ Runtime.getRuntime().availableProcessors()));
+			languageModel = new ClassBigramLanguageModel(
+					trainingSentenceCollection, numClasses, numIterations,
+					numThreads);
 		} else if (model.equalsIgnoreCase("katz-trigram")) {
 			throw new IllegalStateException(
 					"Katz trigram model not fully implemented -- remove exception and uncomment next line if implemented");
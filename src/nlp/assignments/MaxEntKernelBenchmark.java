@@ -0,0 +1,140 @@
+package nlp.assignments;
+
+import java.util.Map;
+import java.util.Random;
+
+import nlp.assignments.MaximumEntropyClassifier.EncodedDatum;
+import nlp.assignments.MaximumEntropyClassifier.IndexLinearizer;
+import nlp.classify.EncodedDataset;
+import nlp.util.CommandLineUtils;
+import nlp.util.Stopwatch;
+
+/**
+ * Times one pass of the MaxEnt objective and gradient over synthetic sparse
+ * data, comparing the training kernel in MaximumEntropyClassifier with the
+ * original loop, which recomputes exp(logProbability) and the linear index
+ * for every (feature, label) pair. Both kernels must agree; the largest
+ * difference in the gradient is printed alongside the timings. Run with
+ * <p/>
+ * java nlp.assignments.MaxEntKernelBenchmark [-data 20000] [-features 100000]
+ * [-labels 5] [-active 30] [-trials 5]
+ */
+public class MaxEntKernelBenchmark {
+
+	/**
+	 * The kernel as it was originally written, kept for comparison.
+	 */
+	static double referencePass(EncodedDatum[] data, double[] weights,
+			IndexLinearizer indexLinearizer, int numLabels,
+			double[] derivatives) {
+		double objective = 0.0;
+		for (EncodedDatum datum : data) {
+			double[] logProbabilities = new double[numLabels];
+			double[] probabilities = new double[numLabels];
+			int n = datum.getNumActiveFeatures();
+			for (int i = 0; i < n; i++)
+				for (int j = 0; j < numLabels; j++) {
+					logProbabilities[j] += weights[indexLinearizer.getLinearIndex(datum.getFeatureIndex(i), j)] * datum.getFeatureCount(i);
+				}
+			double sum = 0;
+			for (int j = 0; j < numLabels; j++) {
+				probabilities[j] = Math.exp(logProbabilities[j]);
+				sum += probabilities[j];
+			}
+			for (int j = 0; j < numLabels; j++) {
+				probabilities[j] /= sum;
+				logProbabilities[j] = Math.log(probabilities[j]);
+			}
+			objective -= logProbabilities[datum.getLabelIndex()];
+			for (int j = 0; j < numLabels; j++) {
+				int I = 0;
+				if (j == datum.getLabelIndex()) I = 1;
+				for (int i = 0; i < n; i++) {
+					int featureIndex = datum.getFeatureIndex(i);
+					double featureCount = datum.getFeatureCount(i);
+					derivatives[indexLinearizer.getLinearIndex(featureIndex, j)] -= (I - Math.exp(logProbabilities[j])) * featureCount;
+				}
+			}
+		}
+		return objective;
+	}
+
+	static double kernelPass(EncodedDataset data, double[] weights,
+			int numLabels, double[] derivatives) {
+		double[] scratch = new double[numLabels];
+		double objective = 0.0;
+		for (int d = 0; d < data.size(); d++) {
+			objective += MaximumEntropyClassifier.accumulateDatum(data, d,
+					weights, numLabels, scratch, derivatives, false);
+		}
+		return objective;
+	}
+
+	public static void main(String[] args) {
+		Map<String, String> argMap = CommandLineUtils
+				.simpleCommandLineParser(args);
+		int numData = Integer.parseInt(CommandLineUtils.getValueOrUseDefault(
+				argMap, "-data", "20000"));
+		int numFeatures = Integer.parseInt(CommandLineUtils
+				.getValueOrUseDefault(argMap, "-features", "100000"));
+		int numLabels = Integer.parseInt(CommandLineUtils.getValueOrUseDefault(
+				argMap, "-labels", "5"));
+		int numActive = Integer.parseInt(CommandLineUtils.getValueOrUseDefault(
+				argMap, "-active", "30"));
+		int numTrials = Integer.parseInt(CommandLineUtils.getValueOrUseDefault(
+				argMap, "-trials", "5"));
+
+		Random random = new Random(0);
+		EncodedDatum[] data = new EncodedDatum[numData];
+		for (int d = 0; d < numData; d++) {
+			int[] featureIndexes = new int[numActive];
+			double[] featureCounts = new double[numActive];
+			for (int i = 0; i < numActive; i++) {
+				featureIndexes[i] = random.nextInt(numFeatures);
+				featureCounts[i] = 1.0 + random.nextInt(3);
+			}
+			data[d] = new EncodedDatum(random.nextInt(numLabels),
+					featureIndexes, featureCounts);
+		}
+		EncodedDataset dataset = MaximumEntropyClassifier.toDataset(data);
+		IndexLinearizer indexLinearizer = new IndexLinearizer(numFeatures,
+				numLabels);
+		double[] weights = new double[indexLinearizer.getNumLinearIndexes()];
+		for (int i = 0; i < weights.length; i++) {
+			weights[i] = 0.1 * random.nextGaussian();
+		}
+		System.out.printf(
+				"%d data, %d features, %d labels, %d active features per datum\n",
+				numData, numFeatures, numLabels, numActive);
+
+		double[] referenceDerivatives = new double[weights.length];
+		double[] kernelDerivatives = new double[weights.length];
+		for (int trial = 0; trial < numTrials; trial++) {
+			java.util.Arrays.fill(referenceDerivatives, 0.0);
+			Stopwatch watch = new Stopwatch();
+			double referenceObjective = referencePass(data, weights,
+					indexLinearizer, numLabels, referenceDerivatives);
+			watch.stop();
+			double referenceTime = watch.getLastElapsedTime();
+
+			java.util.Arrays.fill(kernelDerivatives, 0.0);
+			watch = new Stopwatch();
+			double kernelObjective = kernelPass(dataset, weights, numLabels,
+					kernelDerivatives);
+			watch.stop();
+			double kernelTime = watch.getLastElapsedTime();
+
+			double maxDifference = 0.0;
+			for (int i = 0; i < weights.length; i++) {
+				maxDifference = Math.max(maxDifference, Math
+						.abs(referenceDerivatives[i] - kernelDerivatives[i]));
+			}
+			System.out.printf(
+					"Trial %d: reference %.3f s, kernel %.3f s, speedup %.2fx"
+							+ " (objective difference %.2e, max gradient difference %.2e)\n",
+					trial, referenceTime, kernelTime, referenceTime
+							/ kernelTime, Math.abs(referenceObjective
+							- kernelObjective), maxDifference);
+		}
+	}
+}
@@ -1,15 +1,30 @@
 package nlp.assignments;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
 
 import nlp.classify.*;
 import nlp.math.DifferentiableFunction;
 import nlp.math.DoubleArrays;
 import nlp.math.GradientMinimizer;
 import nlp.math.LBFGSMinimizer;
+import nlp.math.OWLQNMinimizer;
+import nlp.math.OptimizerTelemetry;
+import nlp.math.SloppyMath;
+import nlp.math.SparseGradient;
+import nlp.math.SparseStochasticDifferentiableFunction;
+import nlp.util.ConcurrentIndexer;
 import nlp.util.Counter;
+import nlp.util.FastCounter;
 import nlp.util.Indexer;
 import nlp.util.Pair;
 
@@ -34,25 +49,195 @@ public class MaximumEntropyClassifier<I, F, L> implements
 		double sigma;
 		int iterations;
 		FeatureExtractor<I, F> featureExtractor;
+		int numThreads = Runtime.getRuntime().availableProcessors();
+		GradientMinimizer minimizer;
+		double l1Weight;
+		boolean fastMath;
+		boolean verbose = true;
+		OptimizerTelemetry telemetry;
+		File checkpointFile;
+		int checkpointInterval;
 
-		public ProbabilisticClassifier<I, L> trainClassifier(
+		/**
+		 * The number of threads used to extract and encode the training data,
+		 * to evaluate the objective and, for large weight vectors, for the
+		 * default minimizer's vector arithmetic. The feature extractor must be
+		 * safe to call from several threads.
+		 */
+		public void setNumThreads(int numThreads) {
+			this.numThreads = numThreads;
+		}
+
+		/**
+		 * Use the given minimizer instead of an LBFGSMinimizer running for the
+		 * factory's number of iterations, e.g. an AdaGradMinimizer, which
+		 * steps after each mini-batch of training data. Telemetry,
+		 * checkpoints and the L1 weight only apply to the default minimizer,
+		 * and are ignored with a warning.
+		 */
+		public void setMinimizer(GradientMinimizer minimizer) {
+			this.minimizer = minimizer;
+		}
+
+		/**
+		 * Whether the minimizer prints its progress.
+		 */
+		public void setVerbose(boolean verbose) {
+			this.verbose = verbose;
+		}
+
+		/**
+		 * Records each iteration of the default LBFGSMinimizer (or
+		 * OWLQNMinimizer) into telemetry.
+		 */
+		public void setTelemetry(OptimizerTelemetry telemetry) {
+			this.telemetry = telemetry;
+		}
+
+		/**
+		 * Has the default minimizer write a checkpoint to file every interval
+		 * iterations; if the file already holds one, training resumes from
+		 * it. A checkpoint only fits the features it was trained on; encode()
+		 * numbers them by first appearance in the training data, the same
+		 * from one run to the next whatever the number of threads. A
+		 * checkpoint of other data, or of other sigma, l1 weight or fastMath
+		 * settings, is reported and ignored; one is deleted when its
+		 * training finishes.
+		 */
+		public void setCheckpoint(File file, int interval) {
+			this.checkpointFile = file;
+			this.checkpointInterval = interval;
+		}
+
+		public void setSigma(double sigma) {
+			this.sigma = sigma;
+		}
+
+		/**
+		 * Use SloppyMath.fastExp and fastLog, in training and in the trained
+		 * classifier (see MaximumEntropyClassifier.setFastMath()).
+		 */
+		public void setFastMath(boolean fastMath) {
+			this.fastMath = fastMath;
+		}
+
+		/**
+		 * Adds an L1 penalty of l1Weight * |weights|_1, minimized with an
+		 * OWLQNMinimizer, which drives most weights to exactly zero (see
+		 * MaximumEntropyClassifier.sparsify()). Together with a finite sigma
+		 * this is the elastic net; a sigma of Double.POSITIVE_INFINITY leaves
+		 * the L1 penalty alone.
+		 */
+		public void setL1Weight(double l1Weight) {
+			this.l1Weight = l1Weight;
+		}
+
+		public void setIterations(int iterations) {
+			this.iterations = iterations;
+		}
+
+		public MaximumEntropyClassifier<I, F, L> trainClassifier(
+				List<LabeledInstance<I, L>> trainingData) {
+			Pair<Encoding<F, L>, EncodedDataset> encodedData = encode(trainingData);
+			return trainClassifier(encodedData.getFirst(), encodedData
+					.getSecond());
+		}
+
+		/**
+		 * Builds data encodings so the inner loops can be efficient. The
+		 * result can be used for any number of trainClassifier() calls, also
+		 * from other factories with the same feature extractor.
+		 */
+		public Pair<Encoding<F, L>, EncodedDataset> encode(
 				List<LabeledInstance<I, L>> trainingData) {
-			// build data encodings so the inner loops can be efficient
-			Encoding<F, L> encoding = buildEncoding(trainingData);
+			ConcurrentIndexer<F> featureIndexer = new ConcurrentIndexer<F>();
+			ConcurrentIndexer<L> labelIndexer = new ConcurrentIndexer<L>();
+			EncodedDataset data = encodeData(trainingData, featureIndexer,
+					labelIndexer);
+			Encoding<F, L> encoding = new Encoding<F, L>(featureIndexer,
+					labelIndexer);
+			return new Pair<Encoding<F, L>, EncodedDataset>(encoding, data);
+		}
+
+		/**
+		 * Trains on data which has already been encoded. The data is only
+		 * read, so it may be shared between concurrent trainings.
+		 */
+		public MaximumEntropyClassifier<I, F, L> trainClassifier(
+				Encoding<F, L> encoding, EncodedDataset data) {
 			IndexLinearizer indexLinearizer = buildIndexLinearizer(encoding);
 			double[] initialWeights = buildInitialWeights(indexLinearizer);
-			EncodedDatum[] data = encodeData(trainingData, encoding);
-			// build a minimizer object
-			GradientMinimizer minimizer = new LBFGSMinimizer(iterations);
 			// build the objective function for this data
-			DifferentiableFunction objective = new ObjectiveFunction<F, L>(
-					encoding, data, indexLinearizer, sigma);
+			ObjectiveFunction<F, L> objective = new ObjectiveFunction<F, L>(
+					encoding, data, indexLinearizer, sigma, numThreads);
+			objective.fastMath = fastMath;
 			// learn our voting weights
-			double[] weights = minimizer.minimize(objective, initialWeights,
-					1e-4);
+			double[] weights;
+			try {
+				if (minimizer == null) {
+					LBFGSMinimizer lbfgs = (l1Weight > 0.0 ? new OWLQNMinimizer(
+							iterations, l1Weight) : new LBFGSMinimizer(iterations));
+					lbfgs.setTelemetry(telemetry);
+					lbfgs.setCheckpoint(checkpointFile, checkpointInterval,
+							fingerprint(data));
+					lbfgs.setNumThreads(numThreads);
+					if (checkpointFile != null && checkpointFile.exists())
+						weights = resume(lbfgs, objective, initialWeights);
+					else
+						weights = lbfgs.minimize(objective, initialWeights,
+								1e-4, verbose);
+				} else {
+					warnIgnoredSettings();
+					weights = minimizer.minimize(objective, initialWeights,
+							1e-4, verbose);
+				}
+			} finally {
+				objective.shutdown();
+			}
 			// build a classifier using these weights (and the data encodings)
-			return new MaximumEntropyClassifier<I, F, L>(weights, encoding,
-					indexLinearizer, featureExtractor);
+			MaximumEntropyClassifier<I, F, L> classifier = new MaximumEntropyClassifier<I, F, L>(
+					weights, encoding, indexLinearizer, featureExtractor);
+			classifier.setFastMath(fastMath);
+			return classifier;
+		}
+
+		private void warnIgnoredSettings() {
+			if (telemetry != null)
+				System.err.println("MaximumEntropyClassifier.Factory: "
+						+ "telemetry is ignored with setMinimizer()");
+			if (checkpointFile != null)
+				System.err.println("MaximumEntropyClassifier.Factory: "
+						+ "checkpoints are ignored with setMinimizer()");
+			if (l1Weight > 0.0)
+				System.err.println("MaximumEntropyClassifier.Factory: "
+						+ "the L1 weight is ignored with setMinimizer()");
+		}
+
+		/**
+		 * Resumes from the checkpoint file, or starts afresh (overwriting it)
+		 * if it can't be resumed.
+		 */
+		private double[] resume(LBFGSMinimizer lbfgs,
+				ObjectiveFunction<F, L> objective, double[] initialWeights) {
+			try {
+				return lbfgs.resume(objective, checkpointFile, 1e-4, verbose);
+			} catch (IOException e) {
+				System.err.println("MaximumEntropyClassifier: ignoring " + e);
+				return lbfgs.minimize(objective, initialWeights, 1e-4, verbose);
+			}
+		}
+
+		/**
+		 * Identifies the objective for checkpoints: the data and the
+		 * settings which change its values.
+		 */
+		private long fingerprint(EncodedDataset data) {
+			long fingerprint = Double.doubleToLongBits(sigma);
+			fingerprint = fingerprint * 31 + (fastMath ? 1 : 0);
+			fingerprint = fingerprint * 31 + Arrays.hashCode(data.getOffsets());
+			fingerprint = fingerprint * 31 + Arrays.hashCode(data.getIndices());
+			fingerprint = fingerprint * 31 + Arrays.hashCode(data.getValues());
+			return fingerprint * 31 + Arrays.hashCode(data.getLabels());
 		}
 
 		private double[] buildInitialWeights(IndexLinearizer indexLinearizer) {
@@ -65,37 +250,96 @@ public class MaximumEntropyClassifier<I, F, L> implements
 					encoding.getNumLabels());
 		}
 
-		private Encoding<F, L> buildEncoding(List<LabeledInstance<I, L>> data) {
-			Indexer<F> featureIndexer = new Indexer<F>();
-			Indexer<L> labelIndexer = new Indexer<L>();
-			for (LabeledInstance<I, L> labeledInstance : data) {
-				L label = labeledInstance.getLabel();
-				Counter<F> features = featureExtractor
-						.extractFeatures(labeledInstance.getInput());
-				LabeledFeatureVector<F, L> labeledDatum = new BasicLabeledFeatureVector<F, L>(
-						label, features);
-				labelIndexer.add(labeledDatum.getLabel());
-				for (F feature : labeledDatum.getFeatures().keySet()) {
-					featureIndexer.add(feature);
+		/**
+		 * Runs task.run(begin, end) over numThreads contiguous slices of
+		 * [0, size).
+		 */
+		private void runInParallel(int size, final RangeTask task) {
+			if (numThreads <= 1 || size < 2) {
+				task.run(0, size);
+				return;
+			}
+			ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+			try {
+				List<Future<?>> futures = new ArrayList<Future<?>>();
+				int blockSize = (size + numThreads - 1) / numThreads;
+				for (int begin = 0; begin < size; begin += blockSize) {
+					final int b = begin;
+					final int e = Math.min(size, begin + blockSize);
+					futures.add(executor.submit(new Runnable() {
+						public void run() {
+							task.run(b, e);
+						}
+					}));
+				}
+				for (Future<?> future : futures) {
+					future.get();
 				}
+			} catch (InterruptedException e) {
+				throw new RuntimeException(e);
+			} catch (ExecutionException e) {
+				throw new RuntimeException(e.getCause());
+			} finally {
+				executor.shutdown();
 			}
-			return new Encoding<F, L>(featureIndexer, labelIndexer);
 		}
 
-		private EncodedDatum[] encodeData(List<LabeledInstance<I, L>> data,
-				Encoding<F, L> encoding) {
-			EncodedDatum[] encodedData = new EncodedDatum[data.size()];
-			for (int i = 0; i < data.size(); i++) {
-				LabeledInstance<I, L> labeledInstance = data.get(i);
-				L label = labeledInstance.getLabel();
-				Counter<F> features = featureExtractor
-						.extractFeatures(labeledInstance.getInput());
-				LabeledFeatureVector<F, L> labeledFeatureVector = new BasicLabeledFeatureVector<F, L>(
-						label, features);
-				encodedData[i] = EncodedDatum.encodeLabeledDatum(
-						labeledFeatureVector, encoding);
+		private static interface RangeTask {
+			void run(int begin, int end);
+		}
+
+		/**
+		 * Encodes slices of the data in parallel, each with indexers of its
+		 * own, then merges the indexers in slice order, so that features and
+		 * labels are numbered by first appearance whatever the number of
+		 * threads.
+		 */
+		private EncodedDataset encodeData(
+				final List<LabeledInstance<I, L>> data,
+				final ConcurrentIndexer<F> featureIndexer,
+				final ConcurrentIndexer<L> labelIndexer) {
+			final int numSlices = Math.max(1, Math.min(numThreads, data.size()));
+			final List<EncodedDataset> slices = new ArrayList<EncodedDataset>();
+			final List<Indexer<F>> sliceFeatureIndexers = new ArrayList<Indexer<F>>();
+			final List<Indexer<L>> sliceLabelIndexers = new ArrayList<Indexer<L>>();
+			for (int i = 0; i < numSlices; i++) {
+				slices.add(null);
+				sliceFeatureIndexers.add(new Indexer<F>());
+				sliceLabelIndexers.add(new Indexer<L>());
+			}
+			final int sliceSize = (data.size() + numSlices - 1) / numSlices;
+			runInParallel(numSlices, new RangeTask() {
+				public void run(int begin, int end) {
+					for (int slice = begin; slice < end; slice++) {
+						slices.set(slice, EncodedDataset.encode(data.subList(
+								Math.min(data.size(), slice * sliceSize), Math
+										.min(data.size(), (slice + 1)
+												* sliceSize)),
+								featureExtractor, sliceFeatureIndexers
+										.get(slice), sliceLabelIndexers
+										.get(slice)));
+					}
+				}
+			});
+			final List<int[]> featureIndexes = new ArrayList<int[]>();
+			final List<int[]> labelIndexes = new ArrayList<int[]>();
+			for (int slice = 0; slice < numSlices; slice++) {
+				featureIndexes.add(EncodedDataset.merge(sliceFeatureIndexers
+						.get(slice), featureIndexer));
+				labelIndexes.add(EncodedDataset.merge(sliceLabelIndexers
+						.get(slice), labelIndexer));
 			}
-			return encodedData;
+			runInParallel(numSlices, new RangeTask() {
+				public void run(int begin, int end) {
+					for (int slice = begin; slice < end; slice++) {
+						slices.get(slice).renumber(featureIndexes.get(slice),
+								labelIndexes.get(slice));
+					}
+				}
+			});
+			featureIndexer.freeze();
+			labelIndexer.freeze();
+			return EncodedDataset.concatenate(slices);
 		}
 
 		/**
@@ -115,96 +359,277 @@ public class MaximumEntropyClassifier<I, F, L> implements
 		}
 	}
 
+	/**
+	 * Factory for training MaximumEntropyClassifiers over hashed features:
+	 * the extractor writes 2^numHashBits-way hashed feature indexes directly,
+	 * so no feature dictionary is built and memory is bounded by the number
+	 * of bits rather than by the number of distinct features. The resulting
+	 * classifier's feature type is the (Integer) hashed index.
+	 */
+	public static class HashingFactory<I, L> implements
+			ProbabilisticClassifierFactory<I, L> {
+
+		double sigma;
+		int iterations;
+		HashingFeatureExtractor<I> featureExtractor;
+		int numHashBits;
+		int numThreads = Runtime.getRuntime().availableProcessors();
+		GradientMinimizer minimizer;
+		boolean verbose = true;
+
+		public void setNumThreads(int numThreads) {
+			this.numThreads = numThreads;
+		}
+
+		/**
+		 * As for Factory; the number of iterations then doesn't apply.
+		 */
+		public void setMinimizer(GradientMinimizer minimizer) {
+			this.minimizer = minimizer;
+		}
+
+		/**
+		 * Whether the minimizer prints its progress.
+		 */
+		public void setVerbose(boolean verbose) {
+			this.verbose = verbose;
+		}
+
+		public ProbabilisticClassifier<I, L> trainClassifier(
+				List<LabeledInstance<I, L>> trainingData) {
+			Indexer<L> labelIndexer = new Indexer<L>();
+			EncodedDataset.Builder builder = new EncodedDataset.Builder();
+			HashedFeatureVector features = new HashedFeatureVector(numHashBits);
+			for (LabeledInstance<I, L> labeledInstance : trainingData) {
+				features.clear();
+				featureExtractor.extractFeatures(labeledInstance.getInput(),
+						features);
+				builder.startDatum(labelIndexer.addAndGetIndex(labeledInstance
+						.getLabel()));
+				for (int i = 0; i < features.size(); i++) {
+					builder.addFeature(features.getFeatureIndex(i), features
+							.getFeatureCount(i));
+				}
+			}
+			EncodedDataset data = builder.build();
+			Encoding<Integer, L> encoding = new Encoding<Integer, L>(
+					features.getNumFeatures(), labelIndexer);
+			IndexLinearizer indexLinearizer = new IndexLinearizer(encoding
+					.getNumFeatures(), encoding.getNumLabels());
+			double[] initialWeights = DoubleArrays.constantArray(0.0,
+					indexLinearizer.getNumLinearIndexes());
+			GradientMinimizer minimizer = this.minimizer;
+			if (minimizer == null) {
+				LBFGSMinimizer lbfgs = new LBFGSMinimizer(iterations);
+				lbfgs.setNumThreads(numThreads);
+				minimizer = lbfgs;
+			}
+			ObjectiveFunction<Integer, L> objective = new ObjectiveFunction<Integer, L>(
+					encoding, data, indexLinearizer, sigma, numThreads);
+			double[] weights;
+			try {
+				weights = minimizer.minimize(objective, initialWeights, 1e-4,
+						verbose);
+			} finally {
+				objective.shutdown();
+			}
+			return new MaximumEntropyClassifier<I, Integer, L>(weights,
+					encoding, indexLinearizer, featureExtractor, numHashBits);
+		}
+
+		/**
+		 * As for Factory; numHashBits sets the size of the hashed feature
+		 * space (and so of the weight vector, 2^numHashBits times the number
+		 * of labels).
+		 */
+		public HashingFactory(double sigma, int iterations,
+				HashingFeatureExtractor<I> featureExtractor, int numHashBits) {
+			this.sigma = sigma;
+			this.iterations = iterations;
+			this.featureExtractor = featureExtractor;
+			this.numHashBits = numHashBits;
+		}
+	}
+
 	/**
 	 * This is the MaximumEntropy objective function: the (negative) log
 	 * conditional likelihood of the training data, possibly with a penalty for
 	 * large weights. Note that this objective get MINIMIZED so it's the
 	 * negative of the objective we normally think of.
+	 * <p/>
+	 * The data is split into one contiguous shard per thread. Each shard
+	 * accumulates its part of the objective and gradient into its own buffers
+	 * on a fork-join pool; the buffers are kept between evaluations, and the
+	 * shard gradients are then summed (also in parallel) into the result.
+	 * <p/>
+	 * The objective can also be evaluated on mini-batches of the data, with
+	 * each datum carrying an equal share of the penalty, or sparsely, on the
+	 * weights of the batch's features and without the penalty.
 	 */
 	public static class ObjectiveFunction<F, L> implements
-			DifferentiableFunction {
+			SparseStochasticDifferentiableFunction {
 		IndexLinearizer indexLinearizer;
 		Encoding<F, L> encoding;
-		EncodedDatum[] data;
+		EncodedDataset data;
 
 		double sigma;
+		boolean fastMath;
+
+		double[] valueScratch;
 
-		double lastValue;
-		double[] lastDerivative;
-		double[] lastX;
+		int numThreads;
+		transient ForkJoinPool pool;
+		Shard[] shards;
+		double[] batchScratch;
 
 		public int dimension() {
 			return indexLinearizer.getNumLinearIndexes();
 		}
 
+		/**
+		 * Nothing is cached between calls: minimizers which need both the
+		 * value and the derivative at a point should ask for them together
+		 * with valueAndDerivativeAt(), which costs a single pass over the
+		 * data.
+		 */
 		public double valueAt(double[] x) {
-			ensureCache(x);
-			return lastValue;
+			if (valueScratch == null)
+				valueScratch = new double[dimension()];
+			return calculate(x, valueScratch);
 		}
 
 		public double[] derivativeAt(double[] x) {
-			ensureCache(x);
-			return lastDerivative;
+			double[] derivatives = new double[dimension()];
+			calculate(x, derivatives);
+			return derivatives;
+		}
+
+		public double valueAndDerivativeAt(double[] x, double[] derivative) {
+			return calculate(x, derivative);
 		}
 
-		private void ensureCache(double[] x) {
-			if (requiresUpdate(lastX, x)) {
-				Pair<Double, double[]> currentValueAndDerivative = calculate(x);
-				lastValue = currentValueAndDerivative.getFirst();
-				lastDerivative = currentValueAndDerivative.getSecond();
-				lastX = x;
+		/**
+		 * A contiguous range of the data together with the buffers its
+		 * thread accumulates into.
+		 */
+		class Shard extends RecursiveAction {
+			private static final long serialVersionUID = 1L;
+
+			int begin;
+			int end;
+			double[] x;
+			double objective;
+			double[] derivatives = new double[dimension()];
+			double[] scratch = new double[encoding.getNumLabels()];
+
+			protected void compute() {
+				objective = 0.0;
+				Arrays.fill(derivatives, 0.0);
+				int numLabels = encoding.getNumLabels();
+				for (int d = begin; d < end; d++) {
+					objective += accumulateDatum(data, d, x, numLabels,
+							scratch, derivatives, fastMath);
+				}
+				x = null;
+			}
+
+			Shard(int begin, int end) {
+				this.begin = begin;
+				this.end = end;
 			}
 		}
 
-		private boolean requiresUpdate(double[] lastX, double[] x) {
-			if (lastX == null)
-				return true;
-			for (int i = 0; i < x.length; i++) {
-				if (lastX[i] != x[i])
-					return true;
+		/**
+		 * Sums the shard gradients over a range of weights into the result.
+		 */
+		class Reduction extends RecursiveAction {
+			private static final long serialVersionUID = 1L;
+
+			int begin;
+			int end;
+			double[] derivatives;
+
+			protected void compute() {
+				for (Shard shard : shards) {
+					double[] shardDerivatives = shard.derivatives;
+					for (int i = begin; i < end; i++) {
+						derivatives[i] += shardDerivatives[i];
+					}
+				}
 			}
-			return false;
+
+			Reduction(double[] derivatives, int begin, int end) {
+				this.derivatives = derivatives;
+				this.begin = begin;
+				this.end = end;
+			}
+		}
+
+		@SuppressWarnings("unchecked")
+		private void ensureShards() {
+			if (shards != null)
+				return;
+			int numShards = Math.max(1, Math.min(numThreads, data.size()));
+			shards = (Shard[]) new ObjectiveFunction<?, ?>.Shard[numShards];
+			int shardSize = (data.size() + numShards - 1) / numShards;
+			for (int s = 0; s < numShards; s++) {
+				shards[s] = new Shard(Math.min(data.size(), s * shardSize),
+						Math.min(data.size(), (s + 1) * shardSize));
+			}
+			if (numShards > 1)
+				pool = new ForkJoinPool(numShards);
+		}
+
+		/**
+		 * Stops the worker threads and drops the shard buffers once the
+		 * minimization is over; a later evaluation starts them again.
+		 */
+		public void shutdown() {
+			if (pool != null)
+				pool.shutdown();
+			pool = null;
+			shards = null;
 		}
 
 		/**
 		 * The most important part of the classifier learning process! This
 		 * method determines, for the given weight vector x, what the (negative)
 		 * log conditional likelihood of the data is, as well as the derivatives
-		 * of that likelihood wrt each weight parameter.
+		 * of that likelihood wrt each weight parameter. The derivatives are
+		 * written into the given array.
 		 */
-		private Pair<Double, double[]> calculate(double[] x) {
+		private double calculate(double[] x, double[] derivatives) {
+			ensureShards();
+			for (Shard shard : shards) {
+				shard.reinitialize();
+				shard.x = x;
+			}
 			double objective = 0.0;
-			double[] derivatives = DoubleArrays.constantArray(0.0, dimension());
-			int numLabels = encoding.getNumLabels();
-			for (EncodedDatum datum: data) {
-				double []logProbabilities = MaximumEntropyClassifier.getLogProbabilities(datum, x, encoding, indexLinearizer);
-				objective -= logProbabilities[datum.getLabelIndex()];
-				double maxLogProbability = Double.NEGATIVE_INFINITY;
-				/*
-				int predLabel = 0;
-				for (int i = 0; i < numLabels; i++) {
-					if (logProbabilities[i] > maxLogProbability) {
-						maxLogProbability = logProbabilities[i];
-						predLabel = i;
-					}
+			if (pool == null) {
+				shards[0].compute();
+				DoubleArrays.assign(derivatives, shards[0].derivatives);
+			} else {
+				Arrays.fill(derivatives, 0.0);
+				final List<Reduction> reductions = new ArrayList<Reduction>();
+				int blockSize = (derivatives.length + shards.length - 1)
+						/ shards.length;
+				for (int begin = 0; begin < derivatives.length; begin += blockSize) {
+					reductions.add(new Reduction(derivatives, begin, Math.min(
+							derivatives.length, begin + blockSize)));
 				}
-				double predProb = Math.exp(logProbabilities[predLabel]);
-				*/
-				
-				int n = datum.getNumActiveFeatures();
-				
-				for (int j = 0; j < numLabels; j++) {
-					int I = 0;
-					if (j == datum.getLabelIndex()) I = 1;
-					for (int i = 0; i < n; i++) {
-						int featureIndex = datum.getFeatureIndex(i);
-						double featureCount = datum.getFeatureCount(i);
-						derivatives[indexLinearizer.getLinearIndex(featureIndex, j)] -= (I - Math.exp(logProbabilities[j])) * featureCount;
+				pool.invoke(new RecursiveAction() {
+					private static final long serialVersionUID = 1L;
+
+					protected void compute() {
+						invokeAll(shards);
+						invokeAll(reductions);
 					}
-				}
+				});
 			}
-			
-		
+			for (Shard shard : shards) {
+				objective += shard.objective;
+			}
+
 			double wsquare = 0.0;
 			for (int i = 0; i < x.length; i++) {
 				wsquare += x[i] * x[i];
@@ -215,16 +640,78 @@ public class MaximumEntropyClassifier<I, F, L> implements
 				derivatives[i] += x[i] / (sigma * sigma);
 			}
 
+			return objective;
+		}
+
+		public int numItems() {
+			return data.size();
+		}
+
+		public double calculateBatch(double[] x, int[] items, int begin,
+				int end, double[] derivatives) {
+			int numLabels = encoding.getNumLabels();
+			if (batchScratch == null)
+				batchScratch = new double[numLabels];
+			Arrays.fill(derivatives, 0.0);
+			double objective = 0.0;
+			for (int k = begin; k < end; k++) {
+				objective += accumulateDatum(data, items[k], x, numLabels,
+						batchScratch, derivatives, fastMath);
+			}
+
+			double share = (end - begin) / (double) data.size();
+			double wsquare = 0.0;
+			for (int i = 0; i < x.length; i++) {
+				wsquare += x[i] * x[i];
+				derivatives[i] += share * x[i] / (sigma * sigma);
+			}
+			objective += share * wsquare / (2 * sigma * sigma);
+			return objective;
+		}
 
-			return new Pair<Double, double[]>(objective, derivatives);
+		public double getL2Weight() {
+			return 1.0 / (sigma * sigma);
+		}
+
+		/**
+		 * A datum's gradient lies in the weight rows of its active features,
+		 * so only those rows are touched.
+		 */
+		public double calculateSparseBatch(double[] x, int[] items, int begin,
+				int end, SparseGradient gradient) {
+			int numLabels = encoding.getNumLabels();
+			if (batchScratch == null)
+				batchScratch = new double[numLabels];
+			int[] indices = data.getIndices();
+			double objective = 0.0;
+			for (int k = begin; k < end; k++) {
+				int d = items[k];
+				for (int i = data.begin(d); i < data.end(d); i++) {
+					int block = indices[i] * numLabels;
+					if (gradient.touch(block)) {
+						for (int j = 1; j < numLabels; j++) {
+							gradient.touch(block + j);
+						}
+					}
+				}
+				objective += accumulateDatum(data, d, x, numLabels,
+						batchScratch, gradient.getValues(), fastMath);
+			}
+			return objective;
 		}
 
 		public ObjectiveFunction(Encoding<F, L> encoding, EncodedDatum[] data,
 				IndexLinearizer indexLinearizer, double sigma) {
+			this(encoding, toDataset(data), indexLinearizer, sigma, 1);
+		}
+
+		public ObjectiveFunction(Encoding<F, L> encoding, EncodedDataset data,
+				IndexLinearizer indexLinearizer, double sigma, int numThreads) {
 			this.indexLinearizer = indexLinearizer;
 			this.encoding = encoding;
 			this.data = data;
 			this.sigma = sigma;
+			this.numThreads = numThreads;
 		}
 	}
 
@@ -240,7 +727,7 @@ public class MaximumEntropyClassifier<I, F, L> implements
 		public static <F, L> EncodedDatum encodeDatum(
 				FeatureVector<F> featureVector, Encoding<F, L> encoding) {
 			Counter<F> features = featureVector.getFeatures();
-			Counter<F> knownFeatures = new Counter<F>();
+			Counter<F> knownFeatures = new FastCounter<F>(features.size());
 			for (F feature : features.keySet()) {
 				if (encoding.getFeatureIndex(feature) < 0)
 					continue;
@@ -299,6 +786,21 @@ public class MaximumEntropyClassifier<I, F, L> implements
 		}
 	}
 
+	/**
+	 * Copies EncodedDatums into a dataset.
+	 */
+	static EncodedDataset toDataset(EncodedDatum[] data) {
+		EncodedDataset.Builder builder = new EncodedDataset.Builder();
+		for (EncodedDatum datum : data) {
+			builder.startDatum(datum.getLabelIndex());
+			for (int i = 0; i < datum.getNumActiveFeatures(); i++) {
+				builder.addFeature(datum.getFeatureIndex(i), datum
+						.getFeatureCount(i));
+			}
+		}
+		return builder.build();
+	}
+
 	/**
 	 * The Encoding maintains correspondences between the various representions
 	 * of the data, labels, and features. The external representations of labels
@@ -311,16 +813,33 @@ public class MaximumEntropyClassifier<I, F, L> implements
 	public static class Encoding<F, L> {
 		Indexer<F> featureIndexer;
 		Indexer<L> labelIndexer;
+		int numHashedFeatures;
+
+		/**
+		 * Whether features are hashed (see HashingFactory), in which case
+		 * there are no feature objects to translate.
+		 */
+		public boolean isHashed() {
+			return featureIndexer == null;
+		}
 
 		public int getNumFeatures() {
+			if (isHashed())
+				return numHashedFeatures;
 			return featureIndexer.size();
 		}
 
 		public int getFeatureIndex(F feature) {
+			if (isHashed())
+				throw new UnsupportedOperationException(
+						"Encoding: hashed features have no dictionary");
 			return featureIndexer.indexOf(feature);
 		}
 
 		public F getFeature(int featureIndex) {
+			if (isHashed())
+				throw new UnsupportedOperationException(
+						"Encoding: hashed features have no dictionary");
 			return featureIndexer.get(featureIndex);
 		}
 
@@ -340,6 +859,11 @@ public class MaximumEntropyClassifier<I, F, L> implements
 			this.featureIndexer = featureIndexer;
 			this.labelIndexer = labelIndexer;
 		}
+
+		public Encoding(int numHashedFeatures, Indexer<L> labelIndexer) {
+			this.numHashedFeatures = numHashedFeatures;
+			this.labelIndexer = labelIndexer;
+		}
 	}
 
 	/**
@@ -380,65 +904,254 @@ public class MaximumEntropyClassifier<I, F, L> implements
 	private Encoding<F, L> encoding;
 	private IndexLinearizer indexLinearizer;
 	private FeatureExtractor<I, F> featureExtractor;
+	private HashingFeatureExtractor<I> hashingFeatureExtractor;
+	private ThreadLocal<HashedFeatureVector> hashedFeatures;
+	private ThreadLocal<FeatureScorer> scorers = new ThreadLocal<FeatureScorer>() {
+		protected FeatureScorer initialValue() {
+			return new FeatureScorer();
+		}
+	};
+	private boolean fastMath;
 
 	/**
-	 * Calculate the log probabilities of each class, for the given datum
-	 * (feature bundle). Note that the weighted votes (refered to as
-	 * activations) are *almost* log probabilities, but need to be normalized.
+	 * The inference path: the extracted features are walked straight into
+	 * the per-label activations, each looked up in the encoding and its
+	 * block of weights added, with no encoded datum built in between. Each
+	 * thread has its own scorer and activation buffer, so scoring allocates
+	 * nothing beyond what the feature extractor does.
 	 */
-	private static <F, L> double[] getLogProbabilities(EncodedDatum datum,
-			double[] weights, Encoding<F, L> encoding,
-			IndexLinearizer indexLinearizer) {
+	private class FeatureScorer implements Counter.EntryVisitor<F> {
+		final double[] activations = new double[encoding.getNumLabels()];
 
-		int numLabels = encoding.getNumLabels();
-		double[] logProbabilities = new double[numLabels];
-		double[] probabilities = new double[numLabels];
-		
-		int n = datum.getNumActiveFeatures();
-		for (int i = 0; i < n; i++)
+		public void visit(F feature, double count) {
+			int featureIndex = encoding.getFeatureIndex(feature);
+			if (featureIndex < 0)
+				return;
+			int numLabels = activations.length;
+			int block = featureIndex * numLabels;
 			for (int j = 0; j < numLabels; j++) {
-				logProbabilities[j] += weights[indexLinearizer.getLinearIndex(datum.getFeatureIndex(i), j)] * datum.getFeatureCount(i);
+				activations[j] += weights[block + j] * count;
 			}
-		double sum = 0;
+		}
+	}
+
+	/**
+	 * Sums the weighted feature counts of the datum for each label. Weights
+	 * are laid out as in the IndexLinearizer, so the numLabels weights of a
+	 * feature form one contiguous block starting at featureIndex * numLabels.
+	 */
+	static void computeActivations(EncodedDatum datum, double[] weights,
+			int numLabels, double[] activations) {
+		computeActivations(datum.featureIndexes, datum.featureCounts,
+				datum.getNumActiveFeatures(), weights, numLabels, activations);
+	}
+
+	static void computeActivations(int[] featureIndexes,
+			double[] featureCounts, int n, double[] weights, int numLabels,
+			double[] activations) {
+		Arrays.fill(activations, 0, numLabels, 0.0);
+		for (int i = 0; i < n; i++) {
+			int block = featureIndexes[i] * numLabels;
+			double featureCount = featureCounts[i];
+			for (int j = 0; j < numLabels; j++) {
+				activations[j] += weights[block + j] * featureCount;
+			}
+		}
+	}
+
+	/**
+	 * log(sum_j exp(activations[j])) over the first numLabels entries,
+	 * shifted by the maximum so large activations don't overflow.
+	 */
+	static double logSumExp(double[] activations, int numLabels,
+			boolean fastMath) {
+		if (fastMath)
+			return SloppyMath.fastLogSumExp(activations, 0, numLabels);
+		return SloppyMath.logSumExp(activations, 0, numLabels);
+	}
+
+	static double exp(double x, boolean fastMath) {
+		return (fastMath ? SloppyMath.fastExp(x) : Math.exp(x));
+	}
+
+	/**
+	 * The training kernel: adds datum d's contribution to the gradient of the
+	 * negative log likelihood and returns its contribution to the objective.
+	 * The forward pass computes the activations, the backward pass turns them
+	 * into the per-label residuals P(j) - [j = label], with a single exp per
+	 * label, and adds residual * count to each active feature's block of
+	 * label weights. scratch must hold numLabels values.
+	 */
+	static double accumulateDatum(EncodedDataset data, int d,
+			double[] weights, int numLabels, double[] scratch,
+			double[] derivatives, boolean fastMath) {
+		int[] indices = data.getIndices();
+		float[] values = data.getValues();
+		int begin = data.begin(d);
+		int end = data.end(d);
+		int label = data.getLabel(d);
+		Arrays.fill(scratch, 0, numLabels, 0.0);
+		for (int i = begin; i < end; i++) {
+			int block = indices[i] * numLabels;
+			double featureCount = values[i];
+			for (int j = 0; j < numLabels; j++) {
+				scratch[j] += weights[block + j] * featureCount;
+			}
+		}
+		double logNormalizer = logSumExp(scratch, numLabels, fastMath);
+		double negativeLogProbability = logNormalizer - scratch[label];
 		for (int j = 0; j < numLabels; j++) {
-			probabilities[j] = Math.exp(logProbabilities[j]);
-			sum += probabilities[j];
+			scratch[j] = exp(scratch[j] - logNormalizer, fastMath);
 		}
+		scratch[label] -= 1.0;
+		for (int i = begin; i < end; i++) {
+			int block = indices[i] * numLabels;
+			double featureCount = values[i];
+			for (int j = 0; j < numLabels; j++) {
+				derivatives[block + j] += scratch[j] * featureCount;
+			}
+		}
+		return negativeLogProbability;
+	}
+
+	/**
+	 * The per-label activations of the input, in this thread's buffer.
+	 */
+	private double[] computeActivations(I input) {
+		FeatureScorer scorer = scorers.get();
+		double[] activations = scorer.activations;
+		if (hashingFeatureExtractor != null) {
+			HashedFeatureVector features = hashedFeatures.get();
+			features.clear();
+			hashingFeatureExtractor.extractFeatures(input, features);
+			computeActivations(features.getFeatureIndexBuffer(), features
+					.getFeatureCountBuffer(), features.size(), weights,
+					activations.length, activations);
+		} else {
+			Arrays.fill(activations, 0.0);
+			featureExtractor.extractFeatures(input).forEachEntry(scorer);
+		}
+		return activations;
+	}
+
+	/**
+	 * Writes the log probability of each label (by label index) into
+	 * logProbabilities, allocating nothing beyond what the feature extractor
+	 * does.
+	 */
+	public void computeLogProbabilities(I input, double[] logProbabilities) {
+		double[] activations = computeActivations(input);
+		int numLabels = activations.length;
+		double logNormalizer = logSumExp(activations, numLabels, fastMath);
 		for (int j = 0; j < numLabels; j++) {
-			probabilities[j] /= sum;
-			logProbabilities[j] = Math.log(probabilities[j]);
+			logProbabilities[j] = activations[j] - logNormalizer;
 		}
-		return logProbabilities;
 	}
 
 	public Counter<L> getProbabilities(I input) {
-		FeatureVector<F> featureVector = new BasicFeatureVector<F>(
-				featureExtractor.extractFeatures(input));
-		return getProbabilities(featureVector);
+		double[] activations = computeActivations(input);
+		int numLabels = activations.length;
+		double logNormalizer = logSumExp(activations, numLabels, fastMath);
+		Counter<L> probabilities = new FastCounter<L>(numLabels);
+		for (int j = 0; j < numLabels; j++) {
+			probabilities.setCount(encoding.getLabel(j), exp(activations[j]
+					- logNormalizer, fastMath));
+		}
+		return probabilities;
+	}
+
+	/**
+	 * Scores the instances in parallel; each thread reuses its own buffers.
+	 */
+	public void predictBatch(List<I> instances, BatchPredictions<L> predictions) {
+		BatchPredictions.predictInParallel(instances, encoding.labelIndexer,
+				predictions, new BatchPredictions.InstanceScorer<I>() {
+					public void score(I instance, double[] probabilities,
+							int offset) {
+						double[] activations = computeActivations(instance);
+						int numLabels = activations.length;
+						double logNormalizer = logSumExp(activations,
+								numLabels, fastMath);
+						for (int j = 0; j < numLabels; j++) {
+							probabilities[offset + j] = exp(activations[j]
+									- logNormalizer, fastMath);
+						}
+					}
+				});
+	}
+
+	/**
+	 * Whether to compute probabilities with SloppyMath.fastExp and fastLog.
+	 * fastExp is within 1e-15 relative error of Math.exp; fastLog's absolute
+	 * error is up to 1.1e-13 for extreme arguments. In SloppyMathBenchmark
+	 * they take 10 to 55% (exp) and 0 to 20% (log) less time than Math,
+	 * depending on the JVM and machine.
+	 */
+	public void setFastMath(boolean fastMath) {
+		this.fastMath = fastMath;
 	}
 
-	private Counter<L> getProbabilities(FeatureVector<F> featureVector) {
-		EncodedDatum encodedDatum = EncodedDatum.encodeDatum(featureVector,
-				encoding);
-		double[] logProbabilities = getLogProbabilities(encodedDatum, weights,
-				encoding, indexLinearizer);
-		return logProbabiltyArrayToProbabiltyCounter(logProbabilities);
+	/**
+	 * The label with the highest activation, which needs neither the
+	 * normalizer nor a counter of probabilities.
+	 */
+	public L getLabel(I input) {
+		double[] activations = computeActivations(input);
+		int best = 0;
+		for (int j = 1; j < activations.length; j++) {
+			if (activations[j] > activations[best])
+				best = j;
+		}
+		return encoding.getLabel(best);
 	}
 
-	private Counter<L> logProbabiltyArrayToProbabiltyCounter(
-			double[] logProbabilities) {
-		Counter<L> probabiltyCounter = new Counter<L>();
-		for (int labelIndex = 0; labelIndex < logProbabilities.length; labelIndex++) {
-			double logProbability = logProbabilities[labelIndex];
-			double probability = Math.exp(logProbability);
-			L label = encoding.getLabel(labelIndex);
-			probabiltyCounter.setCount(label, probability);
+	/**
+	 * A copy of this classifier which keeps only the features with a nonzero
+	 * weight for some label, as after training with an L1 penalty. Its
+	 * feature dictionary and weights shrink accordingly, and it makes exactly
+	 * the same predictions, since features missing from the encoding are
+	 * skipped when encoding an instance and the fastMath setting is copied.
+	 */
+	public MaximumEntropyClassifier<I, F, L> sparsify() {
+		if (encoding.isHashed())
+			throw new UnsupportedOperationException(
+					"MaximumEntropyClassifier: hashed features have no dictionary to prune");
+		int numLabels = encoding.getNumLabels();
+		Indexer<F> featureIndexer = new Indexer<F>();
+		double[] sparseWeights = new double[weights.length];
+		for (int f = 0; f < encoding.getNumFeatures(); f++) {
+			int block = f * numLabels;
+			boolean nonzero = false;
+			for (int j = 0; j < numLabels && !nonzero; j++) {
+				nonzero = (weights[block + j] != 0.0);
+			}
+			if (!nonzero)
+				continue;
+			int sparseBlock = featureIndexer.addAndGetIndex(encoding
+					.getFeature(f))
+					* numLabels;
+			System.arraycopy(weights, block, sparseWeights, sparseBlock,
+					numLabels);
 		}
-		return probabiltyCounter;
+		MaximumEntropyClassifier<I, F, L> sparse = new MaximumEntropyClassifier<I, F, L>(
+				Arrays.copyOf(sparseWeights, featureIndexer.size() * numLabels),
+				new Encoding<F, L>(featureIndexer, encoding.labelIndexer),
+				new IndexLinearizer(featureIndexer.size(), numLabels),
+				featureExtractor);
+		sparse.setFastMath(fastMath);
+		return sparse;
 	}
 
-	public L getLabel(I input) {
-		return getProbabilities(input).argMax();
+	double[] getWeights() {
+		return weights;
+	}
+
+	Encoding<F, L> getEncoding() {
+		return encoding;
+	}
+
+	IndexLinearizer getIndexLinearizer() {
+		return indexLinearizer;
 	}
 
 	public MaximumEntropyClassifier(double[] weights, Encoding<F, L> encoding,
@@ -450,6 +1163,26 @@ public class MaximumEntropyClassifier<I, F, L> implements
 		this.featureExtractor = featureExtractor;
 	}
 
+	/**
+	 * A classifier over hashed features: the weights are indexed by the
+	 * hashed feature index and the label index, as linearized by the
+	 * IndexLinearizer.
+	 */
+	public MaximumEntropyClassifier(double[] weights, Encoding<F, L> encoding,
+			IndexLinearizer indexLinearizer,
+			HashingFeatureExtractor<I> hashingFeatureExtractor,
+			final int numHashBits) {
+		this.weights = weights;
+		this.encoding = encoding;
+		this.indexLinearizer = indexLinearizer;
+		this.hashingFeatureExtractor = hashingFeatureExtractor;
+		this.hashedFeatures = new ThreadLocal<HashedFeatureVector>() {
+			protected HashedFeatureVector initialValue() {
+				return new HashedFeatureVector(numHashBits);
+			}
+		};
+	}
+
 	public static void main(String[] args) {
 		// create datums
 		LabeledInstance<String[], String> datum1 = new LabeledInstance<String[], String>(
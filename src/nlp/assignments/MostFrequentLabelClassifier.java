@@ -1,5 +1,6 @@
 package nlp.assignments;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import nlp.classify.*;
@@ -39,6 +40,11 @@ public class MostFrequentLabelClassifier<I, L> implements
 		return labels.argMax();
 	}
 
+	public void predictBatch(List<I> instances, BatchPredictions<L> predictions) {
+		BatchPredictions.predictEach(this, instances, new ArrayList<L>(labels
+				.keySet()), predictions);
+	}
+
 	public MostFrequentLabelClassifier(Counter<L> labels) {
 		this.labels = labels;
 	}
@@ -225,12 +225,13 @@ public class PCFGParserTester {
 	 * with a smoothed estimate of P(tag|word)/P(tag).
 	 */
 	static class Lexicon {
-		CounterMap<String, String> wordToTagCounters = new CounterMap<String, String>();
+		CounterMap<String, String> wordToTagCounters = new CounterMap<String, String>(
+				new CounterFactory.FastCounterFactory<String>());
 		double totalTokens = 0.0;
 		double totalWordTypes = 0.0;
-		Counter<String> tagCounter = new Counter<String>();
-		Counter<String> wordCounter = new Counter<String>();
-		Counter<String> typeTagCounter = new Counter<String>();
+		Counter<String> tagCounter = new FastCounter<String>();
+		Counter<String> wordCounter = new FastCounter<String>();
+		Counter<String> typeTagCounter = new FastCounter<String>();
 
 		public Set<String> getAllTags() {
 			return tagCounter.keySet();
@@ -5,6 +5,7 @@ import java.util.*;
 import nlp.io.PennTreebankReader;
 import nlp.ling.Tree;
 import nlp.ling.Trees;
+import nlp.math.SloppyMath;
 import nlp.util.*;
 
 /**
@@ -87,18 +88,31 @@ public class POSTaggerTester {
 	 * arbitrary state, for example [DT, NN, 2], use the static factory method
 	 * State.buildState("DT", "NN", 2). There isnt' a single final state, since
 	 * sentences lengths vary, so State.getEndState(i) takes a parameter for the
-	 * length of the sentence.
+	 * length of the sentence. States are interned through a thread-safe,
+	 * bounded interner which only weakly holds the states, so sentences can be
+	 * tagged concurrently and states of finished sentences can be reclaimed.
 	 */
 	static class State {
 
-		private static transient Interner<State> stateInterner = new Interner<State>(
+		static final int MAX_INTERNED_STATES = 1 << 20;
+
+		private static transient ConcurrentInterner<State> stateInterner = new ConcurrentInterner<State>(
+				MAX_INTERNED_STATES, true,
 				new Interner.CanonicalFactory<State>() {
 					public State build(State state) {
 						return new State(state);
 					}
 				});
 
-		private static transient State tempState = new State();
+		private static transient ThreadLocal<State> tempState = new ThreadLocal<State>() {
+			protected State initialValue() {
+				return new State();
+			}
+		};
+
+		public static String getInternerStatistics() {
+			return stateInterner.getStatistics();
+		}
 
 		public static State getStartState() {
 			return buildState(START_TAG, START_TAG, 0);
@@ -110,8 +124,9 @@ public class POSTaggerTester {
 
 		public static State buildState(String previousPreviousTag,
 				String previousTag, int position) {
-			tempState.setState(previousPreviousTag, previousTag, position);
-			return stateInterner.intern(tempState);
+			State probe = tempState.get();
+			probe.setState(previousPreviousTag, previousTag, position);
+			return stateInterner.intern(probe);
 		}
 
 		public static List<String> toTagList(List<State> states) {
@@ -515,9 +530,24 @@ public class POSTaggerTester {
 									// Double.NEGATIVE_INFINITY to illegal tag
 									// trigrams.
 
-		CounterMap<String, String> wordsToTags = new CounterMap<String, String>();
-		Counter<String> unknownWordTags = new Counter<String>();
+		Indexer<String> wordIndexer = new Indexer<String>();
+		Indexer<String> tagIndexer = new Indexer<String>();
+		IntCounterMap wordsToTags = new IntCounterMap();
+		Counter<String> unknownWordTags = new FastCounter<String>();
 		Set<String> seenTagTrigrams = new HashSet<String>();
+		boolean fastMath;
+
+		/**
+		 * Take the logs of the tag probabilities with SloppyMath.fastLog
+		 * rather than Math.log (see MaximumEntropyClassifier.setFastMath()).
+		 */
+		public void setFastMath(boolean fastMath) {
+			this.fastMath = fastMath;
+		}
+
+		private double log(double x) {
+			return (fastMath ? SloppyMath.fastLog(x) : Math.log(x));
+		}
 
 		public int getHistorySize() {
 			return 2;
@@ -527,20 +557,33 @@ public class POSTaggerTester {
 				LocalTrigramContext localTrigramContext) {
 			int position = localTrigramContext.getPosition();
 			String word = localTrigramContext.getWords().get(position);
-			Counter<String> tagCounter = unknownWordTags;
-			if (wordsToTags.keySet().contains(word)) {
-				tagCounter = wordsToTags.getCounter(word);
+			int wordIndex = wordIndexer.indexOf(word);
+			Counter<String> logScoreCounter = new FastCounter<String>();
+			if (wordIndex >= 0) {
+				for (int i = wordsToTags.rowBegin(wordIndex); i < wordsToTags
+						.rowEnd(wordIndex); i++) {
+					logScoreCounter.setCount(
+							tagIndexer.get(wordsToTags.getColumn(i)),
+							log(wordsToTags.getValue(i)));
+				}
+			} else {
+				for (String tag : unknownWordTags.keySet()) {
+					logScoreCounter.setCount(tag,
+							log(unknownWordTags.getCount(tag)));
+				}
 			}
-			Set<String> allowedFollowingTags = allowedFollowingTags(
-					tagCounter.keySet(),
-					localTrigramContext.getPreviousPreviousTag(),
-					localTrigramContext.getPreviousTag());
-			Counter<String> logScoreCounter = new Counter<String>();
-			for (String tag : tagCounter.keySet()) {
-				double logScore = Math.log(tagCounter.getCount(tag));
-				if (!restrictTrigrams || allowedFollowingTags.isEmpty()
-						|| allowedFollowingTags.contains(tag))
-					logScoreCounter.setCount(tag, logScore);
+			if (restrictTrigrams) {
+				Set<String> allowedFollowingTags = allowedFollowingTags(
+						logScoreCounter.keySet(),
+						localTrigramContext.getPreviousPreviousTag(),
+						localTrigramContext.getPreviousTag());
+				if (!allowedFollowingTags.isEmpty()) {
+					for (String tag : new ArrayList<String>(
+							logScoreCounter.keySet())) {
+						if (!allowedFollowingTags.contains(tag))
+							logScoreCounter.removeKey(tag);
+					}
+				}
 			}
 			return logScoreCounter;
 		}
@@ -569,18 +612,21 @@ public class POSTaggerTester {
 			for (LabeledLocalTrigramContext labeledLocalTrigramContext : labeledLocalTrigramContexts) {
 				String word = labeledLocalTrigramContext.getCurrentWord();
 				String tag = labeledLocalTrigramContext.getCurrentTag();
-				if (!wordsToTags.keySet().contains(word)) {
+				int wordIndex = wordIndexer.indexOf(word);
+				if (wordIndex < 0) {
 					// word is currently unknown, so tally its tag in the
 					// unknown tag counter
 					unknownWordTags.incrementCount(tag, 1.0);
+					wordIndex = wordIndexer.addAndGetIndex(word);
 				}
-				wordsToTags.incrementCount(word, tag, 1.0);
+				wordsToTags.incrementCount(wordIndex,
+						tagIndexer.addAndGetIndex(tag), 1.0);
 				seenTagTrigrams.add(makeTrigramString(
 						labeledLocalTrigramContext.getPreviousPreviousTag(),
 						labeledLocalTrigramContext.getPreviousTag(),
 						labeledLocalTrigramContext.getCurrentTag()));
 			}
-			wordsToTags = Counters.conditionalNormalize(wordsToTags);
+			wordsToTags.conditionalNormalize();
 			unknownWordTags = Counters.normalize(unknownWordTags);
 		}
 
@@ -654,6 +700,9 @@ public class POSTaggerTester {
 				+ (numUnknownWordsCorrect / numUnknownWords)
 				+ ")  Decoder Suboptimalities Detected: "
 				+ numDecodingInversions);
+		if (verbose)
+			System.out.println("State interner: "
+					+ State.getInternerStatistics());
 	}
 
 	// pretty-print a pair of taggings for a sentence, possibly suppressing the
@@ -756,7 +805,10 @@ public class POSTaggerTester {
 
 		// Construct tagger components
 		// TODO : improve on the MostFrequentTagScorer
-		LocalTrigramScorer localTrigramScorer = new MostFrequentTagScorer(false);
+		MostFrequentTagScorer mostFrequentTagScorer = new MostFrequentTagScorer(
+				false);
+		mostFrequentTagScorer.setFastMath(argMap.containsKey("-fastMath"));
+		LocalTrigramScorer localTrigramScorer = mostFrequentTagScorer;
 		// TODO : improve on the GreedyDecoder
 		TrellisDecoder<State> trellisDecoder = new GreedyDecoder<State>();
 
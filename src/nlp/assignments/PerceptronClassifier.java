@@ -3,13 +3,19 @@ package nlp.assignments;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import nlp.classify.*;
 import nlp.math.DifferentiableFunction;
 import nlp.math.DoubleArrays;
 import nlp.math.GradientMinimizer;
 import nlp.math.LBFGSMinimizer;
+import nlp.math.SloppyMath;
 import nlp.util.Counter;
+import nlp.util.FastCounter;
 import nlp.util.Indexer;
 import nlp.util.Pair;
 
@@ -37,51 +43,172 @@ public class PerceptronClassifier<I, F, L> implements
 		int iterations;
 		FeatureExtractor<I, F> featureExtractor;
 		
+		int epochs = 800;
+		int numThreads = 1;
+
+		/**
+		 * The number of passes over the training data.
+		 */
+		public void setEpochs(int epochs) {
+			this.epochs = epochs;
+		}
+
+		/**
+		 * With more than one thread, training uses iterative parameter mixing
+		 * (see trainParallel).
+		 */
+		public void setNumThreads(int numThreads) {
+			this.numThreads = numThreads;
+		}
+
 		public static<F, L> double[] train(double[] iw, EncodedDatum[] data, Encoding<F, L> encoding, IndexLinearizer indexLinearizer)
+		{
+			return train(iw, data, encoding, indexLinearizer, 800);
+		}
+
+		public static<F, L> double[] train(double[] iw, EncodedDatum[] data, Encoding<F, L> encoding, IndexLinearizer indexLinearizer, int numEpochs)
+		{
+			return train(iw, toDataset(data), encoding, indexLinearizer, numEpochs);
+		}
+
+		public static<F, L> double[] train(double[] iw, EncodedDataset data, Encoding<F, L> encoding, IndexLinearizer indexLinearizer, int numEpochs)
 		{
 			double[] weights = iw;
-			int MAXITER = 800;
-			int iter = MAXITER;
-			while (iter-- > 0)
+			for (int epoch = 1; epoch <= numEpochs; epoch++)
 			{
-				int countCorrect = 0;
-				for (EncodedDatum datum: data)
-				{
-					int maxdotprod = -2147483647;
-					int pred = -1;
-					int numLabels = encoding.getNumLabels();
-					int n = datum.getNumActiveFeatures();
-					for (int j = 0; j < numLabels; j++) {
-						int dotprod = 0;
-						for (int i = 0; i < n; i++) {
-							dotprod += weights[indexLinearizer.getLinearIndex(datum.getFeatureIndex(i), j)] * datum.getFeatureCount(i);
-						}
-						if (dotprod > maxdotprod) {
-							maxdotprod = dotprod;
-							pred = j;
-						}
+				int countCorrect = trainEpoch(weights, data, 0, 1, encoding.getNumLabels());
+				System.out.println("Iter " + epoch + ", number of correct predictions over training set: " + countCorrect);
+			}
+			return weights;
+		}
+
+		/**
+		 * One perceptron pass over data[first], data[first + stride], ...,
+		 * updating the weights in place. Returns the number of data which were
+		 * predicted correctly.
+		 */
+		static int trainEpoch(double[] weights, EncodedDataset data, int first, int stride, int numLabels)
+		{
+			int[] indices = data.getIndices();
+			float[] values = data.getValues();
+			int countCorrect = 0;
+			for (int d = first; d < data.size(); d += stride)
+			{
+				int begin = data.begin(d);
+				int end = data.end(d);
+				int label = data.getLabel(d);
+				double maxdotprod = Double.NEGATIVE_INFINITY;
+				int pred = -1;
+				for (int j = 0; j < numLabels; j++) {
+					double dotprod = 0;
+					for (int i = begin; i < end; i++) {
+						dotprod += weights[indices[i] * numLabels + j] * values[i];
 					}
-					if (pred == datum.getLabelIndex()) {
-						countCorrect++;
-						continue;
+					if (dotprod > maxdotprod) {
+						maxdotprod = dotprod;
+						pred = j;
 					}
-					for (int i = 0; i < n; i++) {
-						weights[indexLinearizer.getLinearIndex(datum.getFeatureIndex(i), pred)] -= datum.getFeatureCount(i);
-						weights[indexLinearizer.getLinearIndex(datum.getFeatureIndex(i), datum.getLabelIndex())] += datum.getFeatureCount(i);
+				}
+				if (pred == label) {
+					countCorrect++;
+					continue;
+				}
+				for (int i = begin; i < end; i++) {
+					int block = indices[i] * numLabels;
+					weights[block + pred] -= values[i];
+					weights[block + label] += values[i];
+				}
+			}
+			return countCorrect;
+		}
+
+		/**
+		 * Iterative parameter mixing (McDonald et al., 2010): the data is
+		 * dealt round robin into one shard per thread, and in each epoch every
+		 * shard runs a perceptron pass starting from the current weights, after
+		 * which the weights become the average of the shards' weights. The
+		 * shards never write to shared weights, so the result doesn't depend
+		 * on thread timing.
+		 */
+		public static <F, L> double[] trainParallel(double[] iw,
+				final EncodedDataset data, Encoding<F, L> encoding,
+				IndexLinearizer indexLinearizer, int numEpochs, int numThreads) {
+			final double[] weights = iw;
+			final int numLabels = encoding.getNumLabels();
+			final int numShards = Math.max(1, Math.min(numThreads, data.size()));
+			final double[][] shardWeights = new double[numShards][weights.length];
+			final int[] shardCorrect = new int[numShards];
+			ExecutorService executor = Executors.newFixedThreadPool(numShards);
+			try {
+				for (int epoch = 1; epoch <= numEpochs; epoch++) {
+					List<Future<?>> futures = new ArrayList<Future<?>>();
+					for (int s = 0; s < numShards; s++) {
+						final int shard = s;
+						futures.add(executor.submit(new Runnable() {
+							public void run() {
+								System.arraycopy(weights, 0, shardWeights[shard],
+										0, weights.length);
+								shardCorrect[shard] = trainEpoch(
+										shardWeights[shard], data, shard,
+										numShards, numLabels);
+							}
+						}));
+					}
+					waitFor(futures);
+					futures.clear();
+					int blockSize = (weights.length + numShards - 1) / numShards;
+					for (int begin = 0; begin < weights.length; begin += blockSize) {
+						final int b = begin;
+						final int e = Math.min(weights.length, begin + blockSize);
+						futures.add(executor.submit(new Runnable() {
+							public void run() {
+								for (int i = b; i < e; i++) {
+									double sum = 0.0;
+									for (int s = 0; s < numShards; s++) {
+										sum += shardWeights[s][i];
+									}
+									weights[i] = sum / numShards;
+								}
+							}
+						}));
 					}
+					waitFor(futures);
+					int countCorrect = 0;
+					for (int s = 0; s < numShards; s++) {
+						countCorrect += shardCorrect[s];
+					}
+					System.out.println("Iter " + epoch + ", number of correct predictions over training set: " + countCorrect);
 				}
-				System.out.println("Iter " + (MAXITER - iter) + ", number of correct predictions over training set: " + countCorrect);
+			} finally {
+				executor.shutdown();
 			}
 			return weights;
 		}
 
-		public ProbabilisticClassifier<I, L> trainClassifier(
+		private static void waitFor(List<Future<?>> futures) {
+			try {
+				for (Future<?> future : futures) {
+					future.get();
+				}
+			} catch (InterruptedException e) {
+				throw new RuntimeException(e);
+			} catch (ExecutionException e) {
+				throw new RuntimeException(e.getCause());
+			}
+		}
+
+		public PerceptronClassifier<I, F, L> trainClassifier(
 				List<LabeledInstance<I, L>> trainingData) {
-			// build data encodings so the inner loops can be efficient
-			Encoding<F, L> encoding = buildEncoding(trainingData);
+			// build data encodings so the inner loops can be efficient: one
+			// pass extracts each instance's features and indexes them
+			Indexer<F> featureIndexer = new Indexer<F>();
+			Indexer<L> labelIndexer = new Indexer<L>();
+			EncodedDataset data = EncodedDataset.encode(trainingData,
+					featureExtractor, featureIndexer, labelIndexer);
+			Encoding<F, L> encoding = new Encoding<F, L>(featureIndexer,
+					labelIndexer);
 			IndexLinearizer indexLinearizer = buildIndexLinearizer(encoding);
 			double[] initialWeights = buildInitialWeights(indexLinearizer);
-			EncodedDatum[] data = encodeData(trainingData, encoding);
 			// build a minimizer object
 			/*
 			GradientMinimizer minimizer = new LBFGSMinimizer(iterations);
@@ -90,7 +217,13 @@ public class PerceptronClassifier<I, F, L> implements
 					encoding, data, indexLinearizer, sigma);
 			// learn our voting weights
 			*/
-			double[] weights = train(initialWeights, data, encoding, indexLinearizer);
+			double[] weights;
+			if (numThreads > 1)
+				weights = trainParallel(initialWeights, data, encoding,
+						indexLinearizer, epochs, numThreads);
+			else
+				weights = train(initialWeights, data, encoding,
+						indexLinearizer, epochs);
 			// build a classifier using these weights (and the data encodings)
 			return new PerceptronClassifier<I, F, L>(weights, encoding,
 					indexLinearizer, featureExtractor);
@@ -106,39 +239,6 @@ public class PerceptronClassifier<I, F, L> implements
 					encoding.getNumLabels());
 		}
 
-		private Encoding<F, L> buildEncoding(List<LabeledInstance<I, L>> data) {
-			Indexer<F> featureIndexer = new Indexer<F>();
-			Indexer<L> labelIndexer = new Indexer<L>();
-			for (LabeledInstance<I, L> labeledInstance : data) {
-				L label = labeledInstance.getLabel();
-				Counter<F> features = featureExtractor
-						.extractFeatures(labeledInstance.getInput());
-				LabeledFeatureVector<F, L> labeledDatum = new BasicLabeledFeatureVector<F, L>(
-						label, features);
-				labelIndexer.add(labeledDatum.getLabel());
-				for (F feature : labeledDatum.getFeatures().keySet()) {
-					featureIndexer.add(feature);
-				}
-			}
-			return new Encoding<F, L>(featureIndexer, labelIndexer);
-		}
-
-		private EncodedDatum[] encodeData(List<LabeledInstance<I, L>> data,
-				Encoding<F, L> encoding) {
-			EncodedDatum[] encodedData = new EncodedDatum[data.size()];
-			for (int i = 0; i < data.size(); i++) {
-				LabeledInstance<I, L> labeledInstance = data.get(i);
-				L label = labeledInstance.getLabel();
-				Counter<F> features = featureExtractor
-						.extractFeatures(labeledInstance.getInput());
-				LabeledFeatureVector<F, L> labeledFeatureVector = new BasicLabeledFeatureVector<F, L>(
-						label, features);
-				encodedData[i] = EncodedDatum.encodeLabeledDatum(
-						labeledFeatureVector, encoding);
-			}
-			return encodedData;
-		}
-
 		/**
 		 * Sigma controls the variance on the prior / penalty term. 1.0 is a
 		 * reasonable value for large problems, bigger sigma means LESS
@@ -156,6 +256,238 @@ public class PerceptronClassifier<I, F, L> implements
 		}
 	}
 
+	/**
+	 * Trains a perceptron online, one LabeledInstance at a time, so training
+	 * data can be streamed rather than materialized: features and labels are
+	 * indexed as they are first seen, and the weights of each feature are
+	 * kept in their own row, grown as labels appear. With averaging on, the
+	 * snapshots returned by getClassifier() use the average of the weights
+	 * over all updates (kept in O(1) per update, as the current weights minus
+	 * the step-weighted sum of updates divided by the number of steps).
+	 * <p/>
+	 * A deployed PerceptronClassifier can be updated incrementally by
+	 * starting a learner from it, feeding it the new labeled data and
+	 * swapping in a fresh snapshot. Snapshots are independent of the learner,
+	 * so a deployed snapshot may be used while the learner keeps training.
+	 */
+	public static class OnlineLearner<I, F, L> {
+		FeatureExtractor<I, F> featureExtractor;
+		boolean averaged;
+		Indexer<F> featureIndexer = new Indexer<F>();
+		Indexer<L> labelIndexer = new Indexer<L>();
+		double[][] weights = new double[16][];
+		double[][] weightSums = new double[16][];
+		// the number of updates so far, plus one
+		long step = 1;
+
+		// the current instance, encoded
+		int[] featureIndexes = new int[16];
+		double[] featureCounts = new double[16];
+		int numActiveFeatures;
+		double[] scores = new double[4];
+
+		private int encode(I input, boolean addFeatures) {
+			Counter<F> features = featureExtractor.extractFeatures(input);
+			numActiveFeatures = 0;
+			for (F feature : features.keySet()) {
+				int index = (addFeatures ? featureIndexer
+						.addAndGetIndex(feature) : featureIndexer
+						.indexOf(feature));
+				if (index < 0)
+					continue;
+				if (numActiveFeatures == featureIndexes.length) {
+					featureIndexes = Arrays.copyOf(featureIndexes,
+							2 * numActiveFeatures);
+					featureCounts = Arrays.copyOf(featureCounts,
+							2 * numActiveFeatures);
+				}
+				featureIndexes[numActiveFeatures] = index;
+				featureCounts[numActiveFeatures] = features.getCount(feature);
+				numActiveFeatures++;
+			}
+			return numActiveFeatures;
+		}
+
+		private double[] row(double[][] rows, int featureIndex) {
+			double[] row = rows[featureIndex];
+			if (row == null || row.length < labelIndexer.size()) {
+				double[] grown = new double[Math.max(4,
+						2 * labelIndexer.size())];
+				if (row != null)
+					System.arraycopy(row, 0, grown, 0, row.length);
+				rows[featureIndex] = row = grown;
+			}
+			return row;
+		}
+
+		private void ensureFeatureCapacity() {
+			if (featureIndexer.size() > weights.length) {
+				int capacity = Math.max(2 * weights.length,
+						featureIndexer.size());
+				weights = Arrays.copyOf(weights, capacity);
+				weightSums = Arrays.copyOf(weightSums, capacity);
+			}
+		}
+
+		/**
+		 * The highest scoring label index under the current weights, or -1 if
+		 * no labels have been seen.
+		 */
+		private int predict() {
+			int numLabels = labelIndexer.size();
+			if (scores.length < numLabels)
+				scores = new double[2 * numLabels];
+			Arrays.fill(scores, 0, numLabels, 0.0);
+			for (int i = 0; i < numActiveFeatures; i++) {
+				double[] row = weights[featureIndexes[i]];
+				if (row == null)
+					continue;
+				int n = Math.min(numLabels, row.length);
+				for (int j = 0; j < n; j++) {
+					scores[j] += row[j] * featureCounts[i];
+				}
+			}
+			int best = -1;
+			for (int j = 0; j < numLabels; j++) {
+				if (best < 0 || scores[j] > scores[best])
+					best = j;
+			}
+			return best;
+		}
+
+		/**
+		 * Makes one online step on the given instance: predicts its label
+		 * and, on a mistake, moves the weights towards the true label and away
+		 * from the predicted one. Returns whether the prediction was correct.
+		 */
+		public boolean update(LabeledInstance<I, L> instance) {
+			encode(instance.getInput(), true);
+			ensureFeatureCapacity();
+			int label = labelIndexer.addAndGetIndex(instance.getLabel());
+			int prediction = predict();
+			boolean correct = (prediction == label);
+			if (!correct) {
+				for (int i = 0; i < numActiveFeatures; i++) {
+					int featureIndex = featureIndexes[i];
+					double count = featureCounts[i];
+					double[] row = row(weights, featureIndex);
+					row[label] += count;
+					if (prediction >= 0)
+						row[prediction] -= count;
+					if (averaged) {
+						double[] sumRow = row(weightSums, featureIndex);
+						sumRow[label] += step * count;
+						if (prediction >= 0)
+							sumRow[prediction] -= step * count;
+					}
+				}
+			}
+			step++;
+			return correct;
+		}
+
+		/**
+		 * Makes one pass over the stream, returning the number of instances
+		 * which were predicted correctly before their update.
+		 */
+		public int train(Iterable<LabeledInstance<I, L>> stream) {
+			int numCorrect = 0;
+			for (LabeledInstance<I, L> instance : stream) {
+				if (update(instance))
+					numCorrect++;
+			}
+			return numCorrect;
+		}
+
+		/**
+		 * Trains for up to maxEpochs passes over the training stream (which
+		 * must be iterable more than once, e.g. re-read from disk), measuring
+		 * the accuracy of a snapshot on the held-out stream after each pass.
+		 * Stops once patience passes in a row haven't improved on the best
+		 * held-out accuracy and returns the snapshot which achieved it. The
+		 * learner itself is left in its final state.
+		 */
+		public PerceptronClassifier<I, F, L> train(
+				Iterable<LabeledInstance<I, L>> trainingStream,
+				Iterable<LabeledInstance<I, L>> heldOutStream, int maxEpochs,
+				int patience) {
+			PerceptronClassifier<I, F, L> best = null;
+			double bestAccuracy = -1.0;
+			int epochsWithoutImprovement = 0;
+			for (int epoch = 0; epoch < maxEpochs; epoch++) {
+				int numCorrect = train(trainingStream);
+				PerceptronClassifier<I, F, L> classifier = getClassifier();
+				double accuracy = classifier.getAccuracy(heldOutStream);
+				System.out
+						.printf("[PerceptronClassifier.OnlineLearner] Epoch %d: %d correct while training, held-out accuracy %.4f\n",
+								epoch, numCorrect, accuracy);
+				if (accuracy > bestAccuracy) {
+					best = classifier;
+					bestAccuracy = accuracy;
+					epochsWithoutImprovement = 0;
+				} else if (++epochsWithoutImprovement >= patience) {
+					break;
+				}
+			}
+			return best;
+		}
+
+		/**
+		 * Returns a classifier using a copy of the current (averaged)
+		 * weights.
+		 */
+		public PerceptronClassifier<I, F, L> getClassifier() {
+			int numFeatures = featureIndexer.size();
+			int numLabels = labelIndexer.size();
+			IndexLinearizer indexLinearizer = new IndexLinearizer(numFeatures,
+					numLabels);
+			double[] snapshot = new double[indexLinearizer
+					.getNumLinearIndexes()];
+			for (int f = 0; f < numFeatures; f++) {
+				double[] row = weights[f];
+				double[] sumRow = weightSums[f];
+				for (int j = 0; j < numLabels; j++) {
+					double weight = (row != null && j < row.length ? row[j]
+							: 0.0);
+					if (averaged && sumRow != null && j < sumRow.length)
+						weight -= sumRow[j] / step;
+					snapshot[indexLinearizer.getLinearIndex(f, j)] = weight;
+				}
+			}
+			Encoding<F, L> encoding = new Encoding<F, L>(new Indexer<F>(
+					featureIndexer), new Indexer<L>(labelIndexer));
+			return new PerceptronClassifier<I, F, L>(snapshot, encoding,
+					indexLinearizer, featureExtractor);
+		}
+
+		public OnlineLearner(FeatureExtractor<I, F> featureExtractor,
+				boolean averaged) {
+			this.featureExtractor = featureExtractor;
+			this.averaged = averaged;
+		}
+
+		/**
+		 * Starts from the weights of an already trained classifier, e.g. one
+		 * which is deployed, so it can be updated with new data. Averaging
+		 * starts afresh from those weights.
+		 */
+		public OnlineLearner(PerceptronClassifier<I, F, L> classifier,
+				boolean averaged) {
+			this(classifier.featureExtractor, averaged);
+			featureIndexer = new Indexer<F>(classifier.encoding.featureIndexer);
+			labelIndexer = new Indexer<L>(classifier.encoding.labelIndexer);
+			ensureFeatureCapacity();
+			int numLabels = labelIndexer.size();
+			for (int f = 0; f < featureIndexer.size(); f++) {
+				double[] row = row(weights, f);
+				for (int j = 0; j < numLabels; j++) {
+					row[j] = classifier.weights[classifier.indexLinearizer
+							.getLinearIndex(f, j)];
+				}
+			}
+		}
+	}
+
 	/**
 	 * EncodedDatums are sparse representations of (labeled) feature count
 	 * vectors for a given data point. Use getNumActiveFeatures() to see how
@@ -168,7 +500,7 @@ public class PerceptronClassifier<I, F, L> implements
 		public static <F, L> EncodedDatum encodeDatum(
 				FeatureVector<F> featureVector, Encoding<F, L> encoding) {
 			Counter<F> features = featureVector.getFeatures();
-			Counter<F> knownFeatures = new Counter<F>();
+			Counter<F> knownFeatures = new FastCounter<F>(features.size());
 			for (F feature : features.keySet()) {
 				if (encoding.getFeatureIndex(feature) < 0)
 					continue;
@@ -227,6 +559,21 @@ public class PerceptronClassifier<I, F, L> implements
 		}
 	}
 
+	/**
+	 * Copies EncodedDatums into a dataset.
+	 */
+	static EncodedDataset toDataset(EncodedDatum[] data) {
+		EncodedDataset.Builder builder = new EncodedDataset.Builder();
+		for (EncodedDatum datum : data) {
+			builder.startDatum(datum.getLabelIndex());
+			for (int i = 0; i < datum.getNumActiveFeatures(); i++) {
+				builder.addFeature(datum.getFeatureIndex(i), datum
+						.getFeatureCount(i));
+			}
+		}
+		return builder.build();
+	}
+
 	/**
 	 * The Encoding maintains correspondences between the various representions
 	 * of the data, labels, and features. The external representations of labels
@@ -320,21 +667,17 @@ public class PerceptronClassifier<I, F, L> implements
 
 		int numLabels = encoding.getNumLabels();
 		double[] logProbabilities = new double[numLabels];
-		double[] probabilities = new double[numLabels];
-		
+
 		int n = datum.getNumActiveFeatures();
 		for (int i = 0; i < n; i++)
 			for (int j = 0; j < numLabels; j++) {
 				logProbabilities[j] += weights[indexLinearizer.getLinearIndex(datum.getFeatureIndex(i), j)] * datum.getFeatureCount(i);
 			}
-		double sum = 0;
-		for (int j = 0; j < numLabels; j++) {
-			probabilities[j] = Math.exp(logProbabilities[j]);
-			sum += probabilities[j];
-		}
+		// perceptron scores are unbounded, so normalize in the log domain
+		double logNormalizer = SloppyMath.logSumExp(logProbabilities, 0,
+				numLabels);
 		for (int j = 0; j < numLabels; j++) {
-			probabilities[j] /= sum;
-			logProbabilities[j] = Math.log(probabilities[j]);
+			logProbabilities[j] -= logNormalizer;
 		}
 		return logProbabilities;
 	}
@@ -369,6 +712,39 @@ public class PerceptronClassifier<I, F, L> implements
 		return getProbabilities(input).argMax();
 	}
 
+	public void predictBatch(List<I> instances, BatchPredictions<L> predictions) {
+		BatchPredictions.predictInParallel(instances, encoding.labelIndexer,
+				predictions, new BatchPredictions.InstanceScorer<I>() {
+					public void score(I instance, double[] probabilities,
+							int offset) {
+						EncodedDatum datum = EncodedDatum.encodeDatum(
+								new BasicFeatureVector<F>(featureExtractor
+										.extractFeatures(instance)), encoding);
+						double[] logProbabilities = getLogProbabilities(datum,
+								weights, encoding, indexLinearizer);
+						for (int j = 0; j < logProbabilities.length; j++) {
+							probabilities[offset + j] = Math
+									.exp(logProbabilities[j]);
+						}
+					}
+				});
+	}
+
+	/**
+	 * The fraction of the labeled instances which this classifier labels
+	 * correctly.
+	 */
+	public double getAccuracy(Iterable<LabeledInstance<I, L>> labeledInstances) {
+		int numCorrect = 0;
+		int numTotal = 0;
+		for (LabeledInstance<I, L> instance : labeledInstances) {
+			if (instance.getLabel().equals(getLabel(instance.getInput())))
+				numCorrect++;
+			numTotal++;
+		}
+		return (numTotal == 0 ? 0.0 : numCorrect / (double) numTotal);
+	}
+
 	public PerceptronClassifier(double[] weights, Encoding<F, L> encoding,
 			IndexLinearizer indexLinearizer,
 			FeatureExtractor<I, F> featureExtractor) {
@@ -411,5 +787,23 @@ public class PerceptronClassifier<I, F, L> implements
 				.trainClassifier(trainingData);
 		System.out.println("Probabilities on test instance: "
 				+ maximumEntropyClassifier.getProbabilities(datum4.getInput()));
+
+		// train online, then update the resulting classifier with new data
+		OnlineLearner<String[], String, String> learner = new OnlineLearner<String[], String, String>(
+				featureExtractor, true);
+		for (int epoch = 0; epoch < 5; epoch++) {
+			learner.train(trainingData);
+		}
+		PerceptronClassifier<String[], String, String> deployed = learner
+				.getClassifier();
+		System.out.println("Online perceptron label on test instance: "
+				+ deployed.getLabel(datum4.getInput()));
+		OnlineLearner<String[], String, String> updater = new OnlineLearner<String[], String, String>(
+				deployed, true);
+		updater.update(new LabeledInstance<String[], String>("bird",
+				new String[] { "feathers", "small" }));
+		deployed = updater.getClassifier();
+		System.out.println("Updated perceptron label on new instance: "
+				+ deployed.getLabel(new String[] { "feathers" }));
 	}
 }
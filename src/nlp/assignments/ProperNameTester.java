@@ -1,19 +1,44 @@
 package nlp.assignments;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+import nlp.classify.BatchPredictions;
+import nlp.classify.CascadeClassifier;
+import nlp.classify.ConfidenceCalibrator;
+import nlp.classify.EncodedDataset;
 import nlp.classify.FeatureExtractor;
+import nlp.classify.HashedFeatureVector;
+import nlp.classify.HashingFeatureExtractor;
+import nlp.classify.IsotonicCalibrator;
 import nlp.classify.LabeledInstance;
 import nlp.classify.ProbabilisticClassifier;
 import nlp.classify.ProbabilisticClassifierFactory;
+import nlp.classify.TemperatureCalibrator;
+import nlp.math.AdaGradMinimizer;
+import nlp.math.DoubleArrays;
+import nlp.math.OptimizerTelemetry;
 import nlp.util.CommandLineUtils;
 import nlp.util.Counter;
+import nlp.util.FastCounter;
+import nlp.util.Pair;
+import nlp.util.Stopwatch;
 
 /**
  * This is the main harness for assignment 2. To run this harness, use
@@ -30,7 +55,7 @@ import nlp.util.Counter;
 public class ProperNameTester {
 
 	public static class ProperNameFeatureExtractor implements
-			FeatureExtractor<String, String> {
+			FeatureExtractor<String, String>, HashingFeatureExtractor<String> {
 
 		/**
 		 * This method takes the list of characters representing the proper name
@@ -42,7 +67,7 @@ public class ProperNameTester {
 		 */
 		public Counter<String> extractFeatures(String name) {
 			char[] characters = name.toCharArray();
-			Counter<String> features = new Counter<String>();
+			Counter<String> features = new FastCounter<String>();
 			
 			int len = characters.length;
 			// add character ngram features
@@ -119,6 +144,59 @@ public class ProperNameTester {
 			
 			return features;
 		}
+
+		/**
+		 * The template a feature of this extractor comes from: the part of
+		 * its name before the first dash, e.g. 2GRAM or PREFIX.
+		 */
+		public static String templateOf(String feature) {
+			int dash = feature.indexOf('-');
+			return (dash < 0 ? feature : feature.substring(0, dash));
+		}
+
+		/**
+		 * The same features as above, hashed as they are spelled out rather
+		 * than built as strings.
+		 */
+		public void extractFeatures(String name, HashedFeatureVector features) {
+			int len = name.length();
+			for (int i = 0; i < len; i++) {
+				for (int j = 1; j < 4 && i + j < len; j++) {
+					features.begin("GRAM-").append(j);
+					for (int k = 0; k <= j; k++) {
+						features.append(name.charAt(i + k));
+					}
+					features.add(1.0);
+				}
+			}
+
+			int countUppercase = 0;
+			int countSpace = 0;
+			boolean foundDash = false;
+			for (int i = 0; i < len; i++) {
+				char c = name.charAt(i);
+				if (c >= 'A' && c <= 'Z') countUppercase++;
+				if (c == ' ') countSpace++;
+				if (c == '-') foundDash = true;
+			}
+			features.begin("LENGTH-").append(len).add(1.0);
+			features.begin("UPPER-").append(countUppercase).add(1.0);
+			if (len >= 3) {
+				features.begin("PREFIX-3-");
+				for (int j = 0; j < 3; j++) {
+					features.append(name.charAt(j));
+				}
+				features.add(1.0);
+				features.begin("SUFFIX-3-");
+				for (int j = 0; j < 3; j++) {
+					features.append(name.charAt(len - j - 1));
+				}
+				features.add(1.0);
+			}
+			features.begin("SPACE-").append(countSpace).add(1.0);
+			if (foundDash)
+				features.add("HASDASH", 1.0);
+		}
 	}
 
 	private static List<LabeledInstance<String, String>> loadData(
@@ -138,6 +216,181 @@ public class ProperNameTester {
 		return labeledInstances;
 	}
 
+	/**
+	 * One configuration of a hyperparameter sweep, and how it did.
+	 */
+	private static class SweepConfiguration {
+		double sigma;
+		int iterations;
+		String templates;
+		double accuracy;
+		double trainingTime;
+		ProbabilisticClassifier<String, String> classifier;
+
+		SweepConfiguration(double sigma, int iterations, String templates) {
+			this.sigma = sigma;
+			this.iterations = iterations;
+			this.templates = templates;
+		}
+
+		public String toString() {
+			return String.format("sigma=%.4g iterations=%d templates=%s",
+					sigma, iterations, templates);
+		}
+	}
+
+	private static double[] parseDoubles(String list) {
+		String[] parts = list.split(",");
+		double[] values = new double[parts.length];
+		for (int i = 0; i < parts.length; i++) {
+			values[i] = Double.parseDouble(parts[i].trim());
+		}
+		return values;
+	}
+
+	/**
+	 * Trains a MaxEnt model for each configuration of a grid (or a random
+	 * sample) of sigmas, iteration counts and feature template sets, several
+	 * at a time, and prints them ranked by accuracy on the validation data.
+	 * The training data is encoded once; a template set other than "all"
+	 * (templates joined by '+', e.g. 1GRAM+2GRAM) only filters the encoded
+	 * data. Returns the best classifier.
+	 */
+	private static ProbabilisticClassifier<String, String> runSweep(
+			Map<String, String> argMap,
+			List<LabeledInstance<String, String>> trainingData,
+			List<LabeledInstance<String, String>> validationData)
+			throws InterruptedException, ExecutionException {
+		String mode = CommandLineUtils.getValueOrUseDefault(argMap, "-sweep",
+				"grid");
+		double[] sigmas = parseDoubles(CommandLineUtils.getValueOrUseDefault(
+				argMap, "-sigmas", "0.5,1,2"));
+		double[] iterationCounts = parseDoubles(CommandLineUtils
+				.getValueOrUseDefault(argMap, "-iterations", "20"));
+		String[] templateSets = CommandLineUtils.getValueOrUseDefault(argMap,
+				"-templates", "all;1GRAM+2GRAM+3GRAM").split(";");
+		int numTrials = Integer.parseInt(CommandLineUtils.getValueOrUseDefault(
+				argMap, "-trials", "10"));
+		int numParallel = Integer.parseInt(CommandLineUtils
+				.getValueOrUseDefault(argMap, "-parallel", ""
+						+ Runtime.getRuntime().availableProcessors()));
+
+		List<SweepConfiguration> configurations = new ArrayList<SweepConfiguration>();
+		if (mode.equalsIgnoreCase("random")) {
+			// sigma log-uniform over the range of the given sigmas
+			Random random = new Random(0);
+			double logMin = Math.log(DoubleArrays.min(sigmas));
+			double logMax = Math.log(DoubleArrays.max(sigmas));
+			for (int t = 0; t < numTrials; t++) {
+				configurations.add(new SweepConfiguration(Math.exp(logMin
+						+ random.nextDouble() * (logMax - logMin)),
+						(int) iterationCounts[random
+								.nextInt(iterationCounts.length)],
+						templateSets[random.nextInt(templateSets.length)]));
+			}
+		} else {
+			for (double sigma : sigmas) {
+				for (double iterations : iterationCounts) {
+					for (String templates : templateSets) {
+						configurations.add(new SweepConfiguration(sigma,
+								(int) iterations, templates));
+					}
+				}
+			}
+		}
+
+		// encode once, and derive each template set's data from that
+		final ProperNameFeatureExtractor featureExtractor = new ProperNameFeatureExtractor();
+		Stopwatch watch = new Stopwatch();
+		Pair<MaximumEntropyClassifier.Encoding<String, String>, EncodedDataset> encoded = new MaximumEntropyClassifier.Factory<String, String, String>(
+				1.0, 20, featureExtractor).encode(trainingData);
+		final MaximumEntropyClassifier.Encoding<String, String> encoding = encoded
+				.getFirst();
+		final Map<String, EncodedDataset> datasets = new HashMap<String, EncodedDataset>();
+		for (String templates : templateSets) {
+			if (templates.equalsIgnoreCase("all")) {
+				datasets.put(templates, encoded.getSecond());
+				continue;
+			}
+			Set<String> keptTemplates = new HashSet<String>(Arrays
+					.asList(templates.split("\\+")));
+			boolean[] keepFeature = new boolean[encoding.getNumFeatures()];
+			for (int f = 0; f < keepFeature.length; f++) {
+				keepFeature[f] = keptTemplates
+						.contains(ProperNameFeatureExtractor
+								.templateOf(encoding.getFeature(f)));
+			}
+			datasets.put(templates, encoded.getSecond().filter(keepFeature));
+		}
+		watch.stop();
+		System.out.printf(
+				"[sweep] Encoded %d names (%d features) in %.2f s; %d configurations, %d at a time\n",
+				trainingData.size(), encoding.getNumFeatures(), watch
+						.getLastElapsedTime(), configurations.size(),
+				numParallel);
+
+		final List<String> validationNames = new ArrayList<String>();
+		for (LabeledInstance<String, String> datum : validationData) {
+			validationNames.add(datum.getInput());
+		}
+		final List<LabeledInstance<String, String>> validation = validationData;
+		ExecutorService executor = Executors.newFixedThreadPool(numParallel);
+		List<Future<?>> futures = new ArrayList<Future<?>>();
+		for (final SweepConfiguration configuration : configurations) {
+			futures.add(executor.submit(new Runnable() {
+				public void run() {
+					MaximumEntropyClassifier.Factory<String, String, String> factory = new MaximumEntropyClassifier.Factory<String, String, String>(
+							configuration.sigma, configuration.iterations,
+							featureExtractor);
+					factory.setNumThreads(1);
+					factory.setVerbose(false);
+					Stopwatch watch = new Stopwatch();
+					configuration.classifier = factory.trainClassifier(
+							encoding, datasets.get(configuration.templates));
+					watch.stop();
+					configuration.trainingTime = watch.getLastElapsedTime();
+					BatchPredictions<String> predictions = new BatchPredictions<String>();
+					configuration.classifier.predictBatch(validationNames,
+							predictions);
+					int numCorrect = 0;
+					for (int i = 0; i < validation.size(); i++) {
+						if (predictions.getLabel(i).equals(
+								validation.get(i).getLabel()))
+							numCorrect++;
+					}
+					configuration.accuracy = numCorrect
+							/ (double) validation.size();
+					System.out.printf("[sweep] %s: accuracy %.4f in %.2f s\n",
+							configuration, configuration.accuracy,
+							configuration.trainingTime);
+				}
+			}));
+		}
+		try {
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		} finally {
+			executor.shutdown();
+		}
+
+		Collections.sort(configurations, new Comparator<SweepConfiguration>() {
+			public int compare(SweepConfiguration c1, SweepConfiguration c2) {
+				return Double.compare(c2.accuracy, c1.accuracy);
+			}
+		});
+		System.out.printf("%4s %10s %10s %-30s %10s %10s\n", "rank", "sigma",
+				"iterations", "templates", "accuracy", "time (s)");
+		for (int rank = 0; rank < configurations.size(); rank++) {
+			SweepConfiguration configuration = configurations.get(rank);
+			System.out.printf("%4d %10.4g %10d %-30s %10.4f %10.2f\n",
+					rank + 1, configuration.sigma, configuration.iterations,
+					configuration.templates, configuration.accuracy,
+					configuration.trainingTime);
+		}
+		return configurations.get(0).classifier;
+	}
+
 	private static void testClassifier(
 			ProbabilisticClassifier<String, String> classifier,
 			List<LabeledInstance<String, String>> testData, boolean verbose) {
@@ -151,9 +404,18 @@ public class ProperNameTester {
 		int []confidenceCorrect = new int[10];
 		int []confidenceTotal = new int[10];
 		
+		// score the whole test set as one batch
+		List<String> names = new ArrayList<String>();
 		for (LabeledInstance<String, String> testDatum : testData) {
+			names.add(testDatum.getInput());
+		}
+		BatchPredictions<String> predictions = new BatchPredictions<String>();
+		classifier.predictBatch(names, predictions);
+
+		for (int t = 0; t < testData.size(); t++) {
+			LabeledInstance<String, String> testDatum = testData.get(t);
 			String name = testDatum.getInput();
-			String label = classifier.getLabel(name);
+			String label = predictions.getLabel(t);
 			String trueLabel = testDatum.getLabel();
 			
 			if (!labelIndex.containsKey(label))
@@ -166,8 +428,7 @@ public class ProperNameTester {
 			}
 			confusionMatrix[labelIndex.get(trueLabel)][labelIndex.get(label)]++;
 			
-			double confidence = classifier.getProbabilities(name).getCount(
-					label);
+			double confidence = predictions.getConfidence(t);
 			int confidenceLevel = (int) (confidence * 10);
 			if (confidenceLevel == 10) confidenceLevel--;
 			confidenceTotal[confidenceLevel]++;
@@ -209,7 +470,8 @@ public class ProperNameTester {
 		
 	}
 
-	public static void main(String[] args) throws IOException {
+	public static void main(String[] args) throws IOException,
+			InterruptedException, ExecutionException {
 		// Parse command line flags and arguments
 		Map<String, String> argMap = CommandLineUtils
 				.simpleCommandLineParser(args);
@@ -248,6 +510,22 @@ public class ProperNameTester {
 			verbose = true;
 		}
 
+		// Where to write the per-iteration record of the maxent optimizer
+		// (JSON if the name ends in .json, CSV otherwise)
+		OptimizerTelemetry telemetry = null;
+		if (argMap.containsKey("-telemetry")) {
+			telemetry = new OptimizerTelemetry();
+		}
+
+		// Where the maxent optimizer checkpoints its progress, and how often;
+		// an existing checkpoint is resumed from
+		File checkpointFile = null;
+		int checkpointInterval = Integer.parseInt(CommandLineUtils
+				.getValueOrUseDefault(argMap, "-checkpointInterval", "5"));
+		if (argMap.containsKey("-checkpoint")) {
+			checkpointFile = new File(argMap.get("-checkpoint"));
+		}
+
 		// Load training, validation, and test data
 		List<LabeledInstance<String, String>> trainingData = loadData(basePath
 				+ "/pnp-train.txt");
@@ -262,22 +540,198 @@ public class ProperNameTester {
 			classifier = new MostFrequentLabelClassifier.Factory<String, String>()
 					.trainClassifier(trainingData);
 		} else if (model.equalsIgnoreCase("n-gram")) {
-			// TODO: construct your n-gram model here
+			int order = Integer.parseInt(CommandLineUtils.getValueOrUseDefault(
+					argMap, "-order", "4"));
+			Stopwatch watch = new Stopwatch();
+			CharNGramClassifier<String> nGram = new CharNGramClassifier.Factory<String>(
+					order).trainClassifier(trainingData);
+			watch.stop();
+			System.out.printf("Trained order %d character n-gram models (%d n-grams) in %.3f s\n",
+					order, nGram.getNumNGrams(), watch.getLastElapsedTime());
+			classifier = nGram;
 		} else if (model.equalsIgnoreCase("perceptron")){
 			ProbabilisticClassifierFactory<String, String> factory = new PerceptronClassifier.Factory<String, String, String>(
 					1.0, 20, new ProperNameFeatureExtractor());
 			classifier = factory.trainClassifier(trainingData);
+		} else if (model.equalsIgnoreCase("perceptron-online")) {
+			// the training file is sorted by label, which an online learner
+			// can't cope with, so feed it in a fixed random order; every
+			// tenth name is held out for early stopping
+			List<LabeledInstance<String, String>> shuffledData = new ArrayList<LabeledInstance<String, String>>(
+					trainingData);
+			Collections.shuffle(shuffledData, new Random(0));
+			List<LabeledInstance<String, String>> heldOutData = new ArrayList<LabeledInstance<String, String>>();
+			List<LabeledInstance<String, String>> onlineData = new ArrayList<LabeledInstance<String, String>>();
+			for (int i = 0; i < shuffledData.size(); i++) {
+				(i % 10 == 0 ? heldOutData : onlineData).add(shuffledData
+						.get(i));
+			}
+			PerceptronClassifier.OnlineLearner<String, String, String> learner = new PerceptronClassifier.OnlineLearner<String, String, String>(
+					new ProperNameFeatureExtractor(), true);
+			classifier = learner.train(onlineData, heldOutData, 50, 3);
+		} else if (model.equalsIgnoreCase("perceptron-compare")) {
+			// compare sequential training with iterative parameter mixing,
+			// on the same shuffled data (the file is sorted by label, which
+			// would leave each mixing shard with a skewed ordering)
+			int epochs = Integer.parseInt(CommandLineUtils
+					.getValueOrUseDefault(argMap, "-epochs", "50"));
+			int numThreads = Integer.parseInt(CommandLineUtils
+					.getValueOrUseDefault(argMap, "-threads", "4"));
+			List<LabeledInstance<String, String>> shuffledData = new ArrayList<LabeledInstance<String, String>>(
+					trainingData);
+			Collections.shuffle(shuffledData, new Random(0));
+			List<LabeledInstance<String, String>> evaluationData = (useValidation ? validationData
+					: testData);
+			StringBuilder summary = new StringBuilder();
+			for (int threads : new int[] { 1, numThreads }) {
+				PerceptronClassifier.Factory<String, String, String> factory = new PerceptronClassifier.Factory<String, String, String>(
+						1.0, 20, new ProperNameFeatureExtractor());
+				factory.setEpochs(epochs);
+				factory.setNumThreads(threads);
+				Stopwatch watch = new Stopwatch();
+				PerceptronClassifier<String, String, String> perceptron = factory
+						.trainClassifier(shuffledData);
+				watch.stop();
+				summary.append(String.format(
+						"%-10s threads=%d epochs=%d time=%.2fs accuracy=%.4f\n",
+						(threads == 1 ? "sequential" : "mixing"), threads,
+						epochs, watch.getLastElapsedTime(),
+						perceptron.getAccuracy(evaluationData)));
+				classifier = perceptron;
+			}
+			System.out.print(summary);
 		} else if (model.equalsIgnoreCase("maxent")) {
 			// TODO: construct your maxent model here
-			ProbabilisticClassifierFactory<String, String> factory = new MaximumEntropyClassifier.Factory<String, String, String>(
+			MaximumEntropyClassifier.Factory<String, String, String> factory = new MaximumEntropyClassifier.Factory<String, String, String>(
 					1.0, 20, new ProperNameFeatureExtractor());
+			factory.setFastMath(argMap.containsKey("-fastMath"));
+			factory.setTelemetry(telemetry);
+			factory.setCheckpoint(checkpointFile, checkpointInterval);
+			classifier = factory.trainClassifier(trainingData);
+		} else if (model.equalsIgnoreCase("maxent-hashed")) {
+			int numHashBits = Integer.parseInt(CommandLineUtils
+					.getValueOrUseDefault(argMap, "-hashBits", "18"));
+			ProbabilisticClassifierFactory<String, String> factory = new MaximumEntropyClassifier.HashingFactory<String, String>(
+					1.0, 20, new ProperNameFeatureExtractor(), numHashBits);
+			classifier = factory.trainClassifier(trainingData);
+		} else if (model.equalsIgnoreCase("maxent-compact")) {
+			// train as usual, then classify with the compact model written
+			// from it
+			double pruneThreshold = Double.parseDouble(CommandLineUtils
+					.getValueOrUseDefault(argMap, "-prune", "0.01"));
+			ProperNameFeatureExtractor featureExtractor = new ProperNameFeatureExtractor();
+			MaximumEntropyClassifier.Factory<String, String, String> factory = new MaximumEntropyClassifier.Factory<String, String, String>(
+					1.0, 20, featureExtractor);
+			MaximumEntropyClassifier<String, String, String> maxent = factory
+					.trainClassifier(trainingData);
+			File modelFile = File.createTempFile("maxent", ".model");
+			modelFile.deleteOnExit();
+			int numFeatures = CompactMaxEntModel.write(maxent, modelFile,
+					pruneThreshold);
+			Stopwatch watch = new Stopwatch();
+			CompactMaxEntModel<String> compact = CompactMaxEntModel.load(
+					modelFile, featureExtractor);
+			watch.stop();
+			System.out.printf(
+					"Compact model: %d of %d features kept, %d bytes (dense weights: %d bytes), loaded in %.4f s\n",
+					numFeatures, maxent.getEncoding().getNumFeatures(),
+					modelFile.length(), 8L * maxent.getWeights().length, watch
+							.getLastElapsedTime());
+			classifier = compact;
+		} else if (model.equalsIgnoreCase("maxent-l1")) {
+			// L1 (elastic net if -sigma is given), keeping only the features
+			// whose weights survive
+			double l1Weight = Double.parseDouble(CommandLineUtils
+					.getValueOrUseDefault(argMap, "-l1", "1.0"));
+			double sigma = Double.parseDouble(CommandLineUtils
+					.getValueOrUseDefault(argMap, "-sigma", "Infinity"));
+			int iterations = Integer.parseInt(CommandLineUtils
+					.getValueOrUseDefault(argMap, "-iterations", "100"));
+			MaximumEntropyClassifier.Factory<String, String, String> factory = new MaximumEntropyClassifier.Factory<String, String, String>(
+					sigma, iterations, new ProperNameFeatureExtractor());
+			factory.setL1Weight(l1Weight);
+			factory.setTelemetry(telemetry);
+			factory.setCheckpoint(checkpointFile, checkpointInterval);
+			MaximumEntropyClassifier<String, String, String> maxent = factory
+					.trainClassifier(trainingData);
+			MaximumEntropyClassifier<String, String, String> sparse = maxent
+					.sparsify();
+			System.out.printf("Sparse model: %d of %d features kept\n",
+					sparse.getEncoding().getNumFeatures(), maxent
+							.getEncoding().getNumFeatures());
+			classifier = sparse;
+		} else if (model.equalsIgnoreCase("cascade")) {
+			// the n-gram model answers the names it is confident about and
+			// defers the rest to maxent; every tenth training name is held
+			// out of the n-gram model's training to calibrate its confidence
+			double threshold = Double.parseDouble(CommandLineUtils
+					.getValueOrUseDefault(argMap, "-threshold", "0.95"));
+			String calibration = CommandLineUtils.getValueOrUseDefault(argMap,
+					"-calibration", "isotonic");
+			List<LabeledInstance<String, String>> nGramData = new ArrayList<LabeledInstance<String, String>>();
+			List<String> heldOutNames = new ArrayList<String>();
+			List<String> heldOutLabels = new ArrayList<String>();
+			for (int i = 0; i < trainingData.size(); i++) {
+				if (i % 10 == 0) {
+					heldOutNames.add(trainingData.get(i).getInput());
+					heldOutLabels.add(trainingData.get(i).getLabel());
+				} else {
+					nGramData.add(trainingData.get(i));
+				}
+			}
+			CharNGramClassifier<String> nGram = new CharNGramClassifier.Factory<String>(
+					4).trainClassifier(nGramData);
+			BatchPredictions<String> heldOutPredictions = new BatchPredictions<String>();
+			nGram.predictBatch(heldOutNames, heldOutPredictions);
+			ConfidenceCalibrator calibrator;
+			if (calibration.equalsIgnoreCase("temperature")) {
+				TemperatureCalibrator temperature = TemperatureCalibrator.fit(
+						heldOutPredictions, heldOutLabels);
+				System.out.printf("Fitted temperature %.3f\n", temperature
+						.getTemperature());
+				calibrator = temperature;
+			} else {
+				calibrator = IsotonicCalibrator.fit(heldOutPredictions,
+						heldOutLabels);
+			}
+			System.out.printf(
+					"Calibration error on the held-out names (fit on them): %.4f uncalibrated, %.4f %s\n",
+					ConfidenceCalibrator.UNCALIBRATED
+							.getExpectedCalibrationError(heldOutPredictions,
+									heldOutLabels, 10), calibrator
+							.getExpectedCalibrationError(heldOutPredictions,
+									heldOutLabels, 10), calibration);
+			MaximumEntropyClassifier.Factory<String, String, String> factory = new MaximumEntropyClassifier.Factory<String, String, String>(
+					1.0, 20, new ProperNameFeatureExtractor());
+			factory.setVerbose(false);
+			classifier = new CascadeClassifier<String, String>(nGram, factory
+					.trainClassifier(trainingData), calibrator, threshold);
+		} else if (model.equalsIgnoreCase("sweep")) {
+			classifier = runSweep(argMap, trainingData, validationData);
+		} else if (model.equalsIgnoreCase("maxent-adagrad")) {
+			MaximumEntropyClassifier.Factory<String, String, String> factory = new MaximumEntropyClassifier.Factory<String, String, String>(
+					1.0, 20, new ProperNameFeatureExtractor());
+			factory.setMinimizer(new AdaGradMinimizer(10, 500, 0.5));
 			classifier = factory.trainClassifier(trainingData);
 		} else {
 			throw new RuntimeException("Unknown model descriptor: " + model);
 		}
 
+		if (telemetry != null && !telemetry.getIterations().isEmpty()) {
+			File telemetryFile = new File(argMap.get("-telemetry"));
+			telemetry.write(telemetryFile);
+			System.out.println("Optimizer: " + telemetry.getSummary()
+					+ "; written to " + telemetryFile);
+		}
+
 		// Test classifier
 		testClassifier(classifier, (useValidation ? validationData : testData),
 				verbose);
+		if (classifier instanceof CascadeClassifier) {
+			System.out.printf("Deferred to the expensive model: %d of %d\n",
+					((CascadeClassifier<String, String>) classifier)
+							.getLastNumDeferred(), (useValidation ? validationData
+							: testData).size());
+		}
 	}
 }
@@ -0,0 +1,222 @@
+package nlp.classify;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import nlp.util.Counter;
+
+/**
+ * The output of ProbabilisticClassifier.predictBatch(): for each instance of
+ * a batch, the index of the best label and the probability of every label,
+ * in primitive arrays. Labels are numbered in the order of getLabels(), and
+ * the probabilities of instance i are getProbabilities()[i * numLabels] ...
+ * getProbabilities()[(i + 1) * numLabels - 1]. A BatchPredictions object can
+ * be reused across batches; its arrays only grow.
+ */
+public class BatchPredictions<L> {
+	List<L> labels = Collections.emptyList();
+	int numInstances;
+	int[] labelIndexes = new int[0];
+	double[] probabilities = new double[0];
+
+	/**
+	 * Prepares for a batch of numInstances instances over the given labels.
+	 * Called by classifiers at the start of predictBatch().
+	 */
+	public void reset(List<L> labels, int numInstances) {
+		this.labels = labels;
+		this.numInstances = numInstances;
+		if (labelIndexes.length < numInstances)
+			labelIndexes = new int[numInstances];
+		int length = numInstances * labels.size();
+		if (probabilities.length < length)
+			probabilities = new double[length];
+	}
+
+	/**
+	 * The number of instances in the batch.
+	 */
+	public int size() {
+		return numInstances;
+	}
+
+	public List<L> getLabels() {
+		return labels;
+	}
+
+	public int getNumLabels() {
+		return labels.size();
+	}
+
+	/**
+	 * The index of the best label for the given instance.
+	 */
+	public int getLabelIndex(int instance) {
+		return labelIndexes[instance];
+	}
+
+	/**
+	 * The best label for the given instance.
+	 */
+	public L getLabel(int instance) {
+		return labels.get(labelIndexes[instance]);
+	}
+
+	public double getProbability(int instance, int labelIndex) {
+		return probabilities[instance * labels.size() + labelIndex];
+	}
+
+	/**
+	 * The probability of the best label for the given instance.
+	 */
+	public double getConfidence(int instance) {
+		return getProbability(instance, labelIndexes[instance]);
+	}
+
+	public int[] getLabelIndexes() {
+		return labelIndexes;
+	}
+
+	public double[] getProbabilities() {
+		return probabilities;
+	}
+
+	/**
+	 * Picks the best label of an instance once its probabilities have been
+	 * written, the first one on ties.
+	 */
+	public void finishInstance(int instance) {
+		int offset = instance * labels.size();
+		int best = 0;
+		for (int j = 1; j < labels.size(); j++) {
+			if (probabilities[offset + j] > probabilities[offset + best])
+				best = j;
+		}
+		labelIndexes[instance] = best;
+	}
+
+	/**
+	 * A predictBatch() for classifiers with nothing better to do: scores the
+	 * instances one at a time through getProbabilities().
+	 */
+	public static <I, L> void predictEach(
+			ProbabilisticClassifier<I, L> classifier, List<I> instances,
+			List<L> labels, BatchPredictions<L> predictions) {
+		predictions.reset(labels, instances.size());
+		for (int i = 0; i < instances.size(); i++) {
+			Counter<L> counter = classifier.getProbabilities(instances.get(i));
+			for (int j = 0; j < labels.size(); j++) {
+				predictions.probabilities[i * labels.size() + j] = counter
+						.getCount(labels.get(j));
+			}
+			predictions.finishInstance(i);
+		}
+	}
+
+	/**
+	 * As above, for a classifier which doesn't list its labels: they are
+	 * numbered in the order the distributions first mention them.
+	 */
+	public static <I, L> void predictEach(
+			ProbabilisticClassifier<I, L> classifier, List<I> instances,
+			BatchPredictions<L> predictions) {
+		List<Counter<L>> counters = new ArrayList<Counter<L>>(instances.size());
+		Set<L> labelSet = new LinkedHashSet<L>();
+		for (I instance : instances) {
+			Counter<L> counter = classifier.getProbabilities(instance);
+			counters.add(counter);
+			labelSet.addAll(counter.keySet());
+		}
+		List<L> labels = new ArrayList<L>(labelSet);
+		predictions.reset(labels, instances.size());
+		for (int i = 0; i < instances.size(); i++) {
+			for (int j = 0; j < labels.size(); j++) {
+				predictions.probabilities[i * labels.size() + j] = counters
+						.get(i).getCount(labels.get(j));
+			}
+			predictions.finishInstance(i);
+		}
+	}
+
+	/**
+	 * Computes the label distribution of one instance.
+	 */
+	public static interface InstanceScorer<I> {
+		/**
+		 * Writes the probabilities of the labels for the instance into
+		 * probabilities[offset] ... probabilities[offset + numLabels - 1]. May
+		 * be called from several threads at once.
+		 */
+		void score(I instance, double[] probabilities, int offset);
+	}
+
+	private static final int INSTANCES_PER_TASK = 64;
+
+	/**
+	 * A predictBatch() which scores the instances in parallel on the common
+	 * fork-join pool, in chunks of INSTANCES_PER_TASK.
+	 */
+	public static <I, L> void predictInParallel(List<I> instances,
+			List<L> labels, BatchPredictions<L> predictions,
+			InstanceScorer<I> scorer) {
+		predictions.reset(labels, instances.size());
+		ScoringTask<I, L> task = new ScoringTask<I, L>(instances, predictions,
+				scorer, 0, instances.size());
+		if (instances.size() <= INSTANCES_PER_TASK)
+			task.compute();
+		else
+			ForkJoinPool.commonPool().invoke(task);
+	}
+
+	static class ScoringTask<I, L> extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		List<I> instances;
+		BatchPredictions<L> predictions;
+		InstanceScorer<I> scorer;
+		int begin;
+		int end;
+
+		protected void compute() {
+			if (end - begin > INSTANCES_PER_TASK) {
+				int middle = (begin + end) >>> 1;
+				invokeAll(new ScoringTask<I, L>(instances, predictions, scorer,
+						begin, middle), new ScoringTask<I, L>(instances,
+						predictions, scorer, middle, end));
+				return;
+			}
+			int numLabels = predictions.getNumLabels();
+			for (int i = begin; i < end; i++) {
+				scorer.score(instances.get(i), predictions.probabilities, i
+						* numLabels);
+				predictions.finishInstance(i);
+			}
+		}
+
+		ScoringTask(List<I> instances, BatchPredictions<L> predictions,
+				InstanceScorer<I> scorer, int begin, int end) {
+			this.instances = instances;
+			this.predictions = predictions;
+			this.scorer = scorer;
+			this.begin = begin;
+			this.end = end;
+		}
+	}
+
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < numInstances; i++) {
+			sb.append(getLabel(i)).append(' ').append(
+					Arrays.toString(Arrays.copyOfRange(probabilities, i
+							* labels.size(), (i + 1) * labels.size())));
+			sb.append('\n');
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,146 @@
+package nlp.classify;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import nlp.util.Counter;
+
+/**
+ * Puts a cheap classifier in front of an expensive one: an instance gets the
+ * cheap classifier's answer when its calibrated confidence reaches the
+ * threshold, and is otherwise deferred to the expensive classifier. With a
+ * calibrated confidence, the threshold is roughly the accuracy to expect on
+ * the instances the cheap classifier answers.
+ */
+public class CascadeClassifier<I, L> implements ProbabilisticClassifier<I, L> {
+
+	ProbabilisticClassifier<I, L> cheapClassifier;
+	ProbabilisticClassifier<I, L> expensiveClassifier;
+	ConfidenceCalibrator calibrator;
+	double threshold;
+	int lastNumDeferred;
+
+	private ThreadLocal<BatchPredictions<L>> singlePredictions = new ThreadLocal<BatchPredictions<L>>() {
+		protected BatchPredictions<L> initialValue() {
+			return new BatchPredictions<L>();
+		}
+	};
+
+	/**
+	 * The fast path: scores the input with the cheap classifier alone into
+	 * this thread's BatchPredictions, which is returned if the calibrated
+	 * confidence reaches the threshold; null means the input needs the
+	 * expensive classifier.
+	 */
+	private BatchPredictions<L> predictConfidently(I input) {
+		BatchPredictions<L> predictions = singlePredictions.get();
+		cheapClassifier.predictBatch(Collections.singletonList(input),
+				predictions);
+		if (calibrator.getConfidence(predictions, 0) < threshold)
+			return null;
+		return predictions;
+	}
+
+	/**
+	 * The cheap classifier's label if it is confident enough, or null.
+	 */
+	public L getConfidentLabel(I input) {
+		BatchPredictions<L> predictions = predictConfidently(input);
+		return (predictions == null ? null : predictions.getLabel(0));
+	}
+
+	public L getLabel(I input) {
+		L label = getConfidentLabel(input);
+		if (label != null)
+			return label;
+		return expensiveClassifier.getLabel(input);
+	}
+
+	public Counter<L> getProbabilities(I input) {
+		BatchPredictions<L> predictions = predictConfidently(input);
+		if (predictions == null)
+			return expensiveClassifier.getProbabilities(input);
+		Counter<L> probabilities = new Counter<L>();
+		for (int j = 0; j < predictions.getNumLabels(); j++) {
+			probabilities.setCount(predictions.getLabels().get(j), predictions
+					.getProbability(0, j));
+		}
+		return probabilities;
+	}
+
+	/**
+	 * Scores the whole batch with the cheap classifier, then the instances
+	 * it isn't confident about, as one smaller batch, with the expensive
+	 * one. The labels are the cheap classifier's, followed by any only the
+	 * expensive classifier knows.
+	 */
+	public void predictBatch(List<I> instances, BatchPredictions<L> predictions) {
+		BatchPredictions<L> cheapPredictions = new BatchPredictions<L>();
+		cheapClassifier.predictBatch(instances, cheapPredictions);
+		List<I> deferred = new ArrayList<I>();
+		boolean[] confident = new boolean[instances.size()];
+		for (int i = 0; i < instances.size(); i++) {
+			confident[i] = (calibrator.getConfidence(cheapPredictions, i) >= threshold);
+			if (!confident[i])
+				deferred.add(instances.get(i));
+		}
+		lastNumDeferred = deferred.size();
+		BatchPredictions<L> expensivePredictions = new BatchPredictions<L>();
+		expensiveClassifier.predictBatch(deferred, expensivePredictions);
+
+		List<L> labels = new ArrayList<L>(cheapPredictions.getLabels());
+		int[] expensiveColumns = new int[expensivePredictions.getNumLabels()];
+		for (int j = 0; j < expensiveColumns.length; j++) {
+			L label = expensivePredictions.getLabels().get(j);
+			expensiveColumns[j] = labels.indexOf(label);
+			if (expensiveColumns[j] < 0) {
+				expensiveColumns[j] = labels.size();
+				labels.add(label);
+			}
+		}
+		int numLabels = labels.size();
+		predictions.reset(labels, instances.size());
+		int next = 0;
+		for (int i = 0; i < instances.size(); i++) {
+			int offset = i * numLabels;
+			for (int j = 0; j < numLabels; j++) {
+				predictions.probabilities[offset + j] = 0.0;
+			}
+			if (confident[i]) {
+				for (int j = 0; j < cheapPredictions.getNumLabels(); j++) {
+					predictions.probabilities[offset + j] = cheapPredictions
+							.getProbability(i, j);
+				}
+			} else {
+				for (int j = 0; j < expensiveColumns.length; j++) {
+					predictions.probabilities[offset + expensiveColumns[j]] = expensivePredictions
+							.getProbability(next, j);
+				}
+				next++;
+			}
+			predictions.finishInstance(i);
+		}
+	}
+
+	/**
+	 * How many instances of the last predictBatch() went to the expensive
+	 * classifier.
+	 */
+	public int getLastNumDeferred() {
+		return lastNumDeferred;
+	}
+
+	public void setThreshold(double threshold) {
+		this.threshold = threshold;
+	}
+
+	public CascadeClassifier(ProbabilisticClassifier<I, L> cheapClassifier,
+			ProbabilisticClassifier<I, L> expensiveClassifier,
+			ConfidenceCalibrator calibrator, double threshold) {
+		this.cheapClassifier = cheapClassifier;
+		this.expensiveClassifier = expensiveClassifier;
+		this.calibrator = calibrator;
+		this.threshold = threshold;
+	}
+}
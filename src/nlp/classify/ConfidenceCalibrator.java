@@ -0,0 +1,84 @@
+package nlp.classify;
+
+import java.util.List;
+
+/**
+ * Turns a classifier's probability for its best label into a calibrated
+ * probability that the label is right: among instances given confidence c,
+ * a fraction of about c should be classified correctly. Calibrators are fit
+ * on the batch predictions of the classifier on held-out data (see
+ * TemperatureCalibrator and IsotonicCalibrator), and are what makes a
+ * confidence threshold, as in CascadeClassifier, mean the same thing for
+ * any classifier.
+ */
+public abstract class ConfidenceCalibrator {
+
+	/**
+	 * The calibrated confidence in label labelIndex, the best of the
+	 * numLabels probabilities starting at probabilities[offset].
+	 */
+	public abstract double getConfidence(double[] probabilities, int offset,
+			int numLabels, int labelIndex);
+
+	/**
+	 * The calibrated confidence in the best label of an instance of a batch.
+	 */
+	public double getConfidence(BatchPredictions<?> predictions, int instance) {
+		int numLabels = predictions.getNumLabels();
+		return getConfidence(predictions.probabilities, instance * numLabels,
+				numLabels, predictions.labelIndexes[instance]);
+	}
+
+	/**
+	 * The probability of the best label, as it is.
+	 */
+	public static final ConfidenceCalibrator UNCALIBRATED = new ConfidenceCalibrator() {
+		public double getConfidence(double[] probabilities, int offset,
+				int numLabels, int labelIndex) {
+			return probabilities[offset + labelIndex];
+		}
+	};
+
+	/**
+	 * The index of each instance's gold label among the labels of the
+	 * predictions, or -1 if the classifier doesn't know it.
+	 */
+	static <L> int[] goldLabelIndexes(BatchPredictions<L> predictions,
+			List<L> goldLabels) {
+		if (goldLabels.size() != predictions.size())
+			throw new IllegalArgumentException(
+					"ConfidenceCalibrator: " + goldLabels.size()
+							+ " gold labels for " + predictions.size()
+							+ " predictions");
+		int[] gold = new int[goldLabels.size()];
+		for (int i = 0; i < gold.length; i++) {
+			gold[i] = predictions.getLabels().indexOf(goldLabels.get(i));
+		}
+		return gold;
+	}
+
+	/**
+	 * The expected calibration error: the instances are put in numBins
+	 * equal-width bins by calibrated confidence, and the gaps between each
+	 * bin's accuracy and its average confidence are averaged, weighted by
+	 * the number of instances in the bin.
+	 */
+	public <L> double getExpectedCalibrationError(
+			BatchPredictions<L> predictions, List<L> goldLabels, int numBins) {
+		int[] gold = goldLabelIndexes(predictions, goldLabels);
+		double[] binConfidence = new double[numBins];
+		double[] binCorrect = new double[numBins];
+		for (int i = 0; i < gold.length; i++) {
+			double confidence = getConfidence(predictions, i);
+			int bin = Math.min(numBins - 1, (int) (confidence * numBins));
+			binConfidence[bin] += confidence;
+			if (gold[i] == predictions.getLabelIndex(i))
+				binCorrect[bin] += 1.0;
+		}
+		double error = 0.0;
+		for (int bin = 0; bin < numBins; bin++) {
+			error += Math.abs(binCorrect[bin] - binConfidence[bin]);
+		}
+		return error / gold.length;
+	}
+}
@@ -0,0 +1,219 @@
+package nlp.classify;
+
+import java.util.Arrays;
+import java.util.List;
+
+import nlp.util.Counter;
+import nlp.util.Indexer;
+
+/**
+ * A labeled dataset of sparse feature vectors in compressed sparse row form:
+ * the features of datum d are indices[offsets[d]] ... indices[offsets[d + 1]
+ * - 1], with their counts in values, and its label index is labels[d]. Four
+ * flat arrays replace an object (and two arrays) per datum.
+ * <p/>
+ * encode() builds a dataset in a single pass over the training data,
+ * extracting each instance's features once and indexing them as it goes.
+ */
+public class EncodedDataset {
+	final int[] offsets;
+	final int[] indices;
+	final float[] values;
+	final int[] labels;
+
+	/**
+	 * The number of data.
+	 */
+	public int size() {
+		return labels.length;
+	}
+
+	public int getLabel(int datum) {
+		return labels[datum];
+	}
+
+	/**
+	 * The position of the datum's first feature.
+	 */
+	public int begin(int datum) {
+		return offsets[datum];
+	}
+
+	/**
+	 * One past the position of the datum's last feature.
+	 */
+	public int end(int datum) {
+		return offsets[datum + 1];
+	}
+
+	public int getFeatureIndex(int position) {
+		return indices[position];
+	}
+
+	public float getFeatureCount(int position) {
+		return values[position];
+	}
+
+	public int[] getOffsets() {
+		return offsets;
+	}
+
+	public int[] getIndices() {
+		return indices;
+	}
+
+	public float[] getValues() {
+		return values;
+	}
+
+	public int[] getLabels() {
+		return labels;
+	}
+
+	/**
+	 * Accumulates data one at a time: startDatum(), then addFeature() for
+	 * each of its features.
+	 */
+	public static class Builder {
+		int[] offsets = new int[17];
+		int[] indices = new int[256];
+		float[] values = new float[256];
+		int[] labels = new int[16];
+		int numData;
+		int numEntries;
+
+		public void startDatum(int label) {
+			if (numData == labels.length) {
+				labels = Arrays.copyOf(labels, 2 * numData);
+				offsets = Arrays.copyOf(offsets, 2 * numData + 1);
+			}
+			labels[numData] = label;
+			numData++;
+			offsets[numData] = numEntries;
+		}
+
+		public void addFeature(int index, double count) {
+			if (numEntries == indices.length) {
+				indices = Arrays.copyOf(indices, 2 * numEntries);
+				values = Arrays.copyOf(values, 2 * numEntries);
+			}
+			indices[numEntries] = index;
+			values[numEntries] = (float) count;
+			numEntries++;
+			offsets[numData] = numEntries;
+		}
+
+		public EncodedDataset build() {
+			return new EncodedDataset(Arrays.copyOf(offsets, numData + 1),
+					Arrays.copyOf(indices, numEntries), Arrays.copyOf(values,
+							numEntries), Arrays.copyOf(labels, numData));
+		}
+	}
+
+	/**
+	 * Extracts the features of each instance once, adding features and
+	 * labels to the indexers as they are first seen. The indexers may be
+	 * shared with other threads encoding other parts of the data (e.g.
+	 * ConcurrentIndexers), in which case the parts can be joined with
+	 * concatenate(); or each part can get indexers of its own, to be merged
+	 * in order with renumber().
+	 */
+	public static <I, F, L> EncodedDataset encode(
+			List<LabeledInstance<I, L>> data,
+			FeatureExtractor<I, F> featureExtractor, Indexer<F> featureIndexer,
+			Indexer<L> labelIndexer) {
+		Builder builder = new Builder();
+		for (LabeledInstance<I, L> labeledInstance : data) {
+			builder.startDatum(labelIndexer.addAndGetIndex(labeledInstance
+					.getLabel()));
+			Counter<F> features = featureExtractor
+					.extractFeatures(labeledInstance.getInput());
+			for (F feature : features.keySet()) {
+				builder.addFeature(featureIndexer.addAndGetIndex(feature),
+						features.getCount(feature));
+			}
+		}
+		return builder.build();
+	}
+
+	/**
+	 * Adds the objects of a part's own indexer to a shared one, in index
+	 * order, and returns where each of them ended up, for renumber(). Merging
+	 * the parts in data order numbers the objects by first appearance in the
+	 * whole data, just as a single pass would.
+	 */
+	public static <E> int[] merge(Indexer<E> partIndexer, Indexer<E> indexer) {
+		int[] indexes = new int[partIndexer.size()];
+		for (int i = 0; i < indexes.length; i++) {
+			indexes[i] = indexer.addAndGetIndex(partIndexer.get(i));
+		}
+		return indexes;
+	}
+
+	/**
+	 * Replaces, in place, each feature index f by featureIndexes[f] and each
+	 * label index l by labelIndexes[l].
+	 */
+	public void renumber(int[] featureIndexes, int[] labelIndexes) {
+		for (int i = 0; i < indices.length; i++) {
+			indices[i] = featureIndexes[indices[i]];
+		}
+		for (int d = 0; d < labels.length; d++) {
+			labels[d] = labelIndexes[labels[d]];
+		}
+	}
+
+	/**
+	 * Returns a copy of the dataset with only the features for which
+	 * keepFeature is true. Feature indexes are unchanged.
+	 */
+	public EncodedDataset filter(boolean[] keepFeature) {
+		Builder builder = new Builder();
+		for (int d = 0; d < size(); d++) {
+			builder.startDatum(labels[d]);
+			for (int i = offsets[d]; i < offsets[d + 1]; i++) {
+				if (keepFeature[indices[i]])
+					builder.addFeature(indices[i], values[i]);
+			}
+		}
+		return builder.build();
+	}
+
+	/**
+	 * Joins datasets end to end.
+	 */
+	public static EncodedDataset concatenate(List<EncodedDataset> parts) {
+		int numData = 0;
+		int numEntries = 0;
+		for (EncodedDataset part : parts) {
+			numData += part.size();
+			numEntries += part.indices.length;
+		}
+		int[] offsets = new int[numData + 1];
+		int[] indices = new int[numEntries];
+		float[] values = new float[numEntries];
+		int[] labels = new int[numData];
+		int datum = 0;
+		int entry = 0;
+		for (EncodedDataset part : parts) {
+			for (int d = 0; d < part.size(); d++) {
+				offsets[datum + d + 1] = entry + part.offsets[d + 1];
+			}
+			System.arraycopy(part.labels, 0, labels, datum, part.size());
+			System.arraycopy(part.indices, 0, indices, entry,
+					part.indices.length);
+			System.arraycopy(part.values, 0, values, entry, part.values.length);
+			datum += part.size();
+			entry += part.indices.length;
+		}
+		return new EncodedDataset(offsets, indices, values, labels);
+	}
+
+	public EncodedDataset(int[] offsets, int[] indices, float[] values,
+			int[] labels) {
+		this.offsets = offsets;
+		this.indices = indices;
+		this.values = values;
+		this.labels = labels;
+	}
+}
@@ -0,0 +1,151 @@
+package nlp.classify;
+
+import java.util.Arrays;
+
+/**
+ * A reusable sparse vector of hashed features. Instead of building feature
+ * objects, an extractor spells each feature out piece by piece:
+ *
+ * <pre>
+ * features.begin(&quot;PREFIX-&quot;).append(c1).append(c2).add(1.0);
+ * </pre>
+ *
+ * which hashes the pieces as they come and, on add(), records the hash
+ * (reduced to numBits bits) as the feature index. Nothing is allocated per
+ * feature once the buffer has grown to the largest instance, and since
+ * indexes are hashes no feature dictionary is needed, at the price of
+ * occasional collisions. A feature added twice, or two features which
+ * collide, appear as separate entries with the same index; linear models
+ * simply add them up.
+ */
+public class HashedFeatureVector {
+	private static final int FNV_OFFSET = 0x811C9DC5;
+	private static final int FNV_PRIME = 0x01000193;
+
+	final int numBits;
+	final int mask;
+	int[] featureIndexes = new int[16];
+	double[] featureCounts = new double[16];
+	int size;
+	int hash;
+
+	/**
+	 * The number of distinct feature indexes, 2^numBits.
+	 */
+	public int getNumFeatures() {
+		return mask + 1;
+	}
+
+	public int getNumBits() {
+		return numBits;
+	}
+
+	/**
+	 * Removes all features, keeping the storage for reuse.
+	 */
+	public void clear() {
+		size = 0;
+	}
+
+	/**
+	 * Starts a new feature whose name begins with the given prefix.
+	 */
+	public HashedFeatureVector begin(String prefix) {
+		hash = FNV_OFFSET;
+		for (int i = 0; i < prefix.length(); i++) {
+			append(prefix.charAt(i));
+		}
+		return this;
+	}
+
+	public HashedFeatureVector append(char c) {
+		hash = (hash ^ c) * FNV_PRIME;
+		return this;
+	}
+
+	/**
+	 * Appends a number to the feature's name; hashes differently from
+	 * appending its digits.
+	 */
+	public HashedFeatureVector append(int i) {
+		hash = (hash ^ (i * 0x9E3779B9)) * FNV_PRIME;
+		hash = (hash ^ 0x5BD1E995) * FNV_PRIME;
+		return this;
+	}
+
+	/**
+	 * Finishes the current feature and adds it with the given count.
+	 */
+	public void add(double count) {
+		int h = hash;
+		h ^= h >>> 16;
+		h *= 0x85EBCA6B;
+		h ^= h >>> 13;
+		h *= 0xC2B2AE35;
+		h ^= h >>> 16;
+		if (size == featureIndexes.length) {
+			featureIndexes = Arrays.copyOf(featureIndexes, 2 * size);
+			featureCounts = Arrays.copyOf(featureCounts, 2 * size);
+		}
+		featureIndexes[size] = h & mask;
+		featureCounts[size] = count;
+		size++;
+	}
+
+	/**
+	 * Adds a feature given by its whole name.
+	 */
+	public void add(String feature, double count) {
+		begin(feature).add(count);
+	}
+
+	/**
+	 * The number of entries added since the last clear().
+	 */
+	public int size() {
+		return size;
+	}
+
+	public int getFeatureIndex(int num) {
+		return featureIndexes[num];
+	}
+
+	public double getFeatureCount(int num) {
+		return featureCounts[num];
+	}
+
+	/**
+	 * The buffer of feature indexes itself (valid up to size()), for inner
+	 * loops; it is overwritten by later features.
+	 */
+	public int[] getFeatureIndexBuffer() {
+		return featureIndexes;
+	}
+
+	public double[] getFeatureCountBuffer() {
+		return featureCounts;
+	}
+
+	/**
+	 * A copy of the feature indexes added since the last clear().
+	 */
+	public int[] getFeatureIndexes() {
+		return Arrays.copyOf(featureIndexes, size);
+	}
+
+	/**
+	 * A copy of the feature counts added since the last clear().
+	 */
+	public double[] getFeatureCounts() {
+		return Arrays.copyOf(featureCounts, size);
+	}
+
+	public HashedFeatureVector(int numBits) {
+		if (numBits < 1 || numBits > 30)
+			throw new IllegalArgumentException(
+					"HashedFeatureVector: numBits must be between 1 and 30: "
+							+ numBits);
+		this.numBits = numBits;
+		this.mask = (1 << numBits) - 1;
+	}
+}
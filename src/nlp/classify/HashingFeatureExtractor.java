@@ -0,0 +1,10 @@
+package nlp.classify;
+
+/**
+ * Hashing feature extractors write the features of an instance straight into
+ * a (cleared, reusable) HashedFeatureVector instead of building a Counter of
+ * feature objects.
+ */
+public interface HashingFeatureExtractor<I> {
+	void extractFeatures(I instance, HashedFeatureVector features);
+}
@@ -0,0 +1,86 @@
+package nlp.classify;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Isotonic regression of correctness on confidence: the calibrated
+ * confidence is a non-decreasing step function of the best label's
+ * probability, fit by pool adjacent violators so that each step is the
+ * accuracy of the held-out instances falling on it. Unlike temperature
+ * scaling it assumes no particular shape for the miscalibration, but it
+ * calibrates only the best label and needs more held-out data.
+ */
+public class IsotonicCalibrator extends ConfidenceCalibrator {
+
+	// step i covers confidences up to upperConfidences[i]
+	double[] upperConfidences;
+	double[] accuracies;
+
+	public double getConfidence(double[] probabilities, int offset,
+			int numLabels, int labelIndex) {
+		double confidence = probabilities[offset + labelIndex];
+		int step = Arrays.binarySearch(upperConfidences, confidence);
+		if (step < 0)
+			step = Math.min(-step - 1, upperConfidences.length - 1);
+		return accuracies[step];
+	}
+
+	/**
+	 * The number of steps of the fitted function.
+	 */
+	public int getNumSteps() {
+		return accuracies.length;
+	}
+
+	/**
+	 * Fits the step function to a classifier's predictions on held-out data
+	 * and their gold labels.
+	 */
+	public static <L> IsotonicCalibrator fit(BatchPredictions<L> predictions,
+			List<L> goldLabels) {
+		int[] gold = goldLabelIndexes(predictions, goldLabels);
+		int n = gold.length;
+		if (n == 0)
+			throw new IllegalArgumentException(
+					"IsotonicCalibrator: no predictions to fit");
+		// sort by confidence, keeping whether each was right in the low bit
+		// of the confidence's bits (non-negative doubles sort as their bits)
+		long[] sorted = new long[n];
+		for (int i = 0; i < n; i++) {
+			long bits = Double.doubleToLongBits(UNCALIBRATED.getConfidence(
+					predictions, i));
+			sorted[i] = (bits & ~1L)
+					| (gold[i] == predictions.getLabelIndex(i) ? 1L : 0L);
+		}
+		Arrays.sort(sorted);
+
+		// pool adjacent violators: a stack of steps with non-decreasing
+		// accuracy
+		double[] correct = new double[n];
+		double[] counts = new double[n];
+		double[] uppers = new double[n];
+		int numSteps = 0;
+		for (int i = 0; i < n; i++) {
+			correct[numSteps] = sorted[i] & 1L;
+			counts[numSteps] = 1.0;
+			uppers[numSteps] = Double.longBitsToDouble(sorted[i] & ~1L);
+			numSteps++;
+			while (numSteps > 1
+					&& correct[numSteps - 2] / counts[numSteps - 2] >= correct[numSteps - 1]
+							/ counts[numSteps - 1]) {
+				correct[numSteps - 2] += correct[numSteps - 1];
+				counts[numSteps - 2] += counts[numSteps - 1];
+				uppers[numSteps - 2] = uppers[numSteps - 1];
+				numSteps--;
+			}
+		}
+		IsotonicCalibrator calibrator = new IsotonicCalibrator();
+		calibrator.upperConfidences = Arrays.copyOf(uppers, numSteps);
+		calibrator.accuracies = new double[numSteps];
+		for (int step = 0; step < numSteps; step++) {
+			calibrator.accuracies[step] = correct[step] / counts[step];
+		}
+		return calibrator;
+	}
+}
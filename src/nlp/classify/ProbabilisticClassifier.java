@@ -1,5 +1,7 @@
 package nlp.classify;
 
+import java.util.List;
+
 import nlp.util.Counter;
 
 /**
@@ -7,4 +9,28 @@ import nlp.util.Counter;
  */
 public interface ProbabilisticClassifier<I, L> extends Classifier<I, L> {
 	Counter<L> getProbabilities(I instance);
+
+	/**
+	 * The labels this classifier assigns, in the order predictBatch() numbers
+	 * them, or null if they are only known from the distributions it
+	 * returns.
+	 */
+	default List<L> getLabels() {
+		return null;
+	}
+
+	/**
+	 * Classifies a batch of instances, writing the best label and the label
+	 * distribution of each into predictions, which is reset first and may be
+	 * reused between batches. By default each instance is scored through
+	 * getProbabilities(); classifiers which can score a batch faster
+	 * override this.
+	 */
+	default void predictBatch(List<I> instances, BatchPredictions<L> predictions) {
+		List<L> labels = getLabels();
+		if (labels != null)
+			BatchPredictions.predictEach(this, instances, labels, predictions);
+		else
+			BatchPredictions.predictEach(this, instances, predictions);
+	}
 }
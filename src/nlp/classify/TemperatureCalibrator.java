@@ -0,0 +1,107 @@
+package nlp.classify;
+
+import java.util.List;
+
+/**
+ * Temperature scaling: the log probabilities of all labels are divided by a
+ * temperature T and renormalized, which leaves the best label unchanged but
+ * flattens an overconfident distribution (T > 1) or sharpens an
+ * underconfident one (T < 1). The single parameter is fit by maximizing the
+ * likelihood of the gold labels.
+ */
+public class TemperatureCalibrator extends ConfidenceCalibrator {
+
+	// probabilities are floored before taking logs
+	private static final double MIN_PROBABILITY = 1e-300;
+
+	double temperature;
+
+	public double getTemperature() {
+		return temperature;
+	}
+
+	public double getConfidence(double[] probabilities, int offset,
+			int numLabels, int labelIndex) {
+		double logProbability = Math.log(Math.max(MIN_PROBABILITY,
+				probabilities[offset + labelIndex]));
+		double sum = 0.0;
+		for (int j = offset; j < offset + numLabels; j++) {
+			sum += Math.exp((Math.log(Math.max(MIN_PROBABILITY,
+					probabilities[j])) - logProbability)
+					/ temperature);
+		}
+		return 1.0 / sum;
+	}
+
+	/**
+	 * The negative log likelihood of the gold labels once the log
+	 * probabilities are scaled by inverseTemperature. It is convex in the
+	 * inverse temperature.
+	 */
+	private static double negativeLogLikelihood(double[] logProbabilities,
+			int numLabels, int[] gold, double inverseTemperature) {
+		double total = 0.0;
+		for (int i = 0; i < gold.length; i++) {
+			if (gold[i] < 0)
+				continue;
+			int offset = i * numLabels;
+			double max = Double.NEGATIVE_INFINITY;
+			for (int j = offset; j < offset + numLabels; j++) {
+				max = Math.max(max, logProbabilities[j]);
+			}
+			double sum = 0.0;
+			for (int j = offset; j < offset + numLabels; j++) {
+				sum += Math.exp(inverseTemperature * (logProbabilities[j] - max));
+			}
+			total += inverseTemperature * max + Math.log(sum)
+					- inverseTemperature * logProbabilities[offset + gold[i]];
+		}
+		return total;
+	}
+
+	/**
+	 * Fits the temperature to a classifier's predictions on held-out data
+	 * and their gold labels, by golden section search over the log of the
+	 * inverse temperature, between 0.01 and 100.
+	 */
+	public static <L> TemperatureCalibrator fit(
+			BatchPredictions<L> predictions, List<L> goldLabels) {
+		int[] gold = goldLabelIndexes(predictions, goldLabels);
+		int numLabels = predictions.getNumLabels();
+		double[] logProbabilities = new double[gold.length * numLabels];
+		for (int i = 0; i < logProbabilities.length; i++) {
+			logProbabilities[i] = Math.log(Math.max(MIN_PROBABILITY,
+					predictions.probabilities[i]));
+		}
+		double ratio = (Math.sqrt(5.0) - 1.0) / 2.0;
+		double low = Math.log(0.01), high = Math.log(100.0);
+		double x1 = high - ratio * (high - low);
+		double x2 = low + ratio * (high - low);
+		double f1 = negativeLogLikelihood(logProbabilities, numLabels, gold,
+				Math.exp(x1));
+		double f2 = negativeLogLikelihood(logProbabilities, numLabels, gold,
+				Math.exp(x2));
+		while (high - low > 1e-6) {
+			if (f1 < f2) {
+				high = x2;
+				x2 = x1;
+				f2 = f1;
+				x1 = high - ratio * (high - low);
+				f1 = negativeLogLikelihood(logProbabilities, numLabels, gold,
+						Math.exp(x1));
+			} else {
+				low = x1;
+				x1 = x2;
+				f1 = f2;
+				x2 = low + ratio * (high - low);
+				f2 = negativeLogLikelihood(logProbabilities, numLabels, gold,
+						Math.exp(x2));
+			}
+		}
+		return new TemperatureCalibrator(1.0 / Math.exp((low + high) / 2.0));
+	}
+
+	public TemperatureCalibrator(double temperature) {
+		this.temperature = temperature;
+	}
+}
@@ -0,0 +1,40 @@
+package nlp.math;
+
+/**
+ * Mini-batch AdaGrad: each coordinate gets its own step size, learningRate
+ * divided by the root of the sum of its squared gradients so far, so rarely
+ * active (e.g. sparse feature) weights keep taking large steps.
+ */
+public class AdaGradMinimizer extends MiniBatchMinimizer {
+	double learningRate = 0.1;
+	double[] sumSquaredGradients;
+
+	public void setLearningRate(double learningRate) {
+		this.learningRate = learningRate;
+	}
+
+	protected void initialize(int dimension) {
+		sumSquaredGradients = new double[dimension];
+	}
+
+	protected void update(double[] x, double[] gradient, int[] coordinates,
+			int numCoordinates) {
+		for (int k = 0; k < numCoordinates; k++) {
+			int i = coordinates[k];
+			double g = gradient[i];
+			if (g == 0.0)
+				continue;
+			sumSquaredGradients[i] += g * g;
+			x[i] -= learningRate * g / Math.sqrt(sumSquaredGradients[i]);
+		}
+	}
+
+	public AdaGradMinimizer() {
+	}
+
+	public AdaGradMinimizer(int maxEpochs, int batchSize, double learningRate) {
+		this.maxEpochs = maxEpochs;
+		this.batchSize = batchSize;
+		this.learningRate = learningRate;
+	}
+}
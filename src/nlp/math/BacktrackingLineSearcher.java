@@ -10,9 +10,11 @@ public class BacktrackingLineSearcher implements GradientLineSearcher {
 	public double[] minimize(DifferentiableFunction function, double[] initial,
 			double[] direction) {
 		double stepSize = 1.0;
-		double initialFunctionValue = function.valueAt(initial);
+		double[] initialDerivative = new double[initial.length];
+		double initialFunctionValue = function.valueAndDerivativeAt(initial,
+				initialDerivative);
 		double initialDirectionalDerivative = DoubleArrays.innerProduct(
-				function.derivativeAt(initial), direction);
+				initialDerivative, direction);
 		double[] guess = null;
 		double guessValue = 0.0;
 		boolean sufficientDecreaseObtained = false;
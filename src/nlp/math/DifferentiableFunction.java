@@ -4,4 +4,14 @@ package nlp.math;
  */
 public interface DifferentiableFunction extends Function {
 	double[] derivativeAt(double[] x);
+
+	/**
+	 * Returns the value at x and writes the derivative at x into derivative.
+	 * Functions which compute the two together should override this, so
+	 * that a caller needing both pays for one evaluation.
+	 */
+	default double valueAndDerivativeAt(double[] x, double[] derivative) {
+		DoubleArrays.assign(derivative, derivativeAt(x));
+		return valueAt(x);
+	}
 }
@@ -1,10 +1,101 @@
 package nlp.math;
 
 import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
+ * Static operations on double arrays.
+ * <p/>
+ * The vector kernels (innerProduct, addMultiples, scale, multiply, add,
+ * subtract and pointwiseMultiply) can be spread over several threads with
+ * setNumThreads(), or over a caller's own pool with the overloads taking a
+ * ForkJoinPool (null meaning the calling thread). Arrays of at least
+ * PARALLEL_THRESHOLD elements are then cut into chunks of whole blocks, one
+ * per thread. The element-wise kernels
+ * give exactly the same results either way. innerProduct over such an array
+ * is always summed block by block, with four running sums per block, so it
+ * rounds the same on any number of threads.
  */
 public class DoubleArrays {
+
+	static final int BLOCK_SIZE = 1 << 13;
+
+	public static final int PARALLEL_THRESHOLD = 4 * BLOCK_SIZE;
+
+	private static int numThreads = 1;
+	private static volatile ForkJoinPool pool;
+
+	/**
+	 * Use this many threads for the vector kernels on large arrays (one, the
+	 * default, keeps everything on the calling thread). Kernels already
+	 * running finish on the old pool; one which picked up the old pool just
+	 * before it shut down runs on its calling thread instead.
+	 */
+	public static synchronized void setNumThreads(int numThreads) {
+		if (numThreads < 1)
+			throw new IllegalArgumentException("DoubleArrays: numThreads "
+					+ numThreads);
+		if (numThreads == DoubleArrays.numThreads)
+			return;
+		ForkJoinPool oldPool = pool;
+		pool = (numThreads > 1 ? new ForkJoinPool(numThreads) : null);
+		DoubleArrays.numThreads = numThreads;
+		if (oldPool != null)
+			oldPool.shutdown();
+	}
+
+	public static synchronized int getNumThreads() {
+		return numThreads;
+	}
+
+	private static ForkJoinPool parallelPool(ForkJoinPool pool, int length) {
+		return (length >= PARALLEL_THRESHOLD ? pool : null);
+	}
+
+	/**
+	 * A kernel over a range of positions, which invoke() runs over a whole
+	 * array in chunks of whole blocks on the pool's threads (or on the
+	 * calling thread, if the pool has been shut down meanwhile).
+	 */
+	private static abstract class RangeKernel {
+		abstract void apply(int begin, int end);
+
+		void invoke(ForkJoinPool pool, int length) {
+			try {
+				invokeChunks(pool, length);
+			} catch (RejectedExecutionException e) {
+				apply(0, length);
+			}
+		}
+
+		private void invokeChunks(ForkJoinPool pool, int length) {
+			int numBlocks = (length + BLOCK_SIZE - 1) / BLOCK_SIZE;
+			int numChunks = Math.min(pool.getParallelism(), numBlocks);
+			int chunkSize = BLOCK_SIZE * ((numBlocks + numChunks - 1) / numChunks);
+			final RecursiveAction[] chunks = new RecursiveAction[numChunks];
+			for (int c = 0; c < numChunks; c++) {
+				final int begin = Math.min(length, c * chunkSize);
+				final int end = Math.min(length, begin + chunkSize);
+				chunks[c] = new RecursiveAction() {
+					private static final long serialVersionUID = 1L;
+
+					protected void compute() {
+						apply(begin, end);
+					}
+				};
+			}
+			pool.invoke(new RecursiveAction() {
+				private static final long serialVersionUID = 1L;
+
+				protected void compute() {
+					invokeAll(chunks);
+				}
+			});
+		}
+	}
+
 	public static double[] clone(double[] x) {
 		double[] y = new double[x.length];
 		assign(y, x);
@@ -19,28 +110,115 @@ public class DoubleArrays {
 	}
 
 	public static double innerProduct(double[] x, double[] y) {
+		return innerProduct(pool, x, y);
+	}
+
+	/**
+	 * innerProduct() on the given pool's threads rather than the shared ones
+	 * (on the calling thread, if pool is null).
+	 */
+	public static double innerProduct(ForkJoinPool pool, final double[] x,
+			final double[] y) {
 		if (x.length != y.length)
 			throw new RuntimeException("diff lengths: " + x.length + " "
 					+ y.length);
+		if (x.length < PARALLEL_THRESHOLD) {
+			double result = 0.0;
+			for (int i = 0; i < x.length; i++) {
+				result += x[i] * y[i];
+			}
+			return result;
+		}
+		final double[] blockSums = new double[(x.length + BLOCK_SIZE - 1)
+				/ BLOCK_SIZE];
+		RangeKernel kernel = new RangeKernel() {
+			void apply(int begin, int end) {
+				for (int b = begin; b < end; b += BLOCK_SIZE) {
+					blockSums[b / BLOCK_SIZE] = blockInnerProduct(x, y, b, Math
+							.min(end, b + BLOCK_SIZE));
+				}
+			}
+		};
+		if (pool == null)
+			kernel.apply(0, x.length);
+		else
+			kernel.invoke(pool, x.length);
 		double result = 0.0;
-		for (int i = 0; i < x.length; i++) {
-			result += x[i] * y[i];
+		for (double blockSum : blockSums) {
+			result += blockSum;
 		}
 		return result;
 	}
 
+	/**
+	 * Four independent running sums, so consecutive multiply-adds don't wait
+	 * on each other.
+	 */
+	static double blockInnerProduct(double[] x, double[] y, int begin, int end) {
+		double sum0 = 0.0, sum1 = 0.0, sum2 = 0.0, sum3 = 0.0;
+		int i = begin;
+		for (; i + 3 < end; i += 4) {
+			sum0 += x[i] * y[i];
+			sum1 += x[i + 1] * y[i + 1];
+			sum2 += x[i + 2] * y[i + 2];
+			sum3 += x[i + 3] * y[i + 3];
+		}
+		for (; i < end; i++) {
+			sum0 += x[i] * y[i];
+		}
+		return (sum0 + sum1) + (sum2 + sum3);
+	}
+
 	public static double[] addMultiples(double[] x, double xMultiplier,
 			double[] y, double yMuliplier) {
-		if (x.length != y.length)
-			throw new RuntimeException("diff lengths: " + x.length + " "
-					+ y.length);
 		double[] z = new double[x.length];
-		for (int i = 0; i < z.length; i++) {
-			z[i] = x[i] * xMultiplier + y[i] * yMuliplier;
-		}
+		addMultiples(z, x, xMultiplier, y, yMuliplier);
 		return z;
 	}
 
+	/**
+	 * Writes x * xMultiplier + y * yMultiplier into z, which may be x or y
+	 * itself.
+	 */
+	public static void addMultiples(double[] z, double[] x,
+			double xMultiplier, double[] y, double yMultiplier) {
+		addMultiples(pool, z, x, xMultiplier, y, yMultiplier);
+	}
+
+	public static void addMultiples(ForkJoinPool pool, final double[] z,
+			final double[] x, final double xMultiplier, final double[] y,
+			final double yMultiplier) {
+		if (x.length != y.length || z.length != x.length)
+			throw new RuntimeException("diff lengths: " + z.length + " "
+					+ x.length + " " + y.length);
+		pool = parallelPool(pool, z.length);
+		if (pool == null) {
+			addMultiples(z, x, xMultiplier, y, yMultiplier, 0, z.length);
+			return;
+		}
+		new RangeKernel() {
+			void apply(int begin, int end) {
+				addMultiples(z, x, xMultiplier, y, yMultiplier, begin, end);
+			}
+		}.invoke(pool, z.length);
+	}
+
+	private static void addMultiples(double[] z, double[] x,
+			double xMultiplier, double[] y, double yMultiplier, int begin,
+			int end) {
+		for (int i = begin; i < end; i++) {
+			z[i] = x[i] * xMultiplier + y[i] * yMultiplier;
+		}
+	}
+
+	/**
+	 * x = x * xMultiplier + y * yMultiplier, in place.
+	 */
+	public static void addMultiplesInPlace(double[] x, double xMultiplier,
+			double[] y, double yMultiplier) {
+		addMultiples(x, x, xMultiplier, y, yMultiplier);
+	}
+
 	public static double[] constantArray(double c, int length) {
 		double[] x = new double[length];
 		Arrays.fill(x, c);
@@ -48,14 +226,41 @@ public class DoubleArrays {
 	}
 
 	public static double[] pointwiseMultiply(double[] x, double[] y) {
-		if (x.length != y.length)
-			throw new RuntimeException("diff lengths: " + x.length + " "
-					+ y.length);
 		double[] z = new double[x.length];
-		for (int i = 0; i < z.length; i++) {
+		pointwiseMultiply(z, x, y);
+		return z;
+	}
+
+	/**
+	 * Writes the pointwise product of x and y into z, which may be x or y
+	 * itself.
+	 */
+	public static void pointwiseMultiply(double[] z, double[] x, double[] y) {
+		pointwiseMultiply(pool, z, x, y);
+	}
+
+	public static void pointwiseMultiply(ForkJoinPool pool, final double[] z,
+			final double[] x, final double[] y) {
+		if (x.length != y.length || z.length != x.length)
+			throw new RuntimeException("diff lengths: " + z.length + " "
+					+ x.length + " " + y.length);
+		pool = parallelPool(pool, z.length);
+		if (pool == null) {
+			pointwiseMultiply(z, x, y, 0, z.length);
+			return;
+		}
+		new RangeKernel() {
+			void apply(int begin, int end) {
+				pointwiseMultiply(z, x, y, begin, end);
+			}
+		}.invoke(pool, z.length);
+	}
+
+	private static void pointwiseMultiply(double[] z, double[] x, double[] y,
+			int begin, int end) {
+		for (int i = begin; i < end; i++) {
 			z[i] = x[i] * y[i];
 		}
-		return z;
 	}
 
 	public static String toString(double[] x) {
@@ -77,21 +282,48 @@ public class DoubleArrays {
 	public static void scale(double[] x, double s) {
 		if (s == 1.0)
 			return;
-		for (int i = 0; i < x.length; i++) {
-			x[i] *= s;
-		}
+		multiply(x, x, s);
 	}
 
 	public static double[] multiply(double[] x, double s) {
 		double[] result = new double[x.length];
+		multiply(result, x, s);
+		return result;
+	}
+
+	/**
+	 * Writes x * s into result, which may be x itself.
+	 */
+	public static void multiply(double[] result, double[] x, double s) {
+		multiply(pool, result, x, s);
+	}
+
+	public static void multiply(ForkJoinPool pool, final double[] result,
+			final double[] x, final double s) {
+		if (result.length != x.length)
+			throw new RuntimeException("diff lengths: " + result.length + " "
+					+ x.length);
 		if (s == 1.0) {
 			System.arraycopy(x, 0, result, 0, x.length);
-			return result;
+			return;
 		}
-		for (int i = 0; i < x.length; i++) {
+		pool = parallelPool(pool, x.length);
+		if (pool == null) {
+			multiply(result, x, s, 0, x.length);
+			return;
+		}
+		new RangeKernel() {
+			void apply(int begin, int end) {
+				multiply(result, x, s, begin, end);
+			}
+		}.invoke(pool, x.length);
+	}
+
+	private static void multiply(double[] result, double[] x, double s,
+			int begin, int end) {
+		for (int i = begin; i < end; i++) {
 			result[i] = x[i] * s;
 		}
-		return result;
 	}
 
 	public static int argMax(double[] v) {
@@ -183,27 +415,65 @@ public class DoubleArrays {
 	}
 
 	public static double[] add(double[] x, double[] y) {
-		if (x.length != y.length)
-			throw new RuntimeException("diff lengths: " + x.length + " "
-					+ y.length);
 		double[] result = new double[x.length];
-		for (int i = 0; i < x.length; i++) {
-			result[i] = x[i] + y[i];
-		}
+		add(result, x, y);
 		return result;
 	}
 
+	/**
+	 * Writes x + y into result, which may be x or y itself.
+	 */
+	public static void add(double[] result, double[] x, double[] y) {
+		add(pool, result, x, y);
+	}
+
+	public static void add(ForkJoinPool pool, final double[] result,
+			final double[] x, final double[] y) {
+		if (x.length != y.length || result.length != x.length)
+			throw new RuntimeException("diff lengths: " + result.length + " "
+					+ x.length + " " + y.length);
+		pool = parallelPool(pool, x.length);
+		if (pool == null) {
+			addMultiples(result, x, 1.0, y, 1.0, 0, x.length);
+			return;
+		}
+		new RangeKernel() {
+			void apply(int begin, int end) {
+				addMultiples(result, x, 1.0, y, 1.0, begin, end);
+			}
+		}.invoke(pool, x.length);
+	}
+
 	public static double[] subtract(double[] x, double[] y) {
-		if (x.length != y.length)
-			throw new RuntimeException("diff lengths: " + x.length + " "
-					+ y.length);
 		double[] result = new double[x.length];
-		for (int i = 0; i < x.length; i++) {
-			result[i] = x[i] - y[i];
-		}
+		subtract(result, x, y);
 		return result;
 	}
 
+	/**
+	 * Writes x - y into result, which may be x or y itself.
+	 */
+	public static void subtract(double[] result, double[] x, double[] y) {
+		subtract(pool, result, x, y);
+	}
+
+	public static void subtract(ForkJoinPool pool, final double[] result,
+			final double[] x, final double[] y) {
+		if (x.length != y.length || result.length != x.length)
+			throw new RuntimeException("diff lengths: " + result.length + " "
+					+ x.length + " " + y.length);
+		pool = parallelPool(pool, x.length);
+		if (pool == null) {
+			addMultiples(result, x, 1.0, y, -1.0, 0, x.length);
+			return;
+		}
+		new RangeKernel() {
+			void apply(int begin, int end) {
+				addMultiples(result, x, 1.0, y, -1.0, begin, end);
+			}
+		}.invoke(pool, x.length);
+	}
+
 	public static double[] exponentiate(double[] pUnexponentiated) {
 		double[] exponentiated = new double[pUnexponentiated.length];
 		for (int index = 0; index < pUnexponentiated.length; index++) {
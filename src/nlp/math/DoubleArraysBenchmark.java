@@ -0,0 +1,213 @@
+package nlp.math;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import nlp.util.CommandLineUtils;
+
+/**
+ * Measures the throughput of the DoubleArrays vector kernels for a range of
+ * array sizes, on one thread and on the given number of threads. Each kernel
+ * is repeated until about the given time has passed, after a warm-up run of
+ * the same length. Run with
+ * <p/>
+ * java nlp.math.DoubleArraysBenchmark [-sizes 1000,100000,10000000]
+ * [-threads 4] [-seconds 0.5]
+ */
+public class DoubleArraysBenchmark {
+
+	static final String[] KERNELS = { "innerProduct", "addMultiples",
+			"multiply", "add", "subtract", "pointwiseMultiply" };
+
+	static double sink;
+
+	static void runKernel(String kernel, double[] x, double[] y, double[] z) {
+		if (kernel.equals("innerProduct"))
+			sink += DoubleArrays.innerProduct(x, y);
+		else if (kernel.equals("addMultiples"))
+			DoubleArrays.addMultiples(z, x, 0.5, y, -0.5);
+		else if (kernel.equals("multiply"))
+			// (scale() is multiply() in place)
+			DoubleArrays.multiply(z, x, 0.999);
+		else if (kernel.equals("add"))
+			DoubleArrays.add(z, x, y);
+		else if (kernel.equals("subtract"))
+			DoubleArrays.subtract(z, x, y);
+		else if (kernel.equals("pointwiseMultiply"))
+			DoubleArrays.pointwiseMultiply(z, x, y);
+	}
+
+	/**
+	 * Millions of elements per second. The clock is only read every batch of
+	 * about a million elements, so it doesn't dominate for small arrays.
+	 */
+	static double measure(String kernel, double[] x, double[] y, double[] z,
+			double seconds) {
+		int batch = Math.max(1, 1000000 / x.length);
+		double throughput = 0.0;
+		for (int round = 0; round < 2; round++) {
+			long repetitions = 0;
+			long start = System.nanoTime();
+			long elapsed;
+			do {
+				for (int b = 0; b < batch; b++) {
+					runKernel(kernel, x, y, z);
+				}
+				repetitions += batch;
+				elapsed = System.nanoTime() - start;
+			} while (elapsed < seconds * 1e9);
+			throughput = repetitions * (double) x.length / (elapsed / 1e9)
+					/ 1e6;
+		}
+		return throughput;
+	}
+
+	public static void main(String[] args) {
+		Map<String, String> argMap = CommandLineUtils
+				.simpleCommandLineParser(args);
+		String[] sizes = CommandLineUtils.getValueOrUseDefault(argMap,
+				"-sizes", "1000,100000,10000000").split(",");
+		int numThreads = Integer.parseInt(CommandLineUtils
+				.getValueOrUseDefault(argMap, "-threads", ""
+						+ Runtime.getRuntime().availableProcessors()));
+		double seconds = Double.parseDouble(CommandLineUtils
+				.getValueOrUseDefault(argMap, "-seconds", "0.5"));
+
+		System.out.printf("%-18s %10s %16s %16s\n", "kernel", "size",
+				"1 thread (M/s)", numThreads + " threads (M/s)");
+		Random random = new Random(0);
+		for (String sizeString : sizes) {
+			int size = Integer.parseInt(sizeString.trim());
+			double[] x = new double[size];
+			double[] y = new double[size];
+			double[] z = new double[size];
+			for (int i = 0; i < size; i++) {
+				x[i] = random.nextGaussian();
+				y[i] = random.nextGaussian();
+				z[i] = random.nextGaussian();
+			}
+			for (String kernel : KERNELS) {
+				DoubleArrays.setNumThreads(1);
+				double sequential = measure(kernel, x, y, z, seconds);
+				DoubleArrays.setNumThreads(numThreads);
+				double parallel = measure(kernel, x, y, z, seconds);
+				System.out.printf("%-18s %10d %16.1f %16.1f\n", kernel, size,
+						sequential, parallel);
+			}
+		}
+		DoubleArrays.setNumThreads(1);
+		checkPoolSwaps(numThreads);
+		checkMinimizerPools(numThreads);
+		// keep the inner products from being optimized away
+		if (sink == 42.0)
+			System.out.println(sink);
+	}
+
+	/**
+	 * Changes the number of threads over and over while other threads run
+	 * kernels; every kernel call must succeed with the same inner product.
+	 */
+	static void checkPoolSwaps(int numThreads) {
+		final double[] x = new double[DoubleArrays.PARALLEL_THRESHOLD * 2];
+		for (int i = 0; i < x.length; i++) {
+			x[i] = Math.sin(i);
+		}
+		final double expected = DoubleArrays.innerProduct(x, x);
+		final AtomicBoolean done = new AtomicBoolean();
+		final AtomicInteger calls = new AtomicInteger();
+		final AtomicInteger failures = new AtomicInteger();
+		Thread[] workers = new Thread[Math.max(2, numThreads)];
+		for (int t = 0; t < workers.length; t++) {
+			workers[t] = new Thread() {
+				public void run() {
+					while (!done.get()) {
+						try {
+							if (DoubleArrays.innerProduct(x, x) != expected)
+								failures.incrementAndGet();
+						} catch (RuntimeException e) {
+							failures.incrementAndGet();
+						}
+						calls.incrementAndGet();
+					}
+				}
+			};
+			workers[t].start();
+		}
+		for (int swap = 0; swap < 2000; swap++) {
+			DoubleArrays.setNumThreads(1 + swap % Math.max(2, numThreads));
+		}
+		done.set(true);
+		for (Thread worker : workers) {
+			try {
+				worker.join();
+			} catch (InterruptedException e) {
+				throw new RuntimeException(e);
+			}
+		}
+		DoubleArrays.setNumThreads(1);
+		System.out.printf(
+				"Pool swaps: %d kernel calls during 2000 swaps, %d failed\n",
+				calls.get(), failures.get());
+	}
+
+	/**
+	 * Runs two threaded LBFGS minimizations at once, each on its own pool;
+	 * both must match a minimization on one thread, and leave the shared
+	 * DoubleArrays setting alone.
+	 */
+	static void checkMinimizerPools(final int numThreads) {
+		final int dimension = DoubleArrays.PARALLEL_THRESHOLD * 2;
+		final DifferentiableFunction quadratic = new DifferentiableFunction() {
+			public int dimension() {
+				return dimension;
+			}
+
+			public double valueAt(double[] x) {
+				double value = 0.0;
+				for (int i = 0; i < dimension; i++) {
+					double d = x[i] - Math.sin(i);
+					value += (1.0 + i % 7) * d * d;
+				}
+				return value;
+			}
+
+			public double[] derivativeAt(double[] x) {
+				double[] derivative = new double[dimension];
+				for (int i = 0; i < dimension; i++) {
+					derivative[i] = 2.0 * (1.0 + i % 7) * (x[i] - Math.sin(i));
+				}
+				return derivative;
+			}
+		};
+		final double[] expected = new LBFGSMinimizer(10).minimize(quadratic,
+				new double[dimension], 1e-10, false);
+		final AtomicInteger mismatches = new AtomicInteger();
+		Thread[] runs = new Thread[2];
+		for (int t = 0; t < runs.length; t++) {
+			runs[t] = new Thread() {
+				public void run() {
+					LBFGSMinimizer minimizer = new LBFGSMinimizer(10);
+					minimizer.setNumThreads(Math.max(2, numThreads));
+					double[] minimum = minimizer.minimize(quadratic,
+							new double[dimension], 1e-10, false);
+					if (!Arrays.equals(minimum, expected))
+						mismatches.incrementAndGet();
+				}
+			};
+			runs[t].start();
+		}
+		for (Thread run : runs) {
+			try {
+				run.join();
+			} catch (InterruptedException e) {
+				throw new RuntimeException(e);
+			}
+		}
+		System.out.printf(
+				"Minimizer pools: %d of %d concurrent runs differed, shared threads %d\n",
+				mismatches.get(), runs.length, DoubleArrays.getNumThreads());
+	}
+}
@@ -3,4 +3,13 @@ package nlp.math;
 public interface GradientMinimizer {
 	double[] minimize(DifferentiableFunction function, double[] initial,
 			double tolerance);
+
+	/**
+	 * As above, printing progress only if printProgress is set; minimizers
+	 * which print nothing can leave this alone.
+	 */
+	default double[] minimize(DifferentiableFunction function,
+			double[] initial, double tolerance, boolean printProgress) {
+		return minimize(function, initial, tolerance);
+	}
 }
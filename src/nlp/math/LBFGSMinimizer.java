@@ -1,19 +1,62 @@
 package nlp.math;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.io.Serializable;
-import java.util.LinkedList;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
 
+/**
+ * Limited-memory BFGS. All working vectors, including the history of the
+ * last maxHistorySize steps (a ring whose oldest entry is overwritten), are
+ * allocated on the first call and reused, so an iteration creates no arrays
+ * of the problem's dimension. Since the points passed to the function live
+ * in these reused buffers, a function which caches its value by point must
+ * copy the point rather than keep a reference to it.
+ * <p/>
+ * Steps are chosen by a strong Wolfe line search, and the function is only
+ * ever asked for its value and derivative together, once per point: each
+ * iteration costs exactly one evaluation per step length tried.
+ * <p/>
+ * With setCheckpoint(), the current point and the history are written to a
+ * file every so many iterations, and resume() carries on from such a file,
+ * so a long run which dies loses at most that many iterations. The file is
+ * deleted once the minimization finishes, and only resumes a run with the
+ * same settings.
+ */
 public class LBFGSMinimizer implements GradientMinimizer, Serializable {
-	private static final long serialVersionUID = 36473897808840226L;
+	private static final long serialVersionUID = 36473897808840227L;
 	double EPS = 1e-10;
 	int maxIterations = 20;
 	int maxHistorySize = 5;
-	LinkedList<double[]> inputDifferenceVectorList = new LinkedList<double[]>();
-	LinkedList<double[]> derivativeDifferenceVectorList = new LinkedList<double[]>();
+	// the working state of a minimization, reallocated by the next one
+	transient double[][] inputDifferences;
+	transient double[][] derivativeDifferences;
+	transient int newestHistory;
+	transient int historySize;
+	transient double[] rho;
+	transient double[] alpha;
+	transient double[] guessBuffer;
+	transient double[] nextGuessBuffer;
+	transient double[] derivativeBuffer;
+	transient double[] nextDerivativeBuffer;
+	transient double[] direction;
+	transient StrongWolfeLineSearcher lineSearcher;
 	transient IterationCallbackFunction iterCallbackFunction = null;
+	transient OptimizerTelemetry telemetry;
+	File checkpointFile;
+	int checkpointInterval;
+	long objectiveFingerprint;
 	int minIterations = -1;
-	double initialStepSizeMultiplier = 0.01;
-	double stepSizeMultiplier = 0.5;
+	int numThreads = 1;
+	// the vector kernels' threads while minimizing (null: the calling thread)
+	transient ForkJoinPool pool;
 
 	public static interface IterationCallbackFunction {
 		public void iterationDone(double[] curGuess, int iter);
@@ -27,12 +70,51 @@ public class LBFGSMinimizer implements GradientMinimizer, Serializable {
 		this.maxIterations = maxIterations;
 	}
 
+	/**
+	 * @deprecated the strong Wolfe line search interpolates its steps rather
+	 *             than shrinking them by a constant factor, so this does
+	 *             nothing; see getLineSearcher().
+	 */
+	@Deprecated
 	public void setInitialStepSizeMultiplier(double initialStepSizeMultiplier) {
-		this.initialStepSizeMultiplier = initialStepSizeMultiplier;
 	}
 
+	/**
+	 * @deprecated as setInitialStepSizeMultiplier().
+	 */
+	@Deprecated
 	public void setStepSizeMultiplier(double stepSizeMultiplier) {
-		this.stepSizeMultiplier = stepSizeMultiplier;
+	}
+
+	/**
+	 * The line search, e.g. to change its Wolfe constants.
+	 */
+	public StrongWolfeLineSearcher getLineSearcher() {
+		if (lineSearcher == null)
+			lineSearcher = new StrongWolfeLineSearcher();
+		return lineSearcher;
+	}
+
+	/**
+	 * Records each iteration of subsequent minimizations into telemetry
+	 * (null to stop recording).
+	 */
+	public void setTelemetry(OptimizerTelemetry telemetry) {
+		this.telemetry = telemetry;
+	}
+
+	public OptimizerTelemetry getTelemetry() {
+		return telemetry;
+	}
+
+	/**
+	 * Runs the vector kernels on this many threads of a pool of this
+	 * minimizer's own while minimizing, which pays off once the dimension
+	 * reaches DoubleArrays.PARALLEL_THRESHOLD. The pool is shut down when
+	 * the minimization ends; DoubleArrays.setNumThreads() is not touched.
+	 */
+	public void setNumThreads(int numThreads) {
+		this.numThreads = numThreads;
 	}
 
 	public double[] minimize(DifferentiableFunction function, double[] initial,
@@ -42,50 +124,142 @@ public class LBFGSMinimizer implements GradientMinimizer, Serializable {
 
 	public double[] minimize(DifferentiableFunction function, double[] initial,
 			double tolerance, boolean printProgress) {
-		BacktrackingLineSearcher lineSearcher = new BacktrackingLineSearcher();
-		double[] guess = DoubleArrays.clone(initial);
-		for (int iteration = 0; iteration < maxIterations; iteration++) {
-			double value = function.valueAt(guess);
-			double[] derivative = function.derivativeAt(guess);
-			double[] initialInverseHessianDiagonal = getInitialInverseHessianDiagonal(function);
-			double[] direction = implicitMultiply(
-					initialInverseHessianDiagonal, derivative);
-			// System.out.println(" Derivative is: "+DoubleArrays.toString(derivative,
-			// 100));
-			// DoubleArrays.assign(direction, derivative);
-			DoubleArrays.scale(direction, -1.0);
-			// System.out.println(" Looking in direction: "+DoubleArrays.toString(direction,
-			// 100));
-			if (iteration == 0)
-				lineSearcher.stepSizeMultiplier = initialStepSizeMultiplier;
-			else
-				lineSearcher.stepSizeMultiplier = stepSizeMultiplier;
-			double[] nextGuess = lineSearcher.minimize(function, guess,
+		ensureBuffers(initial.length);
+		DoubleArrays.assign(guessBuffer, initial);
+		return minimizeWithThreads(function, 0, tolerance, printProgress);
+	}
+
+	/**
+	 * Carries on the minimization saved in a checkpoint file, from the
+	 * iteration after the one it was written at, until maxIterations. Only
+	 * the point and the history are saved, so the point is evaluated afresh.
+	 */
+	public double[] resume(DifferentiableFunction function, File checkpoint,
+			double tolerance, boolean printProgress) throws IOException {
+		int iteration = readCheckpoint(checkpoint);
+		if (printProgress) {
+			System.out
+					.printf("[LBFGSMinimizer.resume] Resuming at iteration %d from %s\n",
+							iteration, checkpoint);
+		}
+		return minimizeWithThreads(function, iteration, tolerance,
+				printProgress);
+	}
+
+	private double[] minimizeWithThreads(DifferentiableFunction function,
+			int firstIteration, double tolerance, boolean printProgress) {
+		double[] minimum;
+		if (numThreads > 1
+				&& guessBuffer.length >= DoubleArrays.PARALLEL_THRESHOLD)
+			pool = new ForkJoinPool(numThreads);
+		getLineSearcher().pool = pool;
+		try {
+			minimum = minimize(function, firstIteration, tolerance,
+					printProgress);
+		} finally {
+			if (pool != null)
+				pool.shutdown();
+			pool = null;
+			lineSearcher.pool = null;
+		}
+		// a finished run must not be resumed
+		if (checkpointFile != null && checkpointFile.exists()
+				&& !checkpointFile.delete())
+			System.err.println("LBFGSMinimizer: cannot delete checkpoint "
+					+ checkpointFile);
+		return minimum;
+	}
+
+	/**
+	 * Runs iterations firstIteration to maxIterations - 1 from the point in
+	 * guessBuffer, with whatever history the buffers hold.
+	 */
+	double[] minimize(DifferentiableFunction function, int firstIteration,
+			double tolerance, boolean printProgress) {
+		StrongWolfeLineSearcher lineSearcher = getLineSearcher();
+		double[] guess = guessBuffer;
+		double[] nextGuess = nextGuessBuffer;
+		double[] derivative = derivativeBuffer;
+		double[] nextDerivative = nextDerivativeBuffer;
+		if (telemetry != null) {
+			telemetry.start();
+			function = telemetry.instrument(function);
+		}
+		double value = function.valueAndDerivativeAt(guess, derivative);
+		for (int iteration = firstIteration; iteration < maxIterations; iteration++) {
+			implicitMultiply(getInitialInverseHessianScale(), derivative,
 					direction);
-			double nextValue = function.valueAt(nextGuess);
-			double[] nextDerivative = function.derivativeAt(nextGuess);
+			DoubleArrays.multiply(pool, direction, direction, -1.0);
+			if (DoubleArrays.innerProduct(pool, direction, derivative)
+					>= 0.0) {
+				// the history no longer describes the curvature here, so
+				// start it again from steepest descent
+				historySize = 0;
+				DoubleArrays.multiply(pool, direction, derivative, -1.0);
+			}
+			double initialStepSize = 1.0;
+			if (historySize() == 0) {
+				// a steepest descent step has no natural scale
+				initialStepSize = Math.min(1.0, 1.0 / DoubleArrays
+						.vectorLength(derivative));
+			}
+			double nextValue = lineSearcher.minimize(function, guess, value,
+					derivative, direction, initialStepSize, nextGuess,
+					nextDerivative);
 			if (printProgress) {
 				System.out
 						.printf("[LBFGSMinimizer.minimize] Iteration %d ended with value %.6f\n",
 								iteration, nextValue);
 			}
+			if (telemetry != null) {
+				telemetry.endIteration(iteration, nextValue, DoubleArrays
+						.vectorLength(nextDerivative), lineSearcher
+						.getLastStepSize(), lineSearcher.getLastNumEvaluations());
+			}
 
 			if (iteration >= minIterations
 					&& converged(value, nextValue, tolerance))
-				return nextGuess;
+				return DoubleArrays.clone(nextGuess);
 			updateHistories(guess, nextGuess, derivative, nextDerivative);
+			double[] swap = guess;
 			guess = nextGuess;
-			value = nextValue;
+			nextGuess = swap;
+			swap = derivative;
 			derivative = nextDerivative;
+			nextDerivative = swap;
+			value = nextValue;
 			if (iterCallbackFunction != null) {
 				iterCallbackFunction.iterationDone(guess, iteration);
 			}
+			checkpoint(guess, iteration);
 		}
 		// System.err.println("LBFGSMinimizer.minimize: Exceeded maxIterations without converging.");
-		return guess;
+		return DoubleArrays.clone(guess);
+	}
+
+	/**
+	 * Allocates the working vectors and the history ring, unless the ones
+	 * left by a previous call fit (in which case its history is kept, as it
+	 * always has been).
+	 */
+	void ensureBuffers(int dimension) {
+		if (guessBuffer != null && guessBuffer.length == dimension
+				&& inputDifferences.length == maxHistorySize)
+			return;
+		guessBuffer = new double[dimension];
+		nextGuessBuffer = new double[dimension];
+		derivativeBuffer = new double[dimension];
+		nextDerivativeBuffer = new double[dimension];
+		direction = new double[dimension];
+		inputDifferences = new double[maxHistorySize][];
+		derivativeDifferences = new double[maxHistorySize][];
+		rho = new double[maxHistorySize];
+		alpha = new double[maxHistorySize];
+		newestHistory = -1;
+		historySize = 0;
 	}
 
-	private boolean converged(double value, double nextValue, double tolerance) {
+	boolean converged(double value, double nextValue, double tolerance) {
 		if (value == nextValue)
 			return true;
 		double valueChange = SloppyMath.abs(nextValue - value);
@@ -95,92 +269,266 @@ public class LBFGSMinimizer implements GradientMinimizer, Serializable {
 		return false;
 	}
 
-	private void updateHistories(double[] guess, double[] nextGuess,
+	/**
+	 * Writes the new differences over the oldest entry of the ring once it
+	 * is full.
+	 */
+	void updateHistories(double[] guess, double[] nextGuess,
 			double[] derivative, double[] nextDerivative) {
-		double[] guessChange = DoubleArrays.addMultiples(nextGuess, 1.0, guess,
-				-1.0);
-		double[] derivativeChange = DoubleArrays.addMultiples(nextDerivative,
-				1.0, derivative, -1.0);
-		pushOntoList(guessChange, inputDifferenceVectorList);
-		pushOntoList(derivativeChange, derivativeDifferenceVectorList);
-	}
-
-	private void pushOntoList(double[] vector, LinkedList<double[]> vectorList) {
-		vectorList.addFirst(vector);
-		if (vectorList.size() > maxHistorySize)
-			vectorList.removeLast();
+		if (maxHistorySize == 0)
+			return;
+		newestHistory = (newestHistory + 1) % maxHistorySize;
+		if (inputDifferences[newestHistory] == null) {
+			inputDifferences[newestHistory] = new double[guess.length];
+			derivativeDifferences[newestHistory] = new double[guess.length];
+		}
+		DoubleArrays.addMultiples(pool, inputDifferences[newestHistory],
+				nextGuess, 1.0, guess, -1.0);
+		DoubleArrays.addMultiples(pool, derivativeDifferences[newestHistory],
+				nextDerivative, 1.0, derivative, -1.0);
+		if (historySize < maxHistorySize)
+			historySize++;
 	}
 
-	private int historySize() {
-		return inputDifferenceVectorList.size();
+	int historySize() {
+		return historySize;
 	}
 
 	public void setMaxHistorySize(int maxHistorySize) {
 		this.maxHistorySize = maxHistorySize;
 	}
 
-	private double[] getInputDifference(int num) {
+	private int historySlot(int num) {
 		// 0 is previous, 1 is the one before that
-		return inputDifferenceVectorList.get(num);
-	}
-
-	private double[] getDerivativeDifference(int num) {
-		return derivativeDifferenceVectorList.get(num);
+		return (newestHistory - num + maxHistorySize) % maxHistorySize;
 	}
 
-	private double[] getLastDerivativeDifference() {
-		return derivativeDifferenceVectorList.getFirst();
+	private double[] getInputDifference(int num) {
+		return inputDifferences[historySlot(num)];
 	}
 
-	private double[] getLastInputDifference() {
-		return inputDifferenceVectorList.getFirst();
+	private double[] getDerivativeDifference(int num) {
+		return derivativeDifferences[historySlot(num)];
 	}
 
-	private double[] implicitMultiply(double[] initialInverseHessianDiagonal,
-			double[] derivative) {
-		double[] rho = new double[historySize()];
-		double[] alpha = new double[historySize()];
-		double[] right = DoubleArrays.clone(derivative);
+	/**
+	 * The two-loop recursion, computed in place in result.
+	 */
+	void implicitMultiply(double initialInverseHessianScale,
+			double[] derivative, double[] result) {
+		DoubleArrays.assign(result, derivative);
 		// loop last backward
 		for (int i = historySize() - 1; i >= 0; i--) {
 			double[] inputDifference = getInputDifference(i);
 			double[] derivativeDifference = getDerivativeDifference(i);
-			rho[i] = DoubleArrays.innerProduct(inputDifference,
+			rho[i] = DoubleArrays.innerProduct(pool, inputDifference,
 					derivativeDifference);
 			if (rho[i] == 0.0)
 				throw new RuntimeException(
 						"LBFGSMinimizer.implicitMultiply: Curvature problem.");
-			alpha[i] = DoubleArrays.innerProduct(inputDifference, right)
+			alpha[i] = DoubleArrays.innerProduct(pool, inputDifference,
+					result)
 					/ rho[i];
-			right = DoubleArrays.addMultiples(right, 1.0, derivativeDifference,
-					-1.0 * alpha[i]);
+			DoubleArrays.addMultiples(pool, result, result, 1.0,
+					derivativeDifference, -1.0 * alpha[i]);
 		}
-		double[] left = DoubleArrays.pointwiseMultiply(
-				initialInverseHessianDiagonal, right);
+		// the initial inverse Hessian is a multiple of the identity
+		DoubleArrays.multiply(pool, result, result,
+				initialInverseHessianScale);
 		for (int i = 0; i < historySize(); i++) {
 			double[] inputDifference = getInputDifference(i);
 			double[] derivativeDifference = getDerivativeDifference(i);
-			double beta = DoubleArrays.innerProduct(derivativeDifference, left)
+			double beta = DoubleArrays.innerProduct(pool,
+					derivativeDifference, result)
 					/ rho[i];
-			left = DoubleArrays.addMultiples(left, 1.0, inputDifference,
-					alpha[i] - beta);
+			DoubleArrays.addMultiples(pool, result, result, 1.0,
+					inputDifference, alpha[i] - beta);
 		}
-		return left;
 	}
 
-	private double[] getInitialInverseHessianDiagonal(
-			DifferentiableFunction function) {
+	double getInitialInverseHessianScale() {
 		double scale = 1.0;
-		if (derivativeDifferenceVectorList.size() >= 1) {
-			double[] lastDerivativeDifference = getLastDerivativeDifference();
-			double[] lastInputDifference = getLastInputDifference();
-			double num = DoubleArrays.innerProduct(lastDerivativeDifference,
-					lastInputDifference);
-			double den = DoubleArrays.innerProduct(lastDerivativeDifference,
-					lastDerivativeDifference);
+		if (historySize() >= 1) {
+			double[] lastDerivativeDifference = getDerivativeDifference(0);
+			double[] lastInputDifference = getInputDifference(0);
+			double num = DoubleArrays.innerProduct(pool,
+					lastDerivativeDifference, lastInputDifference);
+			double den = DoubleArrays.innerProduct(pool,
+					lastDerivativeDifference, lastDerivativeDifference);
 			scale = num / den;
 		}
-		return DoubleArrays.constantArray(scale, function.dimension());
+		return scale;
+	}
+
+	/**
+	 * Writes the point and history to file after every interval iterations
+	 * (null to stop). Each checkpoint replaces the last one atomically, so a
+	 * crash while writing leaves the previous one intact.
+	 */
+	public void setCheckpoint(File file, int interval) {
+		setCheckpoint(file, interval, 0L);
+	}
+
+	/**
+	 * As above, for an objective identified by objectiveFingerprint (e.g. a
+	 * hash of its data and parameters): a checkpoint written for another
+	 * fingerprint, or by a minimizer with other settings, won't be resumed.
+	 */
+	public void setCheckpoint(File file, int interval, long objectiveFingerprint) {
+		this.checkpointFile = file;
+		this.checkpointInterval = interval;
+		this.objectiveFingerprint = objectiveFingerprint;
+	}
+
+	/**
+	 * Identifies the settings which determine where minimization goes, for
+	 * the checkpoint header; subclasses with more settings mix them in.
+	 */
+	long getSettingsFingerprint() {
+		return getClass().getName().hashCode();
+	}
+
+	private long getCheckpointFingerprint() {
+		return getSettingsFingerprint() * 0x9E3779B97F4A7C15L
+				+ objectiveFingerprint;
+	}
+
+	/**
+	 * Called at the end of each iteration, with the point it ended on.
+	 * Failing to write a checkpoint, for whatever reason, is reported but
+	 * doesn't stop the run.
+	 */
+	void checkpoint(double[] guess, int iteration) {
+		if (checkpointFile == null || (iteration + 1) % checkpointInterval != 0)
+			return;
+		try {
+			writeCheckpoint(checkpointFile, guess, iteration + 1);
+		} catch (IOException e) {
+			System.err.println("LBFGSMinimizer.checkpoint: " + e);
+		} catch (RuntimeException e) {
+			System.err.println("LBFGSMinimizer.checkpoint: " + e);
+		}
+	}
+
+	private static final int CHECKPOINT_MAGIC = 0x4C42464B;
+	private static final int CHECKPOINT_VERSION = 2;
+	// magic, version, dimension, history size, next iteration, padding,
+	// fingerprint
+	private static final int CHECKPOINT_HEADER_BYTES = 32;
+	// a mapping can't exceed Integer.MAX_VALUE bytes, so longer vectors are
+	// mapped in pieces of this many doubles
+	static int maxMappedDoubles = Integer.MAX_VALUE / 8;
+
+	/**
+	 * The header, then the point, then the input and derivative differences
+	 * from oldest to newest. The vectors are written through memory
+	 * mappings, one per vector or per maxMappedDoubles of a longer one, so
+	 * even models whose checkpoints run to gigabytes go straight from the
+	 * arrays to the page cache.
+	 */
+	void writeCheckpoint(File file, double[] guess, int nextIteration)
+			throws IOException {
+		File temporary = new File(file.getPath() + ".tmp");
+		RandomAccessFile raf = new RandomAccessFile(temporary, "rw");
+		try {
+			FileChannel channel = raf.getChannel();
+			raf.setLength(CHECKPOINT_HEADER_BYTES + 8L * guess.length
+					* (1 + 2 * historySize));
+			ByteBuffer header = ByteBuffer.allocate(CHECKPOINT_HEADER_BYTES);
+			header.putInt(CHECKPOINT_MAGIC).putInt(CHECKPOINT_VERSION).putInt(
+					guess.length).putInt(historySize).putInt(nextIteration)
+					.putInt(0).putLong(getCheckpointFingerprint());
+			header.clear();
+			channel.write(header, 0);
+			long offset = writeVector(channel, CHECKPOINT_HEADER_BYTES, guess);
+			for (int i = historySize - 1; i >= 0; i--) {
+				offset = writeVector(channel, offset, getInputDifference(i));
+				offset = writeVector(channel, offset,
+						getDerivativeDifference(i));
+			}
+			channel.force(true);
+		} finally {
+			raf.close();
+		}
+		Files.move(temporary.toPath(), file.toPath(),
+				StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private static long writeVector(FileChannel channel, long offset,
+			double[] vector) throws IOException {
+		for (int begin = 0; begin < vector.length; begin += maxMappedDoubles) {
+			int length = Math.min(maxMappedDoubles, vector.length - begin);
+			MappedByteBuffer buffer = channel.map(
+					FileChannel.MapMode.READ_WRITE, offset + 8L * begin,
+					8L * length);
+			buffer.asDoubleBuffer().put(vector, begin, length);
+			buffer.force();
+		}
+		return offset + 8L * vector.length;
+	}
+
+	/**
+	 * Loads a checkpoint into guessBuffer and the history, keeping only the
+	 * newest entries if maxHistorySize has shrunk since, and returns the
+	 * iteration to carry on from. A checkpoint of another minimization is
+	 * rejected before anything is loaded.
+	 */
+	int readCheckpoint(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			ByteBuffer header = ByteBuffer.allocate(CHECKPOINT_HEADER_BYTES);
+			channel.read(header, 0);
+			header.flip();
+			if (header.remaining() < CHECKPOINT_HEADER_BYTES
+					|| header.getInt() != CHECKPOINT_MAGIC
+					|| header.getInt() != CHECKPOINT_VERSION)
+				throw new IOException(
+						"LBFGSMinimizer.readCheckpoint: not a checkpoint: " + file);
+			int dimension = header.getInt();
+			int savedHistorySize = header.getInt();
+			int nextIteration = header.getInt();
+			header.getInt();
+			if (header.getLong() != getCheckpointFingerprint())
+				throw new IOException(
+						"LBFGSMinimizer.readCheckpoint: checkpoint of a different objective or minimizer: "
+								+ file);
+			if (raf.length() != CHECKPOINT_HEADER_BYTES + 8L * dimension
+					* (1 + 2 * savedHistorySize))
+				throw new IOException(
+						"LBFGSMinimizer.readCheckpoint: truncated checkpoint: "
+								+ file);
+			ensureBuffers(dimension);
+			long offset = readVector(channel, CHECKPOINT_HEADER_BYTES,
+					guessBuffer);
+			int skipped = Math.max(0, savedHistorySize - maxHistorySize);
+			offset += 16L * dimension * skipped;
+			historySize = savedHistorySize - skipped;
+			for (int slot = 0; slot < historySize; slot++) {
+				if (inputDifferences[slot] == null) {
+					inputDifferences[slot] = new double[dimension];
+					derivativeDifferences[slot] = new double[dimension];
+				}
+				offset = readVector(channel, offset, inputDifferences[slot]);
+				offset = readVector(channel, offset,
+						derivativeDifferences[slot]);
+			}
+			newestHistory = historySize - 1;
+			return nextIteration;
+		} finally {
+			raf.close();
+		}
+	}
+
+	private static long readVector(FileChannel channel, long offset,
+			double[] vector) throws IOException {
+		for (int begin = 0; begin < vector.length; begin += maxMappedDoubles) {
+			int length = Math.min(maxMappedDoubles, vector.length - begin);
+			channel.map(FileChannel.MapMode.READ_ONLY, offset + 8L * begin,
+					8L * length).asDoubleBuffer().get(vector, begin, length);
+		}
+		return offset + 8L * vector.length;
 	}
 
 	public void setIterationCallbackFunction(
@@ -195,4 +543,55 @@ public class LBFGSMinimizer implements GradientMinimizer, Serializable {
 		this.maxIterations = maxIterations;
 	}
 
+	public static void main(String[] args) throws IOException {
+		// a checkpoint whose vectors are mapped in several pieces, the last
+		// one short, must read back exactly
+		final int dimension = 10007;
+		DifferentiableFunction quadratic = new DifferentiableFunction() {
+			public int dimension() {
+				return dimension;
+			}
+
+			public double valueAt(double[] x) {
+				double value = 0.0;
+				for (int i = 0; i < dimension; i++) {
+					double d = x[i] - Math.sin(i);
+					value += (1.0 + i % 5) * d * d;
+				}
+				return value;
+			}
+
+			public double[] derivativeAt(double[] x) {
+				double[] derivative = new double[dimension];
+				for (int i = 0; i < dimension; i++) {
+					derivative[i] = 2.0 * (1.0 + i % 5) * (x[i] - Math.sin(i));
+				}
+				return derivative;
+			}
+		};
+		File file = File.createTempFile("lbfgs", ".checkpoint");
+		maxMappedDoubles = 1000;
+		try {
+			LBFGSMinimizer written = new LBFGSMinimizer(3);
+			written.minimize(quadratic, new double[dimension], 1e-10, false);
+			written.writeCheckpoint(file, written.guessBuffer, 3);
+			LBFGSMinimizer read = new LBFGSMinimizer(3);
+			read.readCheckpoint(file);
+			boolean same = Arrays.equals(read.guessBuffer, written.guessBuffer)
+					&& read.historySize == written.historySize;
+			for (int i = 0; same && i < read.historySize; i++) {
+				same = Arrays.equals(read.getInputDifference(i), written
+						.getInputDifference(i))
+						&& Arrays.equals(read.getDerivativeDifference(i),
+								written.getDerivativeDifference(i));
+			}
+			System.out.printf(
+					"Checkpoint of dimension %d in pieces of %d: history %d, %s\n",
+					dimension, maxMappedDoubles, read.historySize,
+					same ? "read back exactly" : "MISMATCH");
+		} finally {
+			maxMappedDoubles = Integer.MAX_VALUE / 8;
+			file.delete();
+		}
+	}
 }
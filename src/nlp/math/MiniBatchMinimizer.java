@@ -0,0 +1,199 @@
+package nlp.math;
+
+import java.util.Random;
+
+/**
+ * Base class for first order minimizers which step after each mini-batch
+ * instead of after each full pass. Each epoch visits the items of a
+ * StochasticDifferentiableFunction once in a fresh random order, in batches
+ * of batchSize items; the batch gradient is divided by the number of items in
+ * the batch and handed to update(). The sum of the batch values over an epoch
+ * is used as that epoch's value for the convergence test. Functions which
+ * can't be evaluated on subsets are treated as a single batch.
+ * <p/>
+ * For a SparseStochasticDifferentiableFunction, only the coordinates a batch
+ * touches are updated. The L2 penalty on every other coordinate is owed,
+ * not applied: when a coordinate is next touched, its gradient is charged
+ * the penalty of every batch since it was last updated, and at the end of
+ * each epoch all coordinates settle what they still owe. Each batch then
+ * costs time in proportion to the features it activates rather than to the
+ * dimension; the price is that a rarely touched weight shrinks in
+ * occasional large steps rather than a little after every batch.
+ */
+public abstract class MiniBatchMinimizer implements GradientMinimizer {
+	double EPS = 1e-10;
+	int maxEpochs = 20;
+	int minEpochs = -1;
+	int batchSize = 100;
+	long seed = 0;
+
+	public void setMaxEpochs(int maxEpochs) {
+		this.maxEpochs = maxEpochs;
+	}
+
+	public void setMinEpochs(int minEpochs) {
+		this.minEpochs = minEpochs;
+	}
+
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+	/**
+	 * Called once before the first update of a minimization.
+	 */
+	protected abstract void initialize(int dimension);
+
+	/**
+	 * Moves x in place against the (per item) batch gradient, which is zero
+	 * except at coordinates[0] ... coordinates[numCoordinates - 1].
+	 */
+	protected abstract void update(double[] x, double[] gradient,
+			int[] coordinates, int numCoordinates);
+
+	public double[] minimize(DifferentiableFunction function, double[] initial,
+			double tolerance) {
+		return minimize(function, initial, tolerance, true);
+	}
+
+	public double[] minimize(DifferentiableFunction function, double[] initial,
+			double tolerance, boolean printProgress) {
+		int dimension = function.dimension();
+		double[] guess = DoubleArrays.clone(initial);
+		initialize(dimension);
+		StochasticDifferentiableFunction stochasticFunction = null;
+		int[] items = null;
+		if (function instanceof StochasticDifferentiableFunction) {
+			stochasticFunction = (StochasticDifferentiableFunction) function;
+			items = new int[stochasticFunction.numItems()];
+			for (int i = 0; i < items.length; i++) {
+				items[i] = i;
+			}
+		}
+		SparseStochasticDifferentiableFunction sparseFunction = null;
+		SparseGradient sparseGradient = null;
+		int[] lastUpdates = null;
+		if (function instanceof SparseStochasticDifferentiableFunction) {
+			sparseFunction = (SparseStochasticDifferentiableFunction) function;
+			sparseGradient = new SparseGradient(dimension);
+			lastUpdates = new int[dimension];
+		}
+		// the dense gradient; for a sparse function, scratch for settling
+		// the penalty, with the coordinates that owe it
+		double[] gradient = new double[dimension];
+		int[] allCoordinates = new int[dimension];
+		for (int i = 0; i < dimension; i++) {
+			allCoordinates[i] = i;
+		}
+		Random random = new Random(seed);
+		double lastValue = Double.NaN;
+		for (int epoch = 0; epoch < maxEpochs; epoch++) {
+			double value = 0.0;
+			if (stochasticFunction == null) {
+				value = function.valueAndDerivativeAt(guess, gradient);
+				update(guess, gradient, allCoordinates, dimension);
+			} else if (sparseFunction == null) {
+				shuffle(items, random);
+				for (int begin = 0; begin < items.length; begin += batchSize) {
+					int end = Math.min(items.length, begin + batchSize);
+					value += stochasticFunction.calculateBatch(guess, items,
+							begin, end, gradient);
+					DoubleArrays.scale(gradient, 1.0 / (end - begin));
+					update(guess, gradient, allCoordinates, dimension);
+				}
+			} else {
+				value = sparseEpoch(sparseFunction, guess, items, random,
+						sparseGradient, lastUpdates, gradient, allCoordinates);
+			}
+			if (printProgress) {
+				System.out.printf("[%s.minimize] Epoch %d ended with value %.6f\n",
+						getClass().getSimpleName(), epoch, value);
+			}
+			if (epoch > 0 && epoch >= minEpochs
+					&& converged(lastValue, value, tolerance))
+				break;
+			lastValue = value;
+		}
+		return guess;
+	}
+
+	/**
+	 * One epoch over a sparse function, updating each batch's coordinates
+	 * only and settling the owed penalty at the end. lastUpdates holds the
+	 * batch of the epoch up to which each coordinate has been charged;
+	 * gradient and coordinates are scratch for the settlement. Returns the
+	 * data terms summed over the batches plus the penalty at the final
+	 * guess.
+	 */
+	private double sparseEpoch(SparseStochasticDifferentiableFunction function,
+			double[] guess, int[] items, Random random,
+			SparseGradient sparseGradient, int[] lastUpdates,
+			double[] gradient, int[] coordinates) {
+		double l2Weight = function.getL2Weight();
+		// the penalty gradient per item, charged once per batch
+		double penaltyRate = l2Weight / items.length;
+		double value = 0.0;
+		int batch = 0;
+		shuffle(items, random);
+		for (int begin = 0; begin < items.length; begin += batchSize) {
+			int end = Math.min(items.length, begin + batchSize);
+			sparseGradient.clear();
+			value += function.calculateSparseBatch(guess, items, begin, end,
+					sparseGradient);
+			batch++;
+			double[] values = sparseGradient.getValues();
+			int[] touched = sparseGradient.getCoordinates();
+			int numTouched = sparseGradient.size();
+			double scale = 1.0 / (end - begin);
+			for (int k = 0; k < numTouched; k++) {
+				int i = touched[k];
+				values[i] = values[i] * scale + (batch - lastUpdates[i])
+						* penaltyRate * guess[i];
+				lastUpdates[i] = batch;
+			}
+			update(guess, values, touched, numTouched);
+		}
+		sparseGradient.clear();
+		if (l2Weight == 0.0)
+			return value;
+
+		int numOwing = 0;
+		for (int i = 0; i < guess.length; i++) {
+			int owed = batch - lastUpdates[i];
+			lastUpdates[i] = 0;
+			if (owed == 0 || guess[i] == 0.0)
+				continue;
+			gradient[i] = owed * penaltyRate * guess[i];
+			coordinates[numOwing++] = i;
+		}
+		update(guess, gradient, coordinates, numOwing);
+		for (int k = 0; k < numOwing; k++) {
+			gradient[coordinates[k]] = 0.0;
+		}
+		double squaredNorm = DoubleArrays.innerProduct(guess, guess);
+		return value + l2Weight * squaredNorm / 2.0;
+	}
+
+	private static void shuffle(int[] items, Random random) {
+		for (int i = items.length - 1; i > 0; i--) {
+			int j = random.nextInt(i + 1);
+			int item = items[i];
+			items[i] = items[j];
+			items[j] = item;
+		}
+	}
+
+	private boolean converged(double value, double nextValue, double tolerance) {
+		if (value == nextValue)
+			return true;
+		double valueChange = SloppyMath.abs(nextValue - value);
+		double valueAverage = SloppyMath.abs(nextValue + value + EPS) / 2.0;
+		if (valueChange / valueAverage < tolerance)
+			return true;
+		return false;
+	}
+}
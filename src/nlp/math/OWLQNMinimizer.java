@@ -0,0 +1,251 @@
+package nlp.math;
+
+/**
+ * Orthant-wise limited-memory quasi-Newton (Andrew and Gao, 2007): minimizes
+ * f(x) + l1Weight * |x|_1 for a differentiable f. Any L2 penalty belongs in
+ * f, which together with the L1 term gives the elastic net.
+ * <p/>
+ * The L1 term has no derivative where a weight is zero, so each iteration
+ * works within one orthant. Steps follow the pseudo-gradient, which is the
+ * steepest descent direction of the whole objective. The LBFGS direction is
+ * zeroed wherever it disagrees in sign with the pseudo-gradient, and trial
+ * points are projected back onto the orthant, which sets any weight that
+ * would cross zero to exactly zero. The curvature history is built from
+ * the derivatives of f alone. As with LBFGSMinimizer, every point is
+ * evaluated once, for its value and derivative together.
+ */
+public class OWLQNMinimizer extends LBFGSMinimizer {
+	private static final long serialVersionUID = 1L;
+
+	double l1Weight;
+	double sufficientDecreaseConstant = 1e-4;
+	double stepSizeMultiplier = 0.5;
+	int maxEvaluations = 20;
+
+	transient double[] pseudoGradient;
+
+	public void setL1Weight(double l1Weight) {
+		this.l1Weight = l1Weight;
+	}
+
+	double[] minimize(DifferentiableFunction function, int firstIteration,
+			double tolerance, boolean printProgress) {
+		int dimension = guessBuffer.length;
+		if (pseudoGradient == null || pseudoGradient.length != dimension)
+			pseudoGradient = new double[dimension];
+		double[] guess = guessBuffer;
+		double[] nextGuess = nextGuessBuffer;
+		double[] derivative = derivativeBuffer;
+		double[] nextDerivative = nextDerivativeBuffer;
+		if (telemetry != null) {
+			telemetry.start();
+			function = telemetry.instrument(function);
+		}
+		double value = function.valueAndDerivativeAt(guess, derivative)
+				+ l1Weight * l1Norm(guess);
+		for (int iteration = firstIteration; iteration < maxIterations; iteration++) {
+			computePseudoGradient(guess, derivative, pseudoGradient);
+			implicitMultiply(getInitialInverseHessianScale(), pseudoGradient,
+					direction);
+			double slope = 0.0;
+			for (int i = 0; i < dimension; i++) {
+				// direction holds H pg, to be negated: keep only the
+				// components which then point downhill, staying in the
+				// orthant of steepest descent
+				if (direction[i] * pseudoGradient[i] > 0.0)
+					direction[i] = -direction[i];
+				else
+					direction[i] = 0.0;
+				slope += direction[i] * pseudoGradient[i];
+			}
+			if (slope >= 0.0) {
+				historySize = 0;
+				DoubleArrays.multiply(pool, direction, pseudoGradient, -1.0);
+				slope = -DoubleArrays.innerProduct(pool, pseudoGradient,
+						pseudoGradient);
+				if (slope == 0.0)
+					// no direction of descent: a minimum
+					return DoubleArrays.clone(guess);
+			}
+
+			double stepSize = 1.0;
+			if (historySize() == 0)
+				stepSize = Math.min(1.0, 1.0 / Math.sqrt(-slope));
+			double nextValue = 0.0;
+			int evaluations = 0;
+			while (true) {
+				double decrease = 0.0;
+				for (int i = 0; i < dimension; i++) {
+					double next = guess[i] + stepSize * direction[i];
+					double orthant = (guess[i] != 0.0 ? guess[i]
+							: -pseudoGradient[i]);
+					if (next * orthant <= 0.0)
+						next = 0.0;
+					nextGuess[i] = next;
+					decrease += pseudoGradient[i] * (next - guess[i]);
+				}
+				nextValue = function.valueAndDerivativeAt(nextGuess,
+						nextDerivative)
+						+ l1Weight * l1Norm(nextGuess);
+				evaluations++;
+				if (nextValue <= value + sufficientDecreaseConstant * decrease)
+					break;
+				if (evaluations == maxEvaluations) {
+					System.err.println("OWLQNMinimizer.minimize: no sufficient"
+							+ " decrease in " + maxEvaluations + " evaluations");
+					return DoubleArrays.clone(guess);
+				}
+				stepSize *= stepSizeMultiplier;
+			}
+			if (printProgress) {
+				System.out
+						.printf("[OWLQNMinimizer.minimize] Iteration %d ended with value %.6f (%d nonzero weights)\n",
+								iteration, nextValue, numNonzero(nextGuess));
+			}
+			if (telemetry != null) {
+				computePseudoGradient(nextGuess, nextDerivative, pseudoGradient);
+				telemetry.endIteration(iteration, nextValue, DoubleArrays
+						.vectorLength(pseudoGradient), stepSize, evaluations);
+			}
+
+			if (iteration >= minIterations
+					&& converged(value, nextValue, tolerance))
+				return DoubleArrays.clone(nextGuess);
+			updateHistories(guess, nextGuess, derivative, nextDerivative);
+			double[] swap = guess;
+			guess = nextGuess;
+			nextGuess = swap;
+			swap = derivative;
+			derivative = nextDerivative;
+			nextDerivative = swap;
+			value = nextValue;
+			if (iterCallbackFunction != null) {
+				iterCallbackFunction.iterationDone(guess, iteration);
+			}
+			checkpoint(guess, iteration);
+		}
+		return DoubleArrays.clone(guess);
+	}
+
+	/**
+	 * The derivative of the whole objective where it exists; at zero, the
+	 * one-sided derivative pointing downhill, or zero if both sides go up.
+	 */
+	void computePseudoGradient(double[] x, double[] derivative,
+			double[] pseudoGradient) {
+		for (int i = 0; i < x.length; i++) {
+			double d = derivative[i];
+			if (x[i] > 0.0)
+				pseudoGradient[i] = d + l1Weight;
+			else if (x[i] < 0.0)
+				pseudoGradient[i] = d - l1Weight;
+			else if (d + l1Weight < 0.0)
+				pseudoGradient[i] = d + l1Weight;
+			else if (d - l1Weight > 0.0)
+				pseudoGradient[i] = d - l1Weight;
+			else
+				pseudoGradient[i] = 0.0;
+		}
+	}
+
+	long getSettingsFingerprint() {
+		return super.getSettingsFingerprint() * 31L
+				+ Double.doubleToLongBits(l1Weight);
+	}
+
+	static double l1Norm(double[] x) {
+		double norm = 0.0;
+		for (int i = 0; i < x.length; i++) {
+			norm += Math.abs(x[i]);
+		}
+		return norm;
+	}
+
+	static int numNonzero(double[] x) {
+		int n = 0;
+		for (int i = 0; i < x.length; i++) {
+			if (x[i] != 0.0)
+				n++;
+		}
+		return n;
+	}
+
+	public OWLQNMinimizer(int maxIterations, double l1Weight) {
+		super(maxIterations);
+		this.l1Weight = l1Weight;
+	}
+
+	public static void main(String[] args) {
+		// (x0 - 3)^2 + (x1 + 0.1)^2 + |x|_1: x0 shrinks to 2.5, x1 to zero
+		DifferentiableFunction function = new DifferentiableFunction() {
+			public int dimension() {
+				return 2;
+			}
+
+			public double valueAt(double[] x) {
+				return (x[0] - 3) * (x[0] - 3) + (x[1] + 0.1) * (x[1] + 0.1);
+			}
+
+			public double[] derivativeAt(double[] x) {
+				return new double[] { 2 * (x[0] - 3), 2 * (x[1] + 0.1) };
+			}
+		};
+		double[] minimum = new OWLQNMinimizer(50, 1.0).minimize(function,
+				new double[] { 0, 0 }, 1e-10);
+		System.out.println("Minimum at " + DoubleArrays.toString(minimum));
+
+		// an ill-conditioned 50-dimensional quadratic, sum_i c_i (x_i -
+		// t_i)^2 + |x|_1, whose minimum is t_i soft-thresholded by 1 / (2
+		// c_i); the curvature history should fill up on the way there
+		final int dimension = 50;
+		final double[] curvatures = new double[dimension];
+		final double[] targets = new double[dimension];
+		for (int i = 0; i < dimension; i++) {
+			curvatures[i] = 1.0 + 99.0 * i / (dimension - 1);
+			targets[i] = (i % 3 == 0 ? 0.004 : 1.0) * (i % 2 == 0 ? 1 : -1);
+		}
+		DifferentiableFunction quadratic = new DifferentiableFunction() {
+			public int dimension() {
+				return dimension;
+			}
+
+			public double valueAt(double[] x) {
+				double value = 0.0;
+				for (int i = 0; i < dimension; i++) {
+					value += curvatures[i] * (x[i] - targets[i])
+							* (x[i] - targets[i]);
+				}
+				return value;
+			}
+
+			public double[] derivativeAt(double[] x) {
+				double[] derivative = new double[dimension];
+				for (int i = 0; i < dimension; i++) {
+					derivative[i] = 2.0 * curvatures[i] * (x[i] - targets[i]);
+				}
+				return derivative;
+			}
+		};
+		final OWLQNMinimizer minimizer = new OWLQNMinimizer(200, 1.0);
+		final int[] maxHistorySize = new int[1];
+		minimizer.setIterationCallbackFunction(new IterationCallbackFunction() {
+			public void iterationDone(double[] curGuess, int iter) {
+				maxHistorySize[0] = Math.max(maxHistorySize[0], minimizer
+						.historySize());
+			}
+		});
+		minimum = minimizer.minimize(quadratic, new double[dimension], 1e-12,
+				false);
+		double maxError = 0.0;
+		for (int i = 0; i < dimension; i++) {
+			double shrunk = Math.max(0.0, Math.abs(targets[i]) - 0.5
+					/ curvatures[i])
+					* Math.signum(targets[i]);
+			maxError = Math.max(maxError, Math.abs(minimum[i] - shrunk));
+		}
+		System.out.printf(
+				"%d-dimensional quadratic: max error %.2e, %d nonzero weights, history reached %d of %d\n",
+				dimension, maxError, numNonzero(minimum), maxHistorySize[0],
+				minimizer.maxHistorySize);
+	}
+}
@@ -0,0 +1,283 @@
+package nlp.math;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Records what a minimizer does in each iteration: how long it took, how
+ * much of that was spent evaluating the function and how many evaluations
+ * there were, how many steps the line search tried, and the resulting
+ * value, gradient norm and step size. Give one to LBFGSMinimizer (or
+ * OWLQNMinimizer) with setTelemetry(), then export the iterations with
+ * writeCSV() or writeJSON(). A telemetry object records one minimization at
+ * a time; calling start() again clears it.
+ */
+public class OptimizerTelemetry {
+
+	public static class Iteration {
+		int iteration;
+		double value;
+		double gradientNorm;
+		double stepSize;
+		int lineSearchSteps;
+		int evaluations;
+		double seconds;
+		double evaluationSeconds;
+
+		public int getIteration() {
+			return iteration;
+		}
+
+		public double getValue() {
+			return value;
+		}
+
+		/**
+		 * The norm of the gradient (for OWL-QN, of the pseudo-gradient) at
+		 * the point the iteration ended on.
+		 */
+		public double getGradientNorm() {
+			return gradientNorm;
+		}
+
+		/**
+		 * The step size the line search accepted, as a multiple of the
+		 * search direction.
+		 */
+		public double getStepSize() {
+			return stepSize;
+		}
+
+		public int getLineSearchSteps() {
+			return lineSearchSteps;
+		}
+
+		/**
+		 * Function evaluations (each giving the value and gradient) during
+		 * the iteration; the first iteration includes the evaluation at the
+		 * initial point.
+		 */
+		public int getEvaluations() {
+			return evaluations;
+		}
+
+		/**
+		 * The wall time of the iteration.
+		 */
+		public double getSeconds() {
+			return seconds;
+		}
+
+		/**
+		 * The part of the wall time spent inside the function.
+		 */
+		public double getEvaluationSeconds() {
+			return evaluationSeconds;
+		}
+	}
+
+	List<Iteration> iterations = new ArrayList<Iteration>();
+	long iterationStart;
+	int evaluations;
+	long evaluationNanos;
+
+	/**
+	 * Clears the record and starts the clock on the first iteration.
+	 */
+	public void start() {
+		iterations.clear();
+		evaluations = 0;
+		evaluationNanos = 0;
+		iterationStart = System.nanoTime();
+	}
+
+	/**
+	 * Wraps the function so that its evaluations are counted and timed.
+	 */
+	public DifferentiableFunction instrument(
+			final DifferentiableFunction function) {
+		return new DifferentiableFunction() {
+			public int dimension() {
+				return function.dimension();
+			}
+
+			public double valueAt(double[] x) {
+				long start = System.nanoTime();
+				double value = function.valueAt(x);
+				evaluationNanos += System.nanoTime() - start;
+				evaluations++;
+				return value;
+			}
+
+			public double[] derivativeAt(double[] x) {
+				long start = System.nanoTime();
+				double[] derivative = function.derivativeAt(x);
+				evaluationNanos += System.nanoTime() - start;
+				evaluations++;
+				return derivative;
+			}
+
+			public double valueAndDerivativeAt(double[] x, double[] derivative) {
+				long start = System.nanoTime();
+				double value = function.valueAndDerivativeAt(x, derivative);
+				evaluationNanos += System.nanoTime() - start;
+				evaluations++;
+				return value;
+			}
+		};
+	}
+
+	/**
+	 * Ends the current iteration, attributing to it the evaluations and time
+	 * since the previous one ended.
+	 */
+	public void endIteration(int iteration, double value, double gradientNorm,
+			double stepSize, int lineSearchSteps) {
+		long now = System.nanoTime();
+		Iteration record = new Iteration();
+		record.iteration = iteration;
+		record.value = value;
+		record.gradientNorm = gradientNorm;
+		record.stepSize = stepSize;
+		record.lineSearchSteps = lineSearchSteps;
+		record.evaluations = evaluations;
+		record.seconds = (now - iterationStart) / 1e9;
+		record.evaluationSeconds = evaluationNanos / 1e9;
+		iterations.add(record);
+		evaluations = 0;
+		evaluationNanos = 0;
+		iterationStart = now;
+	}
+
+	public List<Iteration> getIterations() {
+		return Collections.unmodifiableList(iterations);
+	}
+
+	public double getTotalSeconds() {
+		double total = 0.0;
+		for (Iteration record : iterations) {
+			total += record.seconds;
+		}
+		return total;
+	}
+
+	public double getTotalEvaluationSeconds() {
+		double total = 0.0;
+		for (Iteration record : iterations) {
+			total += record.evaluationSeconds;
+		}
+		return total;
+	}
+
+	public int getTotalEvaluations() {
+		int total = 0;
+		for (Iteration record : iterations) {
+			total += record.evaluations;
+		}
+		return total;
+	}
+
+	private static final String[] COLUMNS = { "iteration", "value",
+			"gradientNorm", "stepSize", "lineSearchSteps", "evaluations",
+			"seconds", "evaluationSeconds" };
+
+	private static String[] fields(Iteration record) {
+		return new String[] { Integer.toString(record.iteration),
+				Double.toString(record.value),
+				Double.toString(record.gradientNorm),
+				Double.toString(record.stepSize),
+				Integer.toString(record.lineSearchSteps),
+				Integer.toString(record.evaluations),
+				Double.toString(record.seconds),
+				Double.toString(record.evaluationSeconds) };
+	}
+
+	/**
+	 * One line per iteration, after a header line of column names.
+	 */
+	public String toCSV() {
+		StringBuilder sb = new StringBuilder();
+		appendRow(sb, COLUMNS);
+		for (Iteration record : iterations) {
+			appendRow(sb, fields(record));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * An object with an "iterations" array of one object per iteration.
+	 * Non-finite numbers, which JSON lacks, are written as null.
+	 */
+	public String toJSON() {
+		StringBuilder sb = new StringBuilder("{\"iterations\": [");
+		for (int i = 0; i < iterations.size(); i++) {
+			String[] fields = fields(iterations.get(i));
+			sb.append(i == 0 ? "\n  {" : ",\n  {");
+			for (int c = 0; c < COLUMNS.length; c++) {
+				if (c > 0)
+					sb.append(", ");
+				String field = fields[c];
+				if (field.equals("NaN") || field.endsWith("Infinity"))
+					field = "null";
+				sb.append('"').append(COLUMNS[c]).append("\": ").append(field);
+			}
+			sb.append('}');
+		}
+		sb.append("\n]}\n");
+		return sb.toString();
+	}
+
+	private static void appendRow(StringBuilder sb, String[] fields) {
+		for (int c = 0; c < fields.length; c++) {
+			if (c > 0)
+				sb.append(',');
+			sb.append(fields[c]);
+		}
+		sb.append('\n');
+	}
+
+	public void writeCSV(File file) throws IOException {
+		write(file, toCSV());
+	}
+
+	public void writeJSON(File file) throws IOException {
+		write(file, toJSON());
+	}
+
+	/**
+	 * Writes JSON if the file name ends in .json, CSV otherwise.
+	 */
+	public void write(File file) throws IOException {
+		if (file.getName().toLowerCase().endsWith(".json"))
+			writeJSON(file);
+		else
+			writeCSV(file);
+	}
+
+	private static void write(File file, String contents) throws IOException {
+		PrintWriter writer = new PrintWriter(new FileWriter(file));
+		try {
+			writer.print(contents);
+		} finally {
+			writer.close();
+		}
+	}
+
+	/**
+	 * Where the time went, in one line.
+	 */
+	public String getSummary() {
+		double total = getTotalSeconds();
+		double evaluation = getTotalEvaluationSeconds();
+		return String.format(
+				"%d iterations in %.3f s: %d evaluations taking %.3f s (%.1f%%), %.3f s elsewhere",
+				iterations.size(), total, getTotalEvaluations(), evaluation,
+				(total > 0.0 ? 100.0 * evaluation / total : 0.0), total
+						- evaluation);
+	}
+}
@@ -0,0 +1,42 @@
+package nlp.math;
+
+/**
+ * Mini-batch stochastic gradient descent with the step size decaying as
+ * learningRate / (1 + decay * t) after t updates.
+ */
+public class SGDMinimizer extends MiniBatchMinimizer {
+	double learningRate = 0.1;
+	double decay = 1e-3;
+	int numUpdates;
+
+	public void setLearningRate(double learningRate) {
+		this.learningRate = learningRate;
+	}
+
+	public void setDecay(double decay) {
+		this.decay = decay;
+	}
+
+	protected void initialize(int dimension) {
+		numUpdates = 0;
+	}
+
+	protected void update(double[] x, double[] gradient, int[] coordinates,
+			int numCoordinates) {
+		double stepSize = learningRate / (1.0 + decay * numUpdates);
+		for (int k = 0; k < numCoordinates; k++) {
+			int i = coordinates[k];
+			x[i] -= stepSize * gradient[i];
+		}
+		numUpdates++;
+	}
+
+	public SGDMinimizer() {
+	}
+
+	public SGDMinimizer(int maxEpochs, int batchSize, double learningRate) {
+		this.maxEpochs = maxEpochs;
+		this.batchSize = batchSize;
+		this.learningRate = learningRate;
+	}
+}
@@ -88,4 +88,137 @@ public class SloppyMath {
 		return Math.exp(logX);
 	}
 
+	/**
+	 * log(sum_i exp(values[i])) for begin <= i < end, shifted by the maximum
+	 * so that no exp overflows. Four independent running sums keep
+	 * successive exps from waiting on each other's adds. The shift costs an
+	 * extra pass, so over a handful of values this is slower than the naive
+	 * log of the sum of exps (56 vs 44 ns over 5 values in
+	 * SloppyMathBenchmark); it is there for safety, not speed.
+	 */
+	public static double logSumExp(double[] values, int begin, int end) {
+		double max = max(values, begin, end);
+		if (max == Double.NEGATIVE_INFINITY || max == Double.POSITIVE_INFINITY)
+			return max;
+		double sum0 = 0.0, sum1 = 0.0, sum2 = 0.0, sum3 = 0.0;
+		int i = begin;
+		for (; i + 3 < end; i += 4) {
+			sum0 += Math.exp(values[i] - max);
+			sum1 += Math.exp(values[i + 1] - max);
+			sum2 += Math.exp(values[i + 2] - max);
+			sum3 += Math.exp(values[i + 3] - max);
+		}
+		for (; i < end; i++) {
+			sum0 += Math.exp(values[i] - max);
+		}
+		return max + Math.log((sum0 + sum1) + (sum2 + sum3));
+	}
+
+	/**
+	 * As logSumExp, but with fastExp and fastLog; the result is within about
+	 * 1e-14 of it. Over 5 values this about makes up for the shift, taking
+	 * roughly as long as the naive loop.
+	 */
+	public static double fastLogSumExp(double[] values, int begin, int end) {
+		double max = max(values, begin, end);
+		if (max == Double.NEGATIVE_INFINITY || max == Double.POSITIVE_INFINITY)
+			return max;
+		double sum0 = 0.0, sum1 = 0.0, sum2 = 0.0, sum3 = 0.0;
+		int i = begin;
+		for (; i + 3 < end; i += 4) {
+			sum0 += fastExp(values[i] - max);
+			sum1 += fastExp(values[i + 1] - max);
+			sum2 += fastExp(values[i + 2] - max);
+			sum3 += fastExp(values[i + 3] - max);
+		}
+		for (; i < end; i++) {
+			sum0 += fastExp(values[i] - max);
+		}
+		return max + fastLog((sum0 + sum1) + (sum2 + sum3));
+	}
+
+	private static double max(double[] values, int begin, int end) {
+		double max = Double.NEGATIVE_INFINITY;
+		for (int i = begin; i < end; i++) {
+			if (values[i] > max)
+				max = values[i];
+		}
+		return max;
+	}
+
+	private static final double LN2 = 0.6931471805599453;
+
+	// ln(2) / 256 split in two, the high part with enough trailing zero bits
+	// that multiplying it by an int is exact
+	private static final double LN2_OVER_256_HIGH = 6.93147180369123816490e-01 / 256;
+	private static final double LN2_OVER_256_LOW = 1.90821492927058770002e-10 / 256;
+
+	// adding this rounds a double of magnitude below 2^51 to an integer,
+	// which lands in the low bits of the sum
+	private static final double ROUNDING_SHIFT = 6755399441055744.0;
+
+	private static final double[] EXP2_TABLE = new double[256];
+
+	// the centers c of 128 equal slices of [1, 2), with 1 / c and log(c)
+	private static final double[] INVERSE_CENTER_TABLE = new double[128];
+	private static final double[] LOG_CENTER_TABLE = new double[128];
+
+	static {
+		for (int j = 0; j < 256; j++) {
+			EXP2_TABLE[j] = Math.pow(2.0, j / 256.0);
+		}
+		for (int j = 0; j < 128; j++) {
+			double center = 1.0 + (j + 0.5) / 128.0;
+			INVERSE_CENTER_TABLE[j] = 1.0 / center;
+			LOG_CENTER_TABLE[j] = Math.log(center);
+		}
+	}
+
+	/**
+	 * exp(x) to a relative error below 1e-15. In SloppyMathBenchmark it
+	 * takes 10 to 55% less time than Math.exp once compiled (which is
+	 * itself often an intrinsic), depending on the JVM and machine; measure
+	 * before relying on it. x is split as (256k + j) ln(2) / 256 + r with
+	 * |r| at most ln(2) / 512, so exp(x) = 2^k * 2^(j/256) * exp(r): the
+	 * middle factor comes from a table and exp(r) from a short polynomial.
+	 * Arguments whose result would be subnormal or overflow (and NaN) are
+	 * passed to Math.exp.
+	 */
+	public static double fastExp(double x) {
+		if (!(x > -708.0 && x < 709.0))
+			return Math.exp(x);
+		int n = (int) Double.doubleToRawLongBits(x * (256.0 / LN2)
+				+ ROUNDING_SHIFT);
+		double r = (x - n * LN2_OVER_256_HIGH) - n * LN2_OVER_256_LOW;
+		double p = 1.0 + r
+				* (1.0 + r * (0.5 + r * (1.0 / 6.0 + r * (1.0 / 24.0))));
+		double twoToTheK = Double.longBitsToDouble((long) ((n >> 8) + 1023) << 52);
+		return p * EXP2_TABLE[n & 255] * twoToTheK;
+	}
+
+	/**
+	 * log(x) for normal positive x (other arguments are passed to Math.log).
+	 * The absolute error is below 1e-15 for x near one, but grows with the
+	 * rounding of the result: about 1.4e-14 once |log(x)| passes 1, and up to
+	 * 1.1e-13 when it is in the hundreds (x beyond about 1e43 or below
+	 * 1e-43). In SloppyMathBenchmark it takes 0 to 20% less time than
+	 * Math.log once compiled. x is split as 2^e * m with m in [1, 2); m is
+	 * divided by the center c of its 1/128-wide slice, whose log comes from
+	 * a table, leaving log(m / c) for a short series since |m / c - 1| is at
+	 * most 1/257.
+	 */
+	public static double fastLog(double x) {
+		if (!(x >= Double.MIN_NORMAL && x < Double.POSITIVE_INFINITY))
+			return Math.log(x);
+		long bits = Double.doubleToRawLongBits(x);
+		int e = (int) (bits >>> 52) - 1023;
+		int j = (int) (bits >>> 45) & 127;
+		double m = Double.longBitsToDouble((bits & 0x000FFFFFFFFFFFFFL)
+				| 0x3FF0000000000000L);
+		double r = m * INVERSE_CENTER_TABLE[j] - 1.0;
+		double p = r
+				* (1.0 - r * (0.5 - r * (1.0 / 3.0 - r * (0.25 - r * 0.2))));
+		return e * LN2 + LOG_CENTER_TABLE[j] + p;
+	}
+
 }
@@ -0,0 +1,133 @@
+package nlp.math;
+
+import java.util.Map;
+import java.util.Random;
+
+import nlp.util.CommandLineUtils;
+
+/**
+ * Checks the accuracy of SloppyMath.fastExp, fastLog and fastLogSumExp
+ * against Math.exp, Math.log and the exact logSumExp over random arguments,
+ * and times each, along with the naive normalizer log(sum_i exp(v_i)) which
+ * the log-sum-exp kernels replace. Run with
+ * <p/>
+ * java nlp.math.SloppyMathBenchmark [-samples 1000000] [-width 5]
+ */
+public class SloppyMathBenchmark {
+
+	static double sink;
+
+	interface Kernel {
+		double apply(double[] values, int begin, int end);
+	}
+
+	/**
+	 * Nanoseconds per call, the best of five passes over the arguments.
+	 */
+	static double time(Kernel kernel, double[] arguments, int width) {
+		double best = Double.POSITIVE_INFINITY;
+		for (int pass = 0; pass < 5; pass++) {
+			long start = System.nanoTime();
+			double sum = 0.0;
+			for (int i = 0; i + width <= arguments.length; i += width) {
+				sum += kernel.apply(arguments, i, i + width);
+			}
+			long elapsed = System.nanoTime() - start;
+			sink += sum;
+			best = Math.min(best, elapsed / (double) (arguments.length / width));
+		}
+		return best;
+	}
+
+	public static void main(String[] args) {
+		Map<String, String> argMap = CommandLineUtils
+				.simpleCommandLineParser(args);
+		int numSamples = Integer.parseInt(CommandLineUtils
+				.getValueOrUseDefault(argMap, "-samples", "1000000"));
+		int width = Integer.parseInt(CommandLineUtils.getValueOrUseDefault(
+				argMap, "-width", "5"));
+
+		Random random = new Random(0);
+		double[] expArguments = new double[numSamples];
+		double[] logArguments = new double[numSamples];
+		double[] activations = new double[numSamples];
+		for (int i = 0; i < numSamples; i++) {
+			expArguments[i] = -700.0 + 1400.0 * random.nextDouble();
+			logArguments[i] = Math.exp(-700.0 + 1400.0 * random.nextDouble());
+			activations[i] = 10.0 * random.nextGaussian();
+		}
+
+		double maxExpError = 0.0, maxLogError = 0.0, maxLogSumExpError = 0.0;
+		for (int i = 0; i < numSamples; i++) {
+			double exact = Math.exp(expArguments[i]);
+			maxExpError = Math.max(maxExpError, Math.abs(SloppyMath
+					.fastExp(expArguments[i])
+					- exact)
+					/ exact);
+			maxLogError = Math.max(maxLogError, Math.abs(SloppyMath
+					.fastLog(logArguments[i])
+					- Math.log(logArguments[i])));
+		}
+		for (int i = 0; i + width <= numSamples; i += width) {
+			maxLogSumExpError = Math.max(maxLogSumExpError, Math.abs(SloppyMath
+					.fastLogSumExp(activations, i, i + width)
+					- SloppyMath.logSumExp(activations, i, i + width)));
+		}
+		System.out.printf("fastExp: max relative error %.2e\n", maxExpError);
+		System.out.printf("fastLog: max absolute error %.2e\n", maxLogError);
+		System.out.printf("fastLogSumExp: max absolute error %.2e\n",
+				maxLogSumExpError);
+
+		Kernel mathExp = new Kernel() {
+			public double apply(double[] values, int begin, int end) {
+				return Math.exp(values[begin]);
+			}
+		};
+		Kernel fastExp = new Kernel() {
+			public double apply(double[] values, int begin, int end) {
+				return SloppyMath.fastExp(values[begin]);
+			}
+		};
+		Kernel mathLog = new Kernel() {
+			public double apply(double[] values, int begin, int end) {
+				return Math.log(values[begin]);
+			}
+		};
+		Kernel fastLog = new Kernel() {
+			public double apply(double[] values, int begin, int end) {
+				return SloppyMath.fastLog(values[begin]);
+			}
+		};
+		Kernel naiveLogSumExp = new Kernel() {
+			public double apply(double[] values, int begin, int end) {
+				double sum = 0.0;
+				for (int i = begin; i < end; i++) {
+					sum += Math.exp(values[i]);
+				}
+				return Math.log(sum);
+			}
+		};
+		Kernel logSumExp = new Kernel() {
+			public double apply(double[] values, int begin, int end) {
+				return SloppyMath.logSumExp(values, begin, end);
+			}
+		};
+		Kernel fastLogSumExp = new Kernel() {
+			public double apply(double[] values, int begin, int end) {
+				return SloppyMath.fastLogSumExp(values, begin, end);
+			}
+		};
+		System.out.printf("Math.exp %.2f ns, fastExp %.2f ns\n", time(mathExp,
+				expArguments, 1), time(fastExp, expArguments, 1));
+		System.out.printf("Math.log %.2f ns, fastLog %.2f ns\n", time(mathLog,
+				logArguments, 1), time(fastLog, logArguments, 1));
+		System.out.printf(
+				"Over %d values: naive %.2f ns, logSumExp %.2f ns, fastLogSumExp %.2f ns\n",
+				width, time(naiveLogSumExp, activations, width), time(
+						logSumExp, activations, width), time(fastLogSumExp,
+						activations, width));
+		// keep the results from being optimized away
+		if (sink == 42.0)
+			System.out.println(sink);
+	}
+}
@@ -0,0 +1,70 @@
+package nlp.math;
+
+import java.util.Arrays;
+
+/**
+ * A gradient which is zero outside a few coordinates: the values live in a
+ * dense array, but the coordinates written since the last clear() are
+ * listed, so clearing and walking the gradient cost only as much as was
+ * touched.
+ */
+public class SparseGradient {
+	double[] values;
+	int[] coordinates;
+	int size;
+
+	// coordinates stamped with the current generation are in the list
+	int[] stamps;
+	int generation = 1;
+
+	/**
+	 * The dense values, to be written at touched coordinates only.
+	 */
+	public double[] getValues() {
+		return values;
+	}
+
+	/**
+	 * The touched coordinates, in the order they were first touched; only
+	 * the first size() entries are meaningful.
+	 */
+	public int[] getCoordinates() {
+		return coordinates;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Adds coordinate i to the list; returns false, doing nothing, if it was
+	 * already there.
+	 */
+	public boolean touch(int i) {
+		if (stamps[i] == generation)
+			return false;
+		stamps[i] = generation;
+		coordinates[size++] = i;
+		return true;
+	}
+
+	/**
+	 * Zeroes the touched values and empties the list.
+	 */
+	public void clear() {
+		for (int k = 0; k < size; k++) {
+			values[coordinates[k]] = 0.0;
+		}
+		size = 0;
+		if (++generation == 0) {
+			Arrays.fill(stamps, 0);
+			generation = 1;
+		}
+	}
+
+	public SparseGradient(int dimension) {
+		values = new double[dimension];
+		coordinates = new int[dimension];
+		stamps = new int[dimension];
+	}
+}
@@ -0,0 +1,20 @@
+package nlp.math;
+
+/**
+ * A StochasticDifferentiableFunction whose item terms each depend on only a
+ * few coordinates, and whose shared term is the L2 penalty l2Weight / 2 *
+ * |x|^2. A mini-batch minimizer can then work on the coordinates a batch
+ * touches alone, and apply the penalty to the others lazily.
+ */
+public interface SparseStochasticDifferentiableFunction extends
+		StochasticDifferentiableFunction {
+	double getL2Weight();
+
+	/**
+	 * Returns the value at x of the terms for items[begin] ... items[end - 1],
+	 * without their share of the penalty, and adds their gradient into the
+	 * given cleared gradient, touching every coordinate it writes.
+	 */
+	double calculateSparseBatch(double[] x, int[] items, int begin, int end,
+			SparseGradient gradient);
+}
@@ -0,0 +1,20 @@
+package nlp.math;
+
+/**
+ * A DifferentiableFunction which is a sum of terms, one per item (typically
+ * one per training datum), and which can be evaluated on any subset of its
+ * items. Any shared term, such as a regularizer, is split between items in
+ * proportion to their number, so the values of the batches of a partition of
+ * the items add up to valueAt().
+ */
+public interface StochasticDifferentiableFunction extends
+		DifferentiableFunction {
+	int numItems();
+
+	/**
+	 * Returns the value at x of the terms for items[begin] ... items[end - 1]
+	 * and writes their gradient into derivative, overwriting it.
+	 */
+	double calculateBatch(double[] x, int[] items, int begin, int end,
+			double[] derivative);
+}
@@ -0,0 +1,212 @@
+package nlp.math;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * A line search for a step satisfying the strong Wolfe conditions
+ * (Nocedal and Wright, Algorithms 3.5 and 3.6): the step is grown until it
+ * brackets an acceptable one, and the bracket is then narrowed by cubic
+ * interpolation. Every point tried is evaluated exactly once, for its value
+ * and derivative together, and the accepted point's derivative is handed
+ * back to the caller so that it never needs evaluating again.
+ * <p/>
+ * The searcher keeps one spare point and derivative of the function's
+ * dimension, allocated on first use, so repeated searches allocate nothing.
+ */
+public class StrongWolfeLineSearcher {
+	double sufficientDecreaseConstant = 1e-4;
+	double curvatureConstant = 0.9;
+	int maxEvaluations = 20;
+	double maxStepGrowth = 4.0;
+
+	// the spare point and its derivative
+	double[] spareGuess;
+	double[] spareDerivative;
+
+	// the vector kernels' threads, set by the minimizer (null: the calling
+	// thread)
+	ForkJoinPool pool;
+
+	int lastNumEvaluations;
+	double lastStepSize;
+
+	/**
+	 * The constant c1 of the sufficient decrease condition.
+	 */
+	public void setSufficientDecreaseConstant(double c1) {
+		this.sufficientDecreaseConstant = c1;
+	}
+
+	/**
+	 * The constant c2 of the curvature condition, larger than c1 and smaller
+	 * than one; 0.9 is the usual choice for quasi-Newton directions.
+	 */
+	public void setCurvatureConstant(double c2) {
+		this.curvatureConstant = c2;
+	}
+
+	public void setMaxEvaluations(int maxEvaluations) {
+		this.maxEvaluations = maxEvaluations;
+	}
+
+	/**
+	 * How many points the last search evaluated.
+	 */
+	public int getLastNumEvaluations() {
+		return lastNumEvaluations;
+	}
+
+	/**
+	 * The step size the last search accepted, or zero if it found no
+	 * decrease.
+	 */
+	public double getLastStepSize() {
+		return lastStepSize;
+	}
+
+	/**
+	 * Searches along direction, which must point downhill, from initial,
+	 * where the function has the given value and derivative. The accepted
+	 * point and its derivative are written into guess and derivative, and
+	 * its value is returned. If no step satisfying the conditions is found
+	 * within the evaluation budget, the lowest point found is used instead,
+	 * or the initial point itself if none was lower.
+	 */
+	public double minimize(DifferentiableFunction function, double[] initial,
+			double initialValue, double[] initialDerivative,
+			double[] direction, double initialStepSize, double[] guess,
+			double[] derivative) {
+		if (spareGuess == null || spareGuess.length != initial.length) {
+			spareGuess = new double[initial.length];
+			spareDerivative = new double[initial.length];
+		}
+		double initialSlope = DoubleArrays.innerProduct(pool,
+				initialDerivative, direction);
+		if (initialSlope >= 0.0)
+			throw new IllegalArgumentException(
+					"StrongWolfeLineSearcher.minimize: not a descent direction");
+		// each trial goes into whichever buffer doesn't hold the lowest
+		// acceptable point so far (0: guess, 1: the spare, -1: neither)
+		double[][] guesses = { guess, spareGuess };
+		double[][] derivatives = { derivative, spareDerivative };
+		int lowSlot = -1;
+		double lowStep = 0.0, lowValue = initialValue, lowSlope = initialSlope;
+		double highStep = 0.0, highValue = 0.0, highSlope = 0.0;
+		boolean bracketed = false;
+		double step = initialStepSize;
+		lastNumEvaluations = 0;
+		while (lastNumEvaluations < maxEvaluations) {
+			if (bracketed)
+				step = interpolate(lowStep, lowValue, lowSlope, highStep,
+						highValue, highSlope);
+			int slot = (lowSlot == 0 ? 1 : 0);
+			DoubleArrays.addMultiples(pool, guesses[slot], initial, 1.0,
+					direction, step);
+			double value = function.valueAndDerivativeAt(guesses[slot],
+					derivatives[slot]);
+			double slope = DoubleArrays.innerProduct(pool,
+					derivatives[slot], direction);
+			lastNumEvaluations++;
+			if (value > initialValue + sufficientDecreaseConstant * step
+					* initialSlope
+					|| value >= lowValue) {
+				// too far: the step becomes the far end of the bracket
+				highStep = step;
+				highValue = value;
+				highSlope = slope;
+				bracketed = true;
+				continue;
+			}
+			if (Math.abs(slope) <= -curvatureConstant * initialSlope) {
+				return accept(slot, step, value, guess, derivative);
+			}
+			if (bracketed) {
+				if (slope * (highStep - lowStep) >= 0.0) {
+					highStep = lowStep;
+					highValue = lowValue;
+					highSlope = lowSlope;
+				}
+			} else if (slope >= 0.0) {
+				// past the minimum: the last low point is the far end
+				highStep = lowStep;
+				highValue = lowValue;
+				highSlope = lowSlope;
+				bracketed = true;
+			}
+			lowSlot = slot;
+			lowStep = step;
+			lowValue = value;
+			lowSlope = slope;
+			if (!bracketed)
+				step *= maxStepGrowth;
+		}
+		System.err.println("StrongWolfeLineSearcher.minimize: no step satisfying"
+				+ " the Wolfe conditions in " + maxEvaluations + " evaluations");
+		if (lowSlot < 0) {
+			DoubleArrays.assign(guess, initial);
+			DoubleArrays.assign(derivative, initialDerivative);
+			lastStepSize = 0.0;
+			return initialValue;
+		}
+		return accept(lowSlot, lowStep, lowValue, guess, derivative);
+	}
+
+	private double accept(int slot, double step, double value, double[] guess,
+			double[] derivative) {
+		if (slot == 1) {
+			DoubleArrays.assign(guess, spareGuess);
+			DoubleArrays.assign(derivative, spareDerivative);
+		}
+		lastStepSize = step;
+		return value;
+	}
+
+	/**
+	 * The minimizer of the cubic matching the values and slopes at both ends
+	 * of the bracket, kept a tenth of the bracket away from either end
+	 * (bisecting when the cubic has no minimum).
+	 */
+	static double interpolate(double step1, double value1, double slope1,
+			double step2, double value2, double slope2) {
+		double low = Math.min(step1, step2);
+		double high = Math.max(step1, step2);
+		double margin = 0.1 * (high - low);
+		double d1 = slope1 + slope2 - 3.0 * (value1 - value2) / (step1 - step2);
+		double discriminant = d1 * d1 - slope1 * slope2;
+		double step = Double.NaN;
+		if (discriminant >= 0.0) {
+			double d2 = Math.signum(step2 - step1) * Math.sqrt(discriminant);
+			step = step2 - (step2 - step1) * (slope2 + d2 - d1)
+					/ (slope2 - slope1 + 2.0 * d2);
+		}
+		if (Double.isNaN(step) || step < low + margin || step > high - margin)
+			return (low + high) / 2.0;
+		return step;
+	}
+
+	public static void main(String[] args) {
+		DifferentiableFunction function = new DifferentiableFunction() {
+			public int dimension() {
+				return 1;
+			}
+
+			public double valueAt(double[] x) {
+				return x[0] * (x[0] - 0.01);
+			}
+
+			public double[] derivativeAt(double[] x) {
+				return new double[] { 2 * x[0] - 0.01 };
+			}
+		};
+		StrongWolfeLineSearcher lineSearcher = new StrongWolfeLineSearcher();
+		double[] initial = { 0 };
+		double[] guess = new double[1];
+		double[] derivative = new double[1];
+		double value = lineSearcher.minimize(function, initial, function
+				.valueAt(initial), function.derivativeAt(initial),
+				new double[] { 1 }, 1.0, guess, derivative);
+		System.out.printf("Step %.6f to %.6f (value %.8f) in %d evaluations\n",
+				lineSearcher.getLastStepSize(), guess[0], value, lineSearcher
+						.getLastNumEvaluations());
+	}
+}
@@ -0,0 +1,389 @@
+package nlp.util;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * An Indexer which may be shared between threads. indexOf() is a lock-free
+ * read of a ConcurrentHashMap, and addAndGetIndex() only contends with other
+ * threads adding the same object (the map locks per bin). Objects are stored
+ * by index in pages of doubling size, so the index-to-object direction never
+ * needs copying or locking either. When several threads add objects, which
+ * object gets which index depends on the interleaving, but each object gets
+ * exactly one index and the indexes stay contiguous. (For numbering that
+ * doesn't depend on the interleaving, index each thread's share in its own
+ * Indexer and add those to the shared one in a fixed order.)
+ * <p/>
+ * An index is reserved before its object is stored, so size() counts only
+ * the prefix of indexes whose objects are all stored: get(i) is safe for any
+ * i below size() and for any index returned by addAndGetIndex() or
+ * indexOf().
+ * <p/>
+ * Once all objects have been added, freeze() replaces the hash map with a
+ * minimal perfect hash (hash-and-displace) over the indexed objects: a flat
+ * object array plus two int arrays, which costs far less memory than a
+ * HashMap of boxed Integers and is read-only, hence trivially thread-safe.
+ * (Distinct objects with identical hash codes cannot be told apart by the
+ * perfect hash; the few of those are kept in a small side map.) Null objects
+ * are not supported.
+ */
+public class ConcurrentIndexer<E> extends Indexer<E> {
+	private static final long serialVersionUID = 1L;
+
+	private static final int FIRST_PAGE_SIZE = 16;
+
+	// the growable form
+	ConcurrentHashMap<E, Integer> concurrentIndexes;
+	AtomicReferenceArray<AtomicReferenceArray<Object>> pages;
+	AtomicInteger nextIndex;
+	// all objects below this index are stored
+	AtomicInteger numStored;
+
+	// the frozen form
+	volatile boolean frozen;
+	Object[] frozenObjects;
+	int[] displacements;
+	int[] slotToIndex;
+	java.util.HashMap<Object, Integer> hashCollisions;
+
+	public E get(int index) {
+		if (frozen) {
+			if (index < 0 || index >= frozenObjects.length)
+				throw new IndexOutOfBoundsException("Index: " + index
+						+ ", Size: " + size());
+			return cast(frozenObjects[index]);
+		}
+		Object o = (index < 0 ? null : load(index));
+		if (o == null)
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: "
+					+ size());
+		return cast(o);
+	}
+
+	@SuppressWarnings("unchecked")
+	private E cast(Object o) {
+		return (E) o;
+	}
+
+	/**
+	 * Returns the number of objects indexed, not counting any whose
+	 * addAndGetIndex() call is still storing them (nor any after those).
+	 */
+	public int size() {
+		if (frozen)
+			return frozenObjects.length;
+		int stored = numStored.get();
+		int n = stored;
+		while (n < nextIndex.get() && load(n) != null) {
+			n++;
+		}
+		if (n > stored)
+			numStored.compareAndSet(stored, n);
+		return n;
+	}
+
+	public int indexOf(Object o) {
+		if (o == null)
+			return -1;
+		if (frozen)
+			return frozenIndexOf(o);
+		Integer index = concurrentIndexes.get(o);
+		if (index == null)
+			return -1;
+		return index;
+	}
+
+	/**
+	 * Add an element to the indexer if not already present. In either case,
+	 * returns the index of the given object. After freeze() only objects
+	 * which are already present may be passed in.
+	 */
+	public int addAndGetIndex(E e) {
+		if (frozen) {
+			int index = frozenIndexOf(e);
+			if (index < 0)
+				throw new IllegalStateException(
+						"ConcurrentIndexer: cannot add to a frozen indexer: "
+								+ e);
+			return index;
+		}
+		Integer index = concurrentIndexes.get(e);
+		if (index != null)
+			return index;
+		return concurrentIndexes.computeIfAbsent(e,
+				new java.util.function.Function<E, Integer>() {
+					public Integer apply(E key) {
+						int newIndex = nextIndex.getAndIncrement();
+						store(newIndex, key);
+						return newIndex;
+					}
+				});
+	}
+
+	public boolean contains(Object o) {
+		return indexOf(o) >= 0;
+	}
+
+	public boolean add(E e) {
+		int sizeBefore = nextIndex.get();
+		int index = addAndGetIndex(e);
+		// indexes are handed out in increasing order, so an index at or past
+		// the old size was created by this call or by a concurrent one
+		return index >= sizeBefore;
+	}
+
+	private static int pageOf(int index) {
+		return 31 - Integer.numberOfLeadingZeros(index / FIRST_PAGE_SIZE + 1);
+	}
+
+	private static int pageStart(int page) {
+		return FIRST_PAGE_SIZE * ((1 << page) - 1);
+	}
+
+	private void store(int index, E e) {
+		int page = pageOf(index);
+		AtomicReferenceArray<Object> objects = pages.get(page);
+		if (objects == null) {
+			pages.compareAndSet(page, null, new AtomicReferenceArray<Object>(
+					FIRST_PAGE_SIZE << page));
+			objects = pages.get(page);
+		}
+		objects.set(index - pageStart(page), e);
+	}
+
+	/**
+	 * The object stored at index, or null if there is none yet.
+	 */
+	private Object load(int index) {
+		int page = pageOf(index);
+		if (page >= pages.length())
+			return null;
+		AtomicReferenceArray<Object> objects = pages.get(page);
+		if (objects == null)
+			return null;
+		return objects.get(index - pageStart(page));
+	}
+
+	/**
+	 * Converts the indexer into its compact read-only form. Must not be
+	 * called while other threads are still adding objects.
+	 */
+	public void freeze() {
+		if (frozen)
+			return;
+		int n = nextIndex.get();
+		Object[] objects = new Object[n];
+		for (int i = 0; i < n; i++) {
+			objects[i] = load(i);
+		}
+		buildPerfectHash(objects);
+		frozenObjects = objects;
+		frozen = true;
+		concurrentIndexes = null;
+		pages = null;
+	}
+
+	public boolean isFrozen() {
+		return frozen;
+	}
+
+	private static int mix(int h, int seed) {
+		h = (h ^ seed) * 0x9E3779B9;
+		h ^= h >>> 15;
+		h *= 0x85EBCA6B;
+		return h ^ (h >>> 13);
+	}
+
+	private static int bucketOf(int hash, int numBuckets) {
+		return (mix(hash, 0x7F4A7C15) & 0x7FFFFFFF) % numBuckets;
+	}
+
+	private static int slotOf(int hash, int displacement, int numSlots) {
+		return (mix(hash, displacement) & 0x7FFFFFFF) % numSlots;
+	}
+
+	/**
+	 * Hash-and-displace: objects are split into buckets by one hash, and,
+	 * largest bucket first, each bucket is given the first displacement which
+	 * sends all of its objects to free slots.
+	 */
+	private void buildPerfectHash(Object[] objects) {
+		int n = objects.length;
+		// a little slack keeps the search for the last buckets short
+		int numSlots = n + n / 16 + 1;
+		int numBuckets = Math.max(1, n / 4);
+		int[] hashes = new int[n];
+		int[] bucketSizes = new int[numBuckets + 1];
+		for (int i = 0; i < n; i++) {
+			hashes[i] = objects[i].hashCode();
+			bucketSizes[bucketOf(hashes[i], numBuckets) + 1]++;
+		}
+		int[] bucketStarts = new int[numBuckets + 1];
+		for (int b = 0; b < numBuckets; b++) {
+			bucketStarts[b + 1] = bucketStarts[b] + bucketSizes[b + 1];
+		}
+		int[] members = new int[n];
+		int[] fill = new int[numBuckets];
+		for (int i = 0; i < n; i++) {
+			int b = bucketOf(hashes[i], numBuckets);
+			members[bucketStarts[b] + fill[b]++] = i;
+		}
+		// objects whose hash code repeats within their bucket go to the side
+		// map, otherwise no displacement could ever separate them
+		hashCollisions = null;
+		int[] bucketEnds = new int[numBuckets];
+		for (int b = 0; b < numBuckets; b++) {
+			int end = bucketStarts[b + 1];
+			for (int j = bucketStarts[b]; j < end; j++) {
+				for (int k = bucketStarts[b]; k < j; k++) {
+					if (hashes[members[k]] == hashes[members[j]]) {
+						if (hashCollisions == null)
+							hashCollisions = new java.util.HashMap<Object, Integer>();
+						hashCollisions.put(objects[members[j]], members[j]);
+						members[j] = members[--end];
+						j--;
+						break;
+					}
+				}
+			}
+			bucketEnds[b] = end;
+		}
+		// order buckets by decreasing size: (size << 32 | bucket), descending
+		long[] order = new long[numBuckets];
+		for (int b = 0; b < numBuckets; b++) {
+			order[b] = ((long) (bucketEnds[b] - bucketStarts[b]) << 32) | b;
+		}
+		java.util.Arrays.sort(order);
+
+		displacements = new int[numBuckets];
+		slotToIndex = new int[numSlots];
+		java.util.Arrays.fill(slotToIndex, -1);
+		int[] trialSlots = new int[0];
+		for (int k = numBuckets - 1; k >= 0; k--) {
+			int b = (int) order[k];
+			int begin = bucketStarts[b];
+			int size = bucketEnds[b] - begin;
+			if (size == 0)
+				break;
+			if (trialSlots.length < size)
+				trialSlots = new int[size];
+			for (int d = 1;; d++) {
+				boolean fits = true;
+				for (int j = 0; j < size && fits; j++) {
+					int slot = slotOf(hashes[members[begin + j]], d, numSlots);
+					if (slotToIndex[slot] >= 0)
+						fits = false;
+					for (int k2 = 0; k2 < j && fits; k2++) {
+						if (trialSlots[k2] == slot)
+							fits = false;
+					}
+					trialSlots[j] = slot;
+				}
+				if (fits) {
+					displacements[b] = d;
+					for (int j = 0; j < size; j++) {
+						slotToIndex[trialSlots[j]] = members[begin + j];
+					}
+					break;
+				}
+			}
+		}
+	}
+
+	private int frozenIndexOf(Object o) {
+		if (o == null || frozenObjects.length == 0)
+			return -1;
+		int hash = o.hashCode();
+		int d = displacements[bucketOf(hash, displacements.length)];
+		if (d != 0) {
+			int index = slotToIndex[slotOf(hash, d, slotToIndex.length)];
+			if (index >= 0 && frozenObjects[index].equals(o))
+				return index;
+		}
+		if (hashCollisions != null) {
+			Integer index = hashCollisions.get(o);
+			if (index != null)
+				return index;
+		}
+		return -1;
+	}
+
+	public ConcurrentIndexer() {
+		super((Void) null);
+		concurrentIndexes = new ConcurrentHashMap<E, Integer>();
+		pages = new AtomicReferenceArray<AtomicReferenceArray<Object>>(32);
+		nextIndex = new AtomicInteger();
+		numStored = new AtomicInteger();
+	}
+
+	public static void main(String[] args) throws InterruptedException {
+		final int numThreads = 8;
+		final int numObjects = 1000000;
+		final ConcurrentIndexer<String> indexer = new ConcurrentIndexer<String>();
+		Thread[] threads = new Thread[numThreads];
+		Stopwatch watch = new Stopwatch();
+		for (int t = 0; t < numThreads; t++) {
+			final int offset = t;
+			threads[t] = new Thread() {
+				public void run() {
+					// every thread adds every object, starting at a
+					// different point
+					for (int i = 0; i < numObjects; i++) {
+						indexer.addAndGetIndex("f"
+								+ ((i + offset * 7919) % numObjects));
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		watch.stop();
+		System.out.printf("Indexed %d objects from %d threads in %.3f s\n",
+				indexer.size(), numThreads, watch.getLastElapsedTime());
+		// a reader racing the writers must find every object below size()
+		final ConcurrentIndexer<String> racing = new ConcurrentIndexer<String>();
+		final AtomicBoolean done = new AtomicBoolean();
+		final int[] missing = new int[1];
+		Thread reader = new Thread() {
+			public void run() {
+				while (!done.get()) {
+					int n = racing.size();
+					if (n > 0 && racing.get(n - 1) == null)
+						missing[0]++;
+				}
+			}
+		};
+		reader.start();
+		for (int t = 0; t < numThreads; t++) {
+			final int offset = t;
+			threads[t] = new Thread() {
+				public void run() {
+					for (int i = 0; i < numObjects / 10; i++) {
+						racing.addAndGetIndex("g" + (i * numThreads + offset));
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		done.set(true);
+		reader.join();
+		System.out.println("Racing reads missing: " + missing[0] + " of "
+				+ racing.size() + " objects");
+
+		indexer.freeze();
+		int errors = 0;
+		for (int i = 0; i < indexer.size(); i++) {
+			if (indexer.indexOf(indexer.get(i)) != i)
+				errors++;
+		}
+		System.out.println("Frozen lookups wrong: " + errors
+				+ ", unknown object index: " + indexer.indexOf("unseen"));
+	}
+}
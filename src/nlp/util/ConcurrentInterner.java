@@ -0,0 +1,223 @@
+package nlp.util;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An Interner which can be shared between threads and whose size is bounded.
+ * The canonical map is split into lock-striped segments by hash code, so
+ * threads interning different objects rarely contend. Each segment holds at
+ * most maxSize / numSegments objects:
+ * <ul>
+ * <li>with strong references (the default), the least recently interned
+ * object of a full segment is evicted;</li>
+ * <li>with weak references, canonical objects no longer referenced anywhere
+ * else are reclaimed by the garbage collector, and a segment which still
+ * fills up is cleared.</li>
+ * </ul>
+ * Eviction weakens the usual Interner guarantee: intern(x) == intern(y) only
+ * holds while the canonical object stays interned, after which an equal
+ * object becomes the new canonical instance. Callers which compare interned
+ * objects with equals() (as hash maps do) are unaffected. Hit, miss and
+ * eviction counts are kept for monitoring.
+ */
+public class ConcurrentInterner<T> {
+
+	private class Segment {
+		Map<T, Object> canonicalMap;
+
+		Segment() {
+			if (weak) {
+				canonicalMap = new WeakHashMap<T, Object>();
+			} else {
+				canonicalMap = new LinkedHashMap<T, Object>(16, 0.75f, true) {
+					private static final long serialVersionUID = 1L;
+
+					protected boolean removeEldestEntry(Map.Entry<T, Object> eldest) {
+						if (size() > maxSegmentSize) {
+							evictions.incrementAndGet();
+							return true;
+						}
+						return false;
+					}
+				};
+			}
+		}
+
+		@SuppressWarnings("unchecked")
+		T get(T object) {
+			Object value = canonicalMap.get(object);
+			if (value instanceof WeakReference)
+				return ((WeakReference<T>) value).get();
+			return (T) value;
+		}
+
+		void put(T canonical) {
+			if (weak) {
+				if (canonicalMap.size() >= maxSegmentSize) {
+					evictions.addAndGet(canonicalMap.size());
+					canonicalMap.clear();
+				}
+				// the value must not strongly reference the key, or it would
+				// never be collected
+				canonicalMap.put(canonical, new WeakReference<T>(canonical));
+			} else {
+				canonicalMap.put(canonical, canonical);
+			}
+		}
+	}
+
+	final boolean weak;
+	final int maxSegmentSize;
+	final Segment[] segments;
+	final Interner.CanonicalFactory<T> cf;
+
+	final AtomicLong hits = new AtomicLong();
+	final AtomicLong misses = new AtomicLong();
+	final AtomicLong evictions = new AtomicLong();
+
+	private Segment segmentFor(Object object) {
+		int h = object.hashCode() * 0x9E3779B9;
+		return segments[(h ^ (h >>> 16)) & (segments.length - 1)];
+	}
+
+	/**
+	 * Returns a canonical representation of the given object. If the object
+	 * has no canonical representation, one is built using the interner's
+	 * CanonicalFactory. The object passed in is only read, so it may be a
+	 * reused (e.g. thread-local) probe object if the factory copies it.
+	 */
+	public T intern(T object) {
+		Segment segment = segmentFor(object);
+		synchronized (segment) {
+			T canonical = segment.get(object);
+			if (canonical != null) {
+				hits.incrementAndGet();
+				return canonical;
+			}
+			misses.incrementAndGet();
+			canonical = cf.build(object);
+			segment.put(canonical);
+			return canonical;
+		}
+	}
+
+	/**
+	 * Does the interner currently have a canonical copy of this object?
+	 */
+	public boolean contains(T object) {
+		Segment segment = segmentFor(object);
+		synchronized (segment) {
+			return segment.get(object) != null;
+		}
+	}
+
+	/**
+	 * How many interned objects are there? With weak references this may
+	 * include objects which are about to be collected.
+	 */
+	public int size() {
+		int size = 0;
+		for (Segment segment : segments) {
+			synchronized (segment) {
+				size += segment.canonicalMap.size();
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * The upper bound on the number of interned objects.
+	 */
+	public int getMaxSize() {
+		return maxSegmentSize * segments.length;
+	}
+
+	/**
+	 * Returns a snapshot of the canonical objects in the interner.
+	 */
+	public Collection<T> getCanonicalObjects() {
+		List<T> canonicalObjects = new ArrayList<T>();
+		for (Segment segment : segments) {
+			synchronized (segment) {
+				for (T object : segment.canonicalMap.keySet()) {
+					if (object != null)
+						canonicalObjects.add(object);
+				}
+			}
+		}
+		return canonicalObjects;
+	}
+
+	public long getHitCount() {
+		return hits.get();
+	}
+
+	public long getMissCount() {
+		return misses.get();
+	}
+
+	public long getEvictionCount() {
+		return evictions.get();
+	}
+
+	public double getHitRate() {
+		long lookups = hits.get() + misses.get();
+		return (lookups == 0 ? 0.0 : hits.get() / (double) lookups);
+	}
+
+	public String getStatistics() {
+		return String.format(
+				"size=%d/%d hits=%d misses=%d evictions=%d hitRate=%.4f",
+				size(), getMaxSize(), getHitCount(), getMissCount(),
+				getEvictionCount(), getHitRate());
+	}
+
+	/**
+	 * Clear the contents of the interner (the statistics are kept).
+	 */
+	public void clear() {
+		for (Segment segment : segments) {
+			synchronized (segment) {
+				segment.canonicalMap.clear();
+			}
+		}
+	}
+
+	public ConcurrentInterner() {
+		this(Integer.MAX_VALUE, false);
+	}
+
+	public ConcurrentInterner(int maxSize, boolean weak) {
+		this(maxSize, weak, new Interner.IdentityCanonicalFactory<T>());
+	}
+
+	public ConcurrentInterner(int maxSize, boolean weak,
+			Interner.CanonicalFactory<T> cf) {
+		this(maxSize, weak, cf, 16 * Runtime.getRuntime()
+				.availableProcessors());
+	}
+
+	@SuppressWarnings("unchecked")
+	public ConcurrentInterner(int maxSize, boolean weak,
+			Interner.CanonicalFactory<T> cf, int concurrencyLevel) {
+		int numSegments = 1;
+		while (numSegments < concurrencyLevel) {
+			numSegments *= 2;
+		}
+		this.weak = weak;
+		this.cf = cf;
+		this.maxSegmentSize = Math.max(1, maxSize / numSegments);
+		this.segments = (Segment[]) java.lang.reflect.Array.newInstance(
+				Segment.class, numSegments);
+		for (int i = 0; i < numSegments; i++) {
+			segments[i] = new Segment();
+		}
+	}
+}
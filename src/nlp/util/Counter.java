@@ -10,7 +10,8 @@ import java.util.Map.Entry;
  * A map from objects to doubles. Includes convenience methods for getting,
  * setting, and incrementing element counts. Objects not in the counter will
  * return a count of zero. The counter is backed by a HashMap (unless specified
- * otherwise with the MapFactory constructor).
+ * otherwise with the MapFactory constructor). For counters which get
+ * incremented in inner loops, FastCounter avoids boxing every count.
  */
 public class Counter<E> implements Serializable {
 	private static final long serialVersionUID = 5724671156522771655L;
@@ -220,6 +221,23 @@ public class Counter<E> implements Serializable {
 		return pq;
 	}
 
+	/**
+	 * Receives the entries of a counter one at a time; see forEachEntry().
+	 */
+	public static interface EntryVisitor<E> {
+		void visit(E key, double count);
+	}
+
+	/**
+	 * Passes each key and its count to the visitor. Unlike iterating over
+	 * the entry set, this boxes nothing in a FastCounter.
+	 */
+	public void forEachEntry(EntryVisitor<? super E> visitor) {
+		for (Entry<E, Double> entry : entries.entrySet()) {
+			visitor.visit(entry.getKey(), entry.getValue());
+		}
+	}
+
 	/**
 	 * Entry sets are an efficient way to iterate over the key-value pairs in a
 	 * map
@@ -248,6 +266,13 @@ public class Counter<E> implements Serializable {
 		incrementAll(collection, 1.0);
 	}
 
+	/**
+	 * For subclasses which keep their counts somewhere other than a Map (see
+	 * FastCounter). No entries map is built.
+	 */
+	Counter(Void noEntries) {
+	}
+
 	public static void main(String[] args) {
 		Counter<String> counter = new Counter<String>();
 		System.out.println(counter);
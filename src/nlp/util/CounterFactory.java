@@ -0,0 +1,41 @@
+package nlp.util;
+
+import java.io.Serializable;
+
+/**
+ * The CounterFactory is a mechanism for specifying what kind of Counter is to
+ * be built by some object, in the same way a MapFactory specifies maps. For
+ * example, a CounterMap built with a FastCounterFactory stores each of its
+ * sub-counters in a FastCounter rather than a HashMap-backed Counter.
+ */
+public abstract class CounterFactory<E> implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	public static class MapCounterFactory<E> extends CounterFactory<E> {
+		private static final long serialVersionUID = 1L;
+
+		MapFactory<E, Double> mf;
+
+		public Counter<E> buildCounter() {
+			return new Counter<E>(mf);
+		}
+
+		public MapCounterFactory() {
+			this(new MapFactory.HashMapFactory<E, Double>());
+		}
+
+		public MapCounterFactory(MapFactory<E, Double> mf) {
+			this.mf = mf;
+		}
+	}
+
+	public static class FastCounterFactory<E> extends CounterFactory<E> {
+		private static final long serialVersionUID = 1L;
+
+		public Counter<E> buildCounter() {
+			return new FastCounter<E>();
+		}
+	}
+
+	public abstract Counter<E> buildCounter();
+}
@@ -14,7 +14,7 @@ import java.util.Set;
 public class CounterMap<K, V> implements java.io.Serializable {
 	private static final long serialVersionUID = 5724671156522771668L;
 
-	MapFactory<V, Double> mf;
+	CounterFactory<V> cf;
 	Map<K, Counter<V>> counterMap;
 
 	int currentModCount = 0;
@@ -24,7 +24,7 @@ public class CounterMap<K, V> implements java.io.Serializable {
 	protected Counter<V> ensureCounter(K key) {
 		Counter<V> valueCounter = counterMap.get(key);
 		if (valueCounter == null) {
-			valueCounter = new Counter<V>(mf);
+			valueCounter = cf.buildCounter();
 			counterMap.put(key, valueCounter);
 		}
 		return valueCounter;
@@ -179,7 +179,16 @@ public class CounterMap<K, V> implements java.io.Serializable {
 
 	public CounterMap(MapFactory<K, Counter<V>> outerMF,
 			MapFactory<V, Double> innerMF) {
-		mf = innerMF;
+		this(outerMF, new CounterFactory.MapCounterFactory<V>(innerMF));
+	}
+
+	public CounterMap(CounterFactory<V> innerCF) {
+		this(new MapFactory.HashMapFactory<K, Counter<V>>(), innerCF);
+	}
+
+	public CounterMap(MapFactory<K, Counter<V>> outerMF,
+			CounterFactory<V> innerCF) {
+		cf = innerCF;
 		counterMap = outerMF.buildMap();
 	}
 
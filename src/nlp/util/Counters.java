@@ -6,7 +6,7 @@ import java.util.Random;
 
 public class Counters {
 	public static <E> Counter<E> normalize(Counter<E> counter) {
-		Counter<E> normalizedCounter = new Counter<E>();
+		Counter<E> normalizedCounter = new FastCounter<E>(counter.size());
 		double total = counter.totalCount();
 		for (E key : counter.keySet()) {
 			normalizedCounter.setCount(key, counter.getCount(key) / total);
@@ -16,7 +16,8 @@ public class Counters {
 
 	public static <K, V> CounterMap<K, V> conditionalNormalize(
 			CounterMap<K, V> counterMap) {
-		CounterMap<K, V> normalizedCounterMap = new CounterMap<K, V>();
+		CounterMap<K, V> normalizedCounterMap = new CounterMap<K, V>(
+				new CounterFactory.FastCounterFactory<V>());
 		for (K key : counterMap.keySet()) {
 			Counter<V> normalizedSubCounter = normalize(counterMap
 					.getCounter(key));
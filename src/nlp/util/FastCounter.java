@@ -0,0 +1,540 @@
+package nlp.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A Counter backed by an open addressing hash table (linear probing over an
+ * Object[] of keys and a parallel double[] of counts), so getting, setting and
+ * incrementing counts never allocates a boxed Double. The total count is kept
+ * up to date on every modification instead of being recomputed by a pass over
+ * the entries. keySet() and getEntrySet() are live views of the table; as with
+ * a HashMap, their iterators support remove(), and adding or removing keys
+ * otherwise while iterating makes them throw ConcurrentModificationException
+ * (changing counts is fine).
+ */
+public class FastCounter<E> extends Counter<E> {
+	private static final long serialVersionUID = 1L;
+
+	private static final Object NULL_KEY = new NullKey();
+	private static final double MAX_LOAD = 0.5;
+
+	// the table depends on the keys' hash codes, which needn't survive
+	// serialization, so the entries are written out and rehashed on reading
+	transient Object[] keys;
+	transient double[] values;
+	transient int size;
+	double total;
+	// counts insertions and removals of keys, for the iterators; unlike
+	// currentModCount it ignores changes to the counts
+	transient int structureModCount;
+
+	/**
+	 * Stands for the null key in the table. It hashes the same in every JVM
+	 * and deserializes to the one instance.
+	 */
+	private static final class NullKey implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		public int hashCode() {
+			return 0;
+		}
+
+		private Object readResolve() {
+			return NULL_KEY;
+		}
+	}
+
+	private static int hash(Object key) {
+		int h = key.hashCode() * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	private static Object maskNull(Object key) {
+		return (key == null ? NULL_KEY : key);
+	}
+
+	@SuppressWarnings("unchecked")
+	private E unmaskNull(Object key) {
+		return (key == NULL_KEY ? null : (E) key);
+	}
+
+	/**
+	 * Returns the slot holding the key, or -1 if the key is absent.
+	 */
+	private int find(Object key) {
+		Object k = maskNull(key);
+		int mask = keys.length - 1;
+		int slot = hash(k) & mask;
+		while (keys[slot] != null) {
+			if (keys[slot] == k || keys[slot].equals(k))
+				return slot;
+			slot = (slot + 1) & mask;
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the slot holding the key, inserting it with a zero count if
+	 * necessary.
+	 */
+	private int insert(E key) {
+		Object k = maskNull(key);
+		int mask = keys.length - 1;
+		int slot = hash(k) & mask;
+		while (keys[slot] != null) {
+			if (keys[slot] == k || keys[slot].equals(k))
+				return slot;
+			slot = (slot + 1) & mask;
+		}
+		if (size + 1 > keys.length * MAX_LOAD) {
+			rehash(keys.length * 2);
+			return insert(key);
+		}
+		keys[slot] = k;
+		values[slot] = 0.0;
+		size++;
+		structureModCount++;
+		return slot;
+	}
+
+	private void rehash(int capacity) {
+		Object[] oldKeys = keys;
+		double[] oldValues = values;
+		keys = new Object[capacity];
+		values = new double[capacity];
+		int mask = capacity - 1;
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] == null)
+				continue;
+			int slot = hash(oldKeys[i]) & mask;
+			while (keys[slot] != null) {
+				slot = (slot + 1) & mask;
+			}
+			keys[slot] = oldKeys[i];
+			values[slot] = oldValues[i];
+		}
+	}
+
+	/**
+	 * Empties the slot and shifts later members of its probe run back, so no
+	 * tombstones are needed.
+	 */
+	private void deleteSlot(int slot) {
+		int mask = keys.length - 1;
+		int hole = slot;
+		int next = (hole + 1) & mask;
+		while (keys[next] != null) {
+			int home = hash(keys[next]) & mask;
+			// move the entry into the hole unless its home lies cyclically
+			// in (hole, next]
+			if (((next - home) & mask) >= ((next - hole) & mask)) {
+				keys[hole] = keys[next];
+				values[hole] = values[next];
+				hole = next;
+			}
+			next = (next + 1) & mask;
+		}
+		keys[hole] = null;
+		values[hole] = 0.0;
+		size--;
+		structureModCount++;
+	}
+
+	private void modified() {
+		currentModCount++;
+	}
+
+	public Set<E> keySet() {
+		return new AbstractSet<E>() {
+			public Iterator<E> iterator() {
+				return new SlotIterator<E>() {
+					E get(int slot) {
+						return unmaskNull(keys[slot]);
+					}
+				};
+			}
+
+			public int size() {
+				return size;
+			}
+
+			public boolean contains(Object o) {
+				return find(o) >= 0;
+			}
+
+			public boolean remove(Object o) {
+				int slot = find(o);
+				if (slot < 0)
+					return false;
+				total -= values[slot];
+				deleteSlot(slot);
+				modified();
+				return true;
+			}
+		};
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean containsKey(E key) {
+		return find(key) >= 0;
+	}
+
+	public double removeKey(E key) {
+		int slot = find(key);
+		if (slot < 0)
+			return 0.0;
+		double count = values[slot];
+		total -= count;
+		deleteSlot(slot);
+		modified();
+		return count;
+	}
+
+	public double getCount(E key) {
+		int slot = find(key);
+		if (slot < 0)
+			return 0.0;
+		return values[slot];
+	}
+
+	public void setCount(E key, double count) {
+		int slot = insert(key);
+		total += count - values[slot];
+		values[slot] = count;
+		modified();
+	}
+
+	public void incrementCount(E key, double increment) {
+		int slot = insert(key);
+		values[slot] += increment;
+		total += increment;
+		modified();
+	}
+
+	public <T extends E> void incrementAll(Counter<T> counter) {
+		if (counter instanceof FastCounter) {
+			FastCounter<T> other = (FastCounter<T>) counter;
+			for (int i = 0; i < other.keys.length; i++) {
+				if (other.keys[i] != null)
+					incrementCount(other.unmaskNull(other.keys[i]),
+							other.values[i]);
+			}
+			return;
+		}
+		super.incrementAll(counter);
+	}
+
+	/**
+	 * Walks the table directly, allocating nothing.
+	 */
+	public void forEachEntry(EntryVisitor<? super E> visitor) {
+		for (int i = 0; i < keys.length; i++) {
+			if (keys[i] != null)
+				visitor.visit(unmaskNull(keys[i]), values[i]);
+		}
+	}
+
+	/**
+	 * The total of all counts, maintained incrementally.
+	 */
+	public double totalCount() {
+		return total;
+	}
+
+	public void normalize() {
+		scale(1.0 / total);
+	}
+
+	public void scale(double scaleFactor) {
+		double newTotal = 0.0;
+		for (int i = 0; i < keys.length; i++) {
+			if (keys[i] != null) {
+				values[i] *= scaleFactor;
+				newTotal += values[i];
+			}
+		}
+		total = newTotal;
+		modified();
+	}
+
+	public E argMax() {
+		double maxCount = Double.NEGATIVE_INFINITY;
+		int maxSlot = -1;
+		for (int i = 0; i < keys.length; i++) {
+			if (keys[i] != null && (values[i] > maxCount || maxSlot < 0)) {
+				maxSlot = i;
+				maxCount = values[i];
+			}
+		}
+		return (maxSlot < 0 ? null : unmaskNull(keys[maxSlot]));
+	}
+
+	public PriorityQueue<E> asPriorityQueue() {
+		PriorityQueue<E> pq = new FastPriorityQueue<E>(size);
+		for (int i = 0; i < keys.length; i++) {
+			if (keys[i] != null)
+				pq.setPriority(unmaskNull(keys[i]), values[i]);
+		}
+		return pq;
+	}
+
+	/**
+	 * A view of the entries. Unlike the other accessors this boxes a Double
+	 * per entry visited, so hot loops should prefer keySet() and getCount().
+	 */
+	public Set<Map.Entry<E, Double>> getEntrySet() {
+		return new AbstractSet<Map.Entry<E, Double>>() {
+			public Iterator<Map.Entry<E, Double>> iterator() {
+				return new SlotIterator<Map.Entry<E, Double>>() {
+					Map.Entry<E, Double> get(final int slot) {
+						return new Map.Entry<E, Double>() {
+							public E getKey() {
+								return unmaskNull(keys[slot]);
+							}
+
+							public Double getValue() {
+								return values[slot];
+							}
+
+							public Double setValue(Double value) {
+								double old = values[slot];
+								total += value - old;
+								values[slot] = value;
+								modified();
+								return old;
+							}
+						};
+					}
+				};
+			}
+
+			public int size() {
+				return size;
+			}
+		};
+	}
+
+	/**
+	 * Walks the occupied slots of the table once round, starting just after
+	 * an empty slot. No probe run then wraps around the end of the walk, so
+	 * the entries deleteSlot() shifts back into a removed slot are ones the
+	 * walk hasn't reached yet, and are found by looking at that slot again.
+	 */
+	abstract class SlotIterator<T> implements Iterator<T> {
+		int start = emptySlot();
+		// offsets from start
+		int nextOffset = advance(1);
+		int lastOffset = -1;
+		int expectedModCount = structureModCount;
+
+		private int emptySlot() {
+			int slot = 0;
+			while (keys[slot] != null) {
+				slot++;
+			}
+			return slot;
+		}
+
+		private int slot(int offset) {
+			return (start + offset) & (keys.length - 1);
+		}
+
+		private int advance(int offset) {
+			while (offset < keys.length && keys[slot(offset)] == null) {
+				offset++;
+			}
+			return offset;
+		}
+
+		abstract T get(int slot);
+
+		public boolean hasNext() {
+			return nextOffset < keys.length;
+		}
+
+		public T next() {
+			if (structureModCount != expectedModCount)
+				throw new ConcurrentModificationException();
+			if (!hasNext())
+				throw new NoSuchElementException();
+			lastOffset = nextOffset;
+			nextOffset = advance(nextOffset + 1);
+			return get(slot(lastOffset));
+		}
+
+		public void remove() {
+			if (lastOffset < 0)
+				throw new IllegalStateException();
+			if (structureModCount != expectedModCount)
+				throw new ConcurrentModificationException();
+			int slot = slot(lastOffset);
+			total -= values[slot];
+			deleteSlot(slot);
+			modified();
+			expectedModCount = structureModCount;
+			nextOffset = advance(lastOffset);
+			lastOffset = -1;
+		}
+	}
+
+	/**
+	 * Removes all entries, keeping the allocated table.
+	 */
+	public void clear() {
+		Arrays.fill(keys, null);
+		Arrays.fill(values, 0.0);
+		size = 0;
+		total = 0.0;
+		structureModCount++;
+		modified();
+	}
+
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		out.defaultWriteObject();
+		out.writeInt(size);
+		for (int slot = 0; slot < keys.length; slot++) {
+			if (keys[slot] == null)
+				continue;
+			out.writeObject(unmaskNull(keys[slot]));
+			out.writeDouble(values[slot]);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private void readObject(ObjectInputStream in) throws IOException,
+			ClassNotFoundException {
+		in.defaultReadObject();
+		int numEntries = in.readInt();
+		allocate(numEntries);
+		for (int i = 0; i < numEntries; i++) {
+			E key = (E) in.readObject();
+			values[insert(key)] = in.readDouble();
+		}
+	}
+
+	private void allocate(int expectedSize) {
+		int capacity = 8;
+		while (capacity * MAX_LOAD < expectedSize) {
+			capacity *= 2;
+		}
+		keys = new Object[capacity];
+		values = new double[capacity];
+	}
+
+	public FastCounter() {
+		this(8);
+	}
+
+	public FastCounter(int expectedSize) {
+		super((Void) null);
+		allocate(expectedSize);
+	}
+
+	public FastCounter(Counter<? extends E> counter) {
+		this(counter.size());
+		incrementAll(counter);
+	}
+
+	public static void main(String[] args) {
+		int numKeys = 100000;
+		int numIncrements = 10000000;
+		String[] words = new String[numKeys];
+		for (int i = 0; i < numKeys; i++) {
+			words[i] = "w" + i;
+		}
+		for (int trial = 0; trial < 3; trial++) {
+			Stopwatch watch = new Stopwatch();
+			Counter<String> counter = new Counter<String>();
+			for (int i = 0; i < numIncrements; i++) {
+				counter.incrementCount(words[(i * 31) % numKeys], 1.0);
+			}
+			double total = counter.totalCount();
+			watch.stop();
+			System.out.printf("Counter:     %.3f s (total %.0f)\n",
+					watch.getLastElapsedTime(), total);
+			watch = new Stopwatch();
+			counter = new FastCounter<String>();
+			for (int i = 0; i < numIncrements; i++) {
+				counter.incrementCount(words[(i * 31) % numKeys], 1.0);
+			}
+			total = counter.totalCount();
+			watch.stop();
+			System.out.printf("FastCounter: %.3f s (total %.0f)\n",
+					watch.getLastElapsedTime(), total);
+		}
+
+		// a round trip through serialization, null key included
+		FastCounter<String> counter = new FastCounter<String>();
+		for (int i = 0; i < numKeys; i++) {
+			counter.incrementCount(words[i], i);
+		}
+		counter.setCount(null, -1.0);
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			ObjectOutputStream out = new ObjectOutputStream(bytes);
+			out.writeObject(counter);
+			out.close();
+			ObjectInputStream in = new ObjectInputStream(
+					new ByteArrayInputStream(bytes.toByteArray()));
+			@SuppressWarnings("unchecked")
+			FastCounter<String> copy = (FastCounter<String>) in.readObject();
+			int errors = 0;
+			for (int i = 0; i < numKeys; i++) {
+				if (copy.getCount(words[i]) != i)
+					errors++;
+			}
+			if (copy.getCount(null) != -1.0)
+				errors++;
+			copy.incrementCount(null, 1.0);
+			System.out.printf(
+					"Deserialized %d entries (%d wrong), total %.0f, null key now %.0f\n",
+					copy.size(), errors, copy.totalCount(), copy.getCount(null));
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+
+		// removing every other key through the iterator must visit each key
+		// once and keep the rest findable, however the removals shift them
+		int visited = 0;
+		for (Iterator<String> iterator = counter.keySet().iterator(); iterator
+				.hasNext();) {
+			String key = iterator.next();
+			if (visited++ % 2 == 0)
+				iterator.remove();
+		}
+		int found = 0;
+		double total = 0.0;
+		for (String key : counter.keySet()) {
+			if (counter.containsKey(key))
+				found++;
+			total += counter.getCount(key);
+		}
+		System.out.printf(
+				"Iterator removal: visited %d keys, %d of %d left found, total %s\n",
+				visited, found, counter.size(),
+				total == counter.totalCount() ? "consistent" : "WRONG");
+		try {
+			for (String key : counter.keySet()) {
+				counter.setCount(key + "'", 1.0);
+			}
+			System.out.println("Insertion while iterating: NOT DETECTED");
+		} catch (ConcurrentModificationException e) {
+			System.out.println("Insertion while iterating: detected");
+		}
+	}
+}
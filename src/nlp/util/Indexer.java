@@ -93,4 +93,10 @@ public class Indexer<E> extends AbstractList<E> implements Serializable {
 		this();
 		addAll(c);
 	}
+
+	/**
+	 * For subclasses which keep their own storage (see ConcurrentIndexer).
+	 */
+	Indexer(Void noStorage) {
+	}
 }
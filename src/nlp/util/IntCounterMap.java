@@ -0,0 +1,362 @@
+package nlp.util;
+
+import java.util.Arrays;
+
+/**
+ * A CounterMap over int keys and values, typically the indexes handed out by
+ * an Indexer. Counts are accumulated in a single open addressing table keyed
+ * by the (key, value) pair; freeze() then compacts them into CSR form: for
+ * each key a contiguous row of value indexes in increasing order with their
+ * counts alongside. Frozen rows can be walked without any object allocation:
+ *
+ * <pre>
+ * for (int i = map.rowBegin(key); i &lt; map.rowEnd(key); i++) {
+ * 	int value = map.getColumn(i);
+ * 	double count = map.getValue(i);
+ * }
+ * </pre>
+ *
+ * Unlike CounterMap.getCounter(), looking up a key which is not present never
+ * adds anything to the map.
+ */
+public class IntCounterMap implements java.io.Serializable {
+	private static final long serialVersionUID = 1L;
+
+	private static final long EMPTY = -1L;
+
+	// the building table
+	long[] pairKeys;
+	double[] pairCounts;
+	int numPairs;
+	int numKeys;
+
+	// the frozen rows
+	int[] rowOffsets;
+	int[] columns;
+	double[] values;
+
+	double totalCount;
+
+	private static long pair(int key, int value) {
+		return ((long) key << 32) | (value & 0xFFFFFFFFL);
+	}
+
+	private static int hash(long pair) {
+		long h = pair * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+
+	public boolean isFrozen() {
+		return rowOffsets != null;
+	}
+
+	private void checkNotFrozen() {
+		if (isFrozen())
+			throw new IllegalStateException(
+					"IntCounterMap: cannot modify a frozen map");
+	}
+
+	private int findSlot(long pair) {
+		int mask = pairKeys.length - 1;
+		int slot = hash(pair) & mask;
+		while (pairKeys[slot] != EMPTY && pairKeys[slot] != pair) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	private int ensureSlot(int key, int value) {
+		if (key < 0 || value < 0)
+			throw new IllegalArgumentException("IntCounterMap: negative index ("
+					+ key + ", " + value + ")");
+		long pair = pair(key, value);
+		int slot = findSlot(pair);
+		if (pairKeys[slot] == EMPTY) {
+			if (2 * (numPairs + 1) > pairKeys.length) {
+				rehash(2 * pairKeys.length);
+				slot = findSlot(pair);
+			}
+			pairKeys[slot] = pair;
+			pairCounts[slot] = 0.0;
+			numPairs++;
+			if (key >= numKeys)
+				numKeys = key + 1;
+		}
+		return slot;
+	}
+
+	private void rehash(int capacity) {
+		long[] oldKeys = pairKeys;
+		double[] oldCounts = pairCounts;
+		pairKeys = new long[capacity];
+		Arrays.fill(pairKeys, EMPTY);
+		pairCounts = new double[capacity];
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] == EMPTY)
+				continue;
+			int slot = findSlot(oldKeys[i]);
+			pairKeys[slot] = oldKeys[i];
+			pairCounts[slot] = oldCounts[i];
+		}
+	}
+
+	/**
+	 * Sets the count for a particular (key, value) pair. Only allowed before
+	 * the map is frozen.
+	 */
+	public void setCount(int key, int value, double count) {
+		checkNotFrozen();
+		int slot = ensureSlot(key, value);
+		totalCount += count - pairCounts[slot];
+		pairCounts[slot] = count;
+	}
+
+	/**
+	 * Increments the count for a particular (key, value) pair. Only allowed
+	 * before the map is frozen.
+	 */
+	public void incrementCount(int key, int value, double count) {
+		checkNotFrozen();
+		int slot = ensureSlot(key, value);
+		pairCounts[slot] += count;
+		totalCount += count;
+	}
+
+	/**
+	 * Gets the count of the given (key, value) entry, or zero if that entry is
+	 * not present. Does not create any objects, before or after freezing.
+	 */
+	public double getCount(int key, int value) {
+		if (!isFrozen()) {
+			if (key < 0 || value < 0)
+				return 0.0;
+			int slot = findSlot(pair(key, value));
+			return (pairKeys[slot] == EMPTY ? 0.0 : pairCounts[slot]);
+		}
+		if (key < 0 || key >= numKeys)
+			return 0.0;
+		int i = Arrays.binarySearch(columns, rowOffsets[key],
+				rowOffsets[key + 1], value);
+		return (i < 0 ? 0.0 : values[i]);
+	}
+
+	/**
+	 * Compacts the counts into sorted CSR rows and releases the building
+	 * table. After this the map is read-only, apart from normalization.
+	 */
+	public void freeze() {
+		if (isFrozen())
+			return;
+		rowOffsets = new int[numKeys + 1];
+		for (int slot = 0; slot < pairKeys.length; slot++) {
+			if (pairKeys[slot] != EMPTY)
+				rowOffsets[(int) (pairKeys[slot] >>> 32) + 1]++;
+		}
+		for (int key = 0; key < numKeys; key++) {
+			rowOffsets[key + 1] += rowOffsets[key];
+		}
+		// bucket the pairs by key; within a bucket, sort by value
+		long[] rowPairs = new long[numPairs];
+		double[] rowCounts = new double[numPairs];
+		int[] fill = Arrays.copyOf(rowOffsets, numKeys);
+		for (int slot = 0; slot < pairKeys.length; slot++) {
+			if (pairKeys[slot] == EMPTY)
+				continue;
+			int i = fill[(int) (pairKeys[slot] >>> 32)]++;
+			rowPairs[i] = pairKeys[slot];
+			rowCounts[i] = pairCounts[slot];
+		}
+		columns = new int[numPairs];
+		values = new double[numPairs];
+		long[] order = new long[0];
+		for (int key = 0; key < numKeys; key++) {
+			int begin = rowOffsets[key];
+			int length = rowOffsets[key + 1] - begin;
+			if (order.length < length)
+				order = new long[Math.max(length, 2 * order.length)];
+			for (int j = 0; j < length; j++) {
+				order[j] = ((rowPairs[begin + j] & 0xFFFFFFFFL) << 32) | j;
+			}
+			Arrays.sort(order, 0, length);
+			for (int j = 0; j < length; j++) {
+				columns[begin + j] = (int) (order[j] >>> 32);
+				values[begin + j] = rowCounts[begin + (int) order[j]];
+			}
+		}
+		pairKeys = null;
+		pairCounts = null;
+	}
+
+	private void checkFrozen() {
+		if (!isFrozen())
+			throw new IllegalStateException(
+					"IntCounterMap: rows are only available after freeze()");
+	}
+
+	/**
+	 * The first position of the key's row. Rows of keys never seen are empty.
+	 */
+	public int rowBegin(int key) {
+		checkFrozen();
+		if (key < 0 || key >= numKeys)
+			return 0;
+		return rowOffsets[key];
+	}
+
+	/**
+	 * One past the last position of the key's row.
+	 */
+	public int rowEnd(int key) {
+		checkFrozen();
+		if (key < 0 || key >= numKeys)
+			return 0;
+		return rowOffsets[key + 1];
+	}
+
+	/**
+	 * The value index stored at the given row position.
+	 */
+	public int getColumn(int position) {
+		return columns[position];
+	}
+
+	/**
+	 * The count stored at the given row position.
+	 */
+	public double getValue(int position) {
+		return values[position];
+	}
+
+	/**
+	 * Whether the key has any entries.
+	 */
+	public boolean containsKey(int key) {
+		if (!isFrozen())
+			throw new IllegalStateException(
+					"IntCounterMap: containsKey is only available after freeze()");
+		return rowEnd(key) > rowBegin(key);
+	}
+
+	/**
+	 * The total of the counts in the key's row.
+	 */
+	public double getRowTotal(int key) {
+		double total = 0.0;
+		for (int i = rowBegin(key); i < rowEnd(key); i++) {
+			total += values[i];
+		}
+		return total;
+	}
+
+	/**
+	 * The value with the largest count in the key's row, or -1 for an empty
+	 * row.
+	 */
+	public int argMax(int key) {
+		int maxValue = -1;
+		double maxCount = Double.NEGATIVE_INFINITY;
+		for (int i = rowBegin(key); i < rowEnd(key); i++) {
+			if (values[i] > maxCount) {
+				maxCount = values[i];
+				maxValue = columns[i];
+			}
+		}
+		return maxValue;
+	}
+
+	/**
+	 * Destructively normalizes each row in place, so the counts of each key
+	 * sum to one (freezing the map first if necessary).
+	 */
+	public void conditionalNormalize() {
+		freeze();
+		totalCount = 0.0;
+		for (int key = 0; key < numKeys; key++) {
+			double rowTotal = getRowTotal(key);
+			if (rowTotal == 0.0)
+				continue;
+			for (int i = rowOffsets[key]; i < rowOffsets[key + 1]; i++) {
+				values[i] /= rowTotal;
+			}
+			totalCount += 1.0;
+		}
+	}
+
+	/**
+	 * The number of keys, i.e. one more than the largest key index seen.
+	 */
+	public int size() {
+		return numKeys;
+	}
+
+	/**
+	 * The total number of (key, value) entries.
+	 */
+	public int totalSize() {
+		return numPairs;
+	}
+
+	public double totalCount() {
+		return totalCount;
+	}
+
+	public String toString() {
+		if (!isFrozen())
+			return "IntCounterMap[" + numPairs + " entries, not frozen]";
+		StringBuilder sb = new StringBuilder("[\n");
+		for (int key = 0; key < numKeys; key++) {
+			if (rowBegin(key) == rowEnd(key))
+				continue;
+			sb.append("  ").append(key).append(" -> {");
+			for (int i = rowBegin(key); i < rowEnd(key); i++) {
+				if (i > rowBegin(key))
+					sb.append(", ");
+				sb.append(columns[i]).append('=').append(values[i]);
+			}
+			sb.append("}\n");
+		}
+		sb.append("]");
+		return sb.toString();
+	}
+
+	public IntCounterMap() {
+		this(16);
+	}
+
+	public IntCounterMap(int expectedSize) {
+		int capacity = 16;
+		while (capacity < 2 * expectedSize) {
+			capacity *= 2;
+		}
+		pairKeys = new long[capacity];
+		Arrays.fill(pairKeys, EMPTY);
+		pairCounts = new double[capacity];
+	}
+
+	public static void main(String[] args) {
+		Indexer<String> words = new Indexer<String>();
+		IntCounterMap bigrams = new IntCounterMap();
+		bigrams.incrementCount(words.addAndGetIndex("people"),
+				words.addAndGetIndex("run"), 1);
+		bigrams.incrementCount(words.addAndGetIndex("cats"),
+				words.addAndGetIndex("growl"), 2);
+		bigrams.incrementCount(words.addAndGetIndex("cats"),
+				words.addAndGetIndex("scamper"), 3);
+		bigrams.freeze();
+		System.out.println(bigrams);
+		int cats = words.indexOf("cats");
+		for (int i = bigrams.rowBegin(cats); i < bigrams.rowEnd(cats); i++) {
+			System.out.println("cats " + words.get(bigrams.getColumn(i))
+					+ ": " + bigrams.getValue(i));
+		}
+		System.out.println("Count of cats scamper: "
+				+ bigrams.getCount(cats, words.indexOf("scamper")));
+		System.out.println("Count of snakes slither: "
+				+ bigrams.getCount(words.indexOf("snakes"),
+						words.indexOf("slither")));
+		System.out.println("Total size: " + bigrams.totalSize());
+		System.out.println("Total count: " + bigrams.totalCount());
+		bigrams.conditionalNormalize();
+		System.out.println(bigrams);
+	}
+}
@@ -0,0 +1,156 @@
+package nlp.util;
+
+import java.util.Arrays;
+
+/**
+ * A counter over long keys, such as packed n-grams, in an open addressing
+ * table (linear probing over a long[] of keys and a parallel double[] of
+ * counts), so counting and looking up never allocate. The key -1 is reserved
+ * to mark empty slots. The entries can be walked slot by slot without any
+ * object allocation:
+ *
+ * <pre>
+ * for (int slot = 0; slot &lt; counter.capacity(); slot++) {
+ * 	if (!counter.isOccupied(slot))
+ * 		continue;
+ * 	long key = counter.getKeyAt(slot);
+ * 	double count = counter.getCountAt(slot);
+ * }
+ * </pre>
+ */
+public class LongCounter implements java.io.Serializable {
+	private static final long serialVersionUID = 1L;
+
+	private static final long EMPTY = -1L;
+
+	long[] keys;
+	double[] counts;
+	int size;
+	double totalCount;
+
+	private static int hash(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+
+	private int findSlot(long key) {
+		int mask = keys.length - 1;
+		int slot = hash(key) & mask;
+		while (keys[slot] != EMPTY && keys[slot] != key) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	private int ensureSlot(long key) {
+		if (key == EMPTY)
+			throw new IllegalArgumentException(
+					"LongCounter: the key -1 is reserved");
+		int slot = findSlot(key);
+		if (keys[slot] == EMPTY) {
+			if (2 * (size + 1) > keys.length) {
+				rehash(2 * keys.length);
+				slot = findSlot(key);
+			}
+			keys[slot] = key;
+			counts[slot] = 0.0;
+			size++;
+		}
+		return slot;
+	}
+
+	private void rehash(int capacity) {
+		long[] oldKeys = keys;
+		double[] oldCounts = counts;
+		keys = new long[capacity];
+		Arrays.fill(keys, EMPTY);
+		counts = new double[capacity];
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] == EMPTY)
+				continue;
+			int slot = findSlot(oldKeys[i]);
+			keys[slot] = oldKeys[i];
+			counts[slot] = oldCounts[i];
+		}
+	}
+
+	public void incrementCount(long key, double count) {
+		int slot = ensureSlot(key);
+		counts[slot] += count;
+		totalCount += count;
+	}
+
+	public void setCount(long key, double count) {
+		int slot = ensureSlot(key);
+		totalCount += count - counts[slot];
+		counts[slot] = count;
+	}
+
+	/**
+	 * The count of the key, or zero if it is absent.
+	 */
+	public double getCount(long key) {
+		if (key == EMPTY)
+			return 0.0;
+		int slot = findSlot(key);
+		return (keys[slot] == EMPTY ? 0.0 : counts[slot]);
+	}
+
+	public boolean containsKey(long key) {
+		return key != EMPTY && keys[findSlot(key)] != EMPTY;
+	}
+
+	/**
+	 * Adds all the counts of the other counter to this one.
+	 */
+	public void incrementAll(LongCounter other) {
+		for (int slot = 0; slot < other.keys.length; slot++) {
+			if (other.keys[slot] != EMPTY)
+				incrementCount(other.keys[slot], other.counts[slot]);
+		}
+	}
+
+	/**
+	 * The number of keys.
+	 */
+	public int size() {
+		return size;
+	}
+
+	public double totalCount() {
+		return totalCount;
+	}
+
+	/**
+	 * The number of slots in the table, for walking the entries.
+	 */
+	public int capacity() {
+		return keys.length;
+	}
+
+	public boolean isOccupied(int slot) {
+		return keys[slot] != EMPTY;
+	}
+
+	public long getKeyAt(int slot) {
+		return keys[slot];
+	}
+
+	public double getCountAt(int slot) {
+		return counts[slot];
+	}
+
+	public LongCounter() {
+		this(16);
+	}
+
+	public LongCounter(int expectedSize) {
+		int capacity = 16;
+		while (capacity < 2 * expectedSize) {
+			capacity *= 2;
+		}
+		keys = new long[capacity];
+		Arrays.fill(keys, EMPTY);
+		counts = new double[capacity];
+	}
+}